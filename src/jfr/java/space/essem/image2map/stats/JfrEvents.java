@@ -0,0 +1,88 @@
+package space.essem.image2map.stats;
+
+import java.util.List;
+
+import jdk.jfr.AnnotationElement;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventFactory;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.ValueDescriptor;
+
+/**
+ * The JFR events recorded by the pipeline, so profiles show what the render
+ * workers and the server thread were doing next to the server ticks. They are
+ * made with {@link EventFactory}, so the events need no classes of their own.
+ * <p>
+ * {@link Event} extends a class in {@code jdk.internal.event}, which isn't
+ * part of the API javac offers with {@code --release}. Any call to a method
+ * of an event fails to compile with a newer JDK than the release, so this
+ * class is built in a source set of its own without {@code --release}. The
+ * rest of the mod only passes events around, which compiles either way.
+ */
+public class JfrEvents {
+    private static final EventFactory STAGE = EventFactory.create(
+            type("space.essem.image2map.Stage", "Image2Map Stage", "One run of a map creation stage"),
+            List.of(field(String.class, "stage", "Stage"), field(long.class, "pixels", "Pixels"),
+                    new ValueDescriptor(long.class, "bytes", List.of(new AnnotationElement(Label.class, "Bytes"),
+                            new AnnotationElement(DataAmount.class, DataAmount.BYTES)))));
+    private static final EventFactory COMMIT_TICK = EventFactory.create(
+            type("space.essem.image2map.CommitTick", "Image2Map Commit Tick",
+                    "Map work done on the server thread during one tick"),
+            List.of(field(int.class, "steps", "Steps"), field(int.class, "tasksLeft", "Tasks Left")));
+
+    /**
+     * Starts timing a stage, see {@link #endStage}.
+     */
+    static Event beginStage() {
+        Event event = STAGE.newEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param stage the name of the stage
+     */
+    static void endStage(Event event, String stage, long pixels, long bytes) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(0, stage);
+            event.set(1, pixels);
+            event.set(2, bytes);
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts timing the map work of a tick, see {@link #endCommitTick}.
+     */
+    public static Event beginCommitTick() {
+        Event event = COMMIT_TICK.newEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void endCommitTick(Event event, int steps, int tasksLeft) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(0, steps);
+            event.set(1, tasksLeft);
+            event.commit();
+        }
+    }
+
+    private static List<AnnotationElement> type(String name, String label, String description) {
+        return List.of(new AnnotationElement(Name.class, name), new AnnotationElement(Label.class, label),
+                new AnnotationElement(Category.class, new String[] { "Image2Map" }),
+                new AnnotationElement(Description.class, description),
+                new AnnotationElement(StackTrace.class, false));
+    }
+
+    private static ValueDescriptor field(Class<?> type, String name, String label) {
+        return new ValueDescriptor(type, name, List.of(new AnnotationElement(Label.class, label)));
+    }
+}
@@ -0,0 +1,73 @@
+package space.essem.image2map.benchmark;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.Random;
+
+import space.essem.image2map.renderer.MapPalette;
+
+/**
+ * Shared inputs for the benchmarks.
+ */
+final class BenchmarkImages {
+    private static MapPalette palette;
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * The vanilla palette, with its lookup table cached in the build directory
+     * so only the first run pays for building it.
+     */
+    static synchronized MapPalette getPalette() {
+        if (palette == null)
+            palette = MapPalette.create(MapPalette.VANILLA_BASE_COLORS, Path.of("build", "jmh-cache"));
+        return palette;
+    }
+
+    /**
+     * A photo-like test image: smooth gradients with some noise on top, so
+     * neither the dithering nor the palette lookups hit the same few colors.
+     */
+    static BufferedImage createImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(0x2A6FDB), width, height, new Color(0xF2C14E)));
+        g.fillRect(0, 0, width, height);
+        g.setPaint(new GradientPaint(0, height, new Color(0x00000000, true), width, 0, new Color(0xA0E4572E, true)));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int argb = image.getRGB(x, y);
+                int noise = random.nextInt(33) - 16;
+                int r = clamp(((argb >> 16) & 0xFF) + noise);
+                int gr = clamp(((argb >> 8) & 0xFF) + noise);
+                int b = clamp((argb & 0xFF) + noise);
+                image.setRGB(x, y, 0xFF000000 | (r << 16) | (gr << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    static int[] createPixels(int width, int height) {
+        return createImage(width, height, BufferedImage.TYPE_INT_ARGB).getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * Parses a poster size like {@code "3x2"}.
+     */
+    static int[] parseSize(String size) {
+        String[] parts = size.split("x");
+        return new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) };
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,52 @@
+package space.essem.image2map.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import space.essem.image2map.renderer.MapQuantizer;
+
+/**
+ * Getting the ARGB pixels of images, as decoded and as made by the resampler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+    @Param({ "128x128", "384x256", "1280x1280" })
+    public String image;
+
+    private BufferedImage decoded;
+    private BufferedImage resampled;
+
+    @Setup
+    public void setup() {
+        int[] size = BenchmarkImages.parseSize(image);
+        decoded = BenchmarkImages.createImage(size[0], size[1], BufferedImage.TYPE_3BYTE_BGR);
+        resampled = MapQuantizer.toImage(BenchmarkImages.createPixels(size[0], size[1]), size[0], size[1]);
+    }
+
+    @Benchmark
+    public int[] decodedPixels() {
+        return MapQuantizer.getPixels(decoded);
+    }
+
+    @Benchmark
+    public int[] resampledPixels() {
+        return MapQuantizer.getPixels(resampled);
+    }
+}
@@ -0,0 +1,58 @@
+package space.essem.image2map.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import space.essem.image2map.renderer.Ditherer;
+import space.essem.image2map.renderer.Ditherers;
+import space.essem.image2map.renderer.MapPalette;
+import space.essem.image2map.renderer.MapQuantizer;
+
+/**
+ * Quantizing whole posters with each dither mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DitherBenchmark {
+    @Param({ "none", "floyd", "serpentine", "atkinson", "sierra_lite", "bayer", "blue_noise" })
+    public String dither;
+
+    @Param({ "1x1", "3x2", "10x10" })
+    public String poster;
+
+    private Ditherer ditherer;
+    private MapPalette palette;
+    private int width;
+    private int height;
+    private int[] pixels;
+
+    @Setup
+    public void setup() {
+        ditherer = Ditherers.get(dither);
+        palette = BenchmarkImages.getPalette();
+        int[] size = BenchmarkImages.parseSize(poster);
+        width = size[0] * 128;
+        height = size[1] * 128;
+        pixels = BenchmarkImages.createPixels(width, height);
+    }
+
+    @Benchmark
+    public byte[] quantize() {
+        return MapQuantizer.quantize(pixels, width, height, ditherer, palette);
+    }
+}
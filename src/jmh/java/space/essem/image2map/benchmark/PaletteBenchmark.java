@@ -0,0 +1,48 @@
+package space.essem.image2map.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import space.essem.image2map.renderer.MapPalette;
+
+/**
+ * Matching pixels to their nearest map color, without any dithering.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaletteBenchmark {
+    @Param({ "128", "640", "1280" })
+    public int size;
+
+    private MapPalette palette;
+    private int[] pixels;
+
+    @Setup
+    public void setup() {
+        palette = BenchmarkImages.getPalette();
+        pixels = BenchmarkImages.createPixels(size, size);
+    }
+
+    @Benchmark
+    public void nearestColor(Blackhole blackhole) {
+        MapPalette palette = this.palette;
+        for (int pixel : pixels)
+            blackhole.consume(palette.match(pixel));
+    }
+}
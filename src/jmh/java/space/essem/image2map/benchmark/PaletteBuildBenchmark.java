@@ -0,0 +1,51 @@
+package space.essem.image2map.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import space.essem.image2map.renderer.ColorMetric;
+import space.essem.image2map.renderer.MapPalette;
+
+/**
+ * Building the palette's lookup table without a cache, with the k-d tree and
+ * with the Vector API, which is only used when its module is added.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+public class PaletteBuildBenchmark {
+    @Param({ "rgb", "cielab", "oklab" })
+    public String metric;
+
+    private ColorMetric colorMetric;
+
+    @Setup
+    public void setup() {
+        colorMetric = ColorMetric.byName(metric);
+    }
+
+    @Benchmark
+    @Fork(1)
+    public MapPalette kdTree() {
+        return MapPalette.create(MapPalette.VANILLA_BASE_COLORS, colorMetric, null);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public MapPalette vector() {
+        return MapPalette.create(MapPalette.VANILLA_BASE_COLORS, colorMetric, null);
+    }
+}
@@ -0,0 +1,578 @@
+package space.essem.image2map.benchmark;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import space.essem.image2map.Image2Map;
+import space.essem.image2map.ImageUtils;
+import space.essem.image2map.animation.GifFrames;
+import space.essem.image2map.renderer.ColorMetric;
+import space.essem.image2map.renderer.Ditherer;
+import space.essem.image2map.renderer.Ditherers;
+import space.essem.image2map.renderer.MapPalette;
+import space.essem.image2map.renderer.MapQuantizer;
+import space.essem.image2map.renderer.RenderMonitor;
+import space.essem.image2map.renderer.RenderWorkers;
+import space.essem.image2map.renderer.ResampleFilter;
+import space.essem.image2map.renderer.Resampler;
+import space.essem.image2map.stats.PipelineStats;
+
+/**
+ * Renders a corpus of images with every dither mode through the same steps as
+ * in game, and reports how fast each stage was and how close the maps come to
+ * the source (PSNR and mean delta E over the opaque pixels, and how many
+ * pixels lost or gained transparency). The source is scaled for comparison
+ * with {@link #REFERENCE_FILTER} on one thread whatever the render used, so
+ * loss in scaling counts as much as loss in dithering. The JSON report is
+ * meant to be kept and compared between commits, with {@code --baseline} any
+ * loss of quality fails the run. Run it with {@code gradlew regressionReport},
+ * {@code gradlew check} compares the built-in corpus with the committed
+ * {@code src/jmh/regression-baseline.json}. Dithering trades the error of
+ * single pixels for the right color on average, so it always scores below
+ * matching alone: compare each mode with itself.
+ * <p>
+ * The built-in corpus is generated, so it needs no files or network: a photo
+ * as PNG and JPEG, pixel art, a transparent PNG and an animated GIF.
+ */
+public final class RegressionReport {
+    private static final String USAGE = """
+            Usage: regressionReport [options]
+              --corpus <dir>     render the images in a directory instead of the built-in corpus
+              --out <file>       where the report goes, build/reports/regression.json by default
+              --baseline <file>  an earlier report to compare with, any loss of quality fails the run
+              --sizes <sizes>    poster sizes to render, 1x1,3x2 by default
+              --metric <metric>  the color metric, rgb by default
+              --filter <filter>  the resampling filter, lanczos by default
+              --threads <n>      the number of render workers, every core by default
+              --runs <n>         how often each image is rendered, the fastest run is reported, 3 by default
+            """;
+    /** How much PSNR or delta E may get worse before it counts, so rounding isn't reported. */
+    private static final double TOLERANCE = 0.005;
+    /**
+     * What the maps are compared with is the source scaled with this filter,
+     * which averages the source pixels under each map pixel when shrinking
+     * and takes the nearest one when growing.
+     */
+    private static final ResampleFilter REFERENCE_FILTER = ResampleFilter.AREA;
+    /** The map colors of the transparent base color. */
+    private static final int TRANSPARENT_COLORS = 4;
+
+    private Path corpus;
+    private Path out = Path.of("build", "reports", "regression.json");
+    private Path baseline;
+    private final List<int[]> sizes = new ArrayList<>(List.of(new int[] { 1, 1 }, new int[] { 3, 2 }));
+    private ColorMetric metric = ColorMetric.RGB;
+    private ResampleFilter filter = ResampleFilter.LANCZOS;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int runs = 3;
+
+    private RegressionReport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        RegressionReport report = new RegressionReport();
+        try {
+            report.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+        System.exit(report.run() ? 0 : 1);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--corpus" -> corpus = Path.of(value);
+                case "--out" -> out = Path.of(value);
+                case "--baseline" -> baseline = Path.of(value);
+                case "--sizes" -> {
+                    sizes.clear();
+                    for (String size : value.split(",")) {
+                        try {
+                            int[] parsed = BenchmarkImages.parseSize(size.toLowerCase(Locale.ROOT));
+                            if (parsed[0] < 1 || parsed[1] < 1)
+                                throw new NumberFormatException();
+                            sizes.add(parsed);
+                        } catch (RuntimeException e) {
+                            throw new IllegalArgumentException("Invalid size " + size);
+                        }
+                    }
+                }
+                case "--metric" -> {
+                    metric = ColorMetric.byName(value);
+                    if (metric == null)
+                        throw new IllegalArgumentException("Invalid color metric " + value);
+                }
+                case "--filter" -> {
+                    filter = ResampleFilter.byName(value);
+                    if (filter == null)
+                        throw new IllegalArgumentException("Invalid filter " + value);
+                }
+                case "--threads" -> threads = parsePositive(args[i], value);
+                case "--runs" -> runs = parsePositive(args[i], value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    private static int parsePositive(String option, String value) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0)
+                return number;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+    }
+
+    /**
+     * @return false if the report is worse than the baseline
+     */
+    private boolean run() throws IOException {
+        MapPalette palette = MapPalette.create(MapPalette.VANILLA_BASE_COLORS, metric, Path.of("build", "jmh-cache"));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Image2Map Regression Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        JsonArray results = new JsonArray();
+        for (Map.Entry<String, byte[]> image : loadCorpus().entrySet()) {
+            Decoded decoded = decode(image.getValue());
+            if (decoded == null) {
+                System.err.println("Skipped " + image.getKey() + ": not a supported image");
+                continue;
+            }
+            for (int[] size : sizes) {
+                List<int[]> references = scaleReferences(decoded, size[0], size[1]);
+                for (String name : Ditherers.getNames()) {
+                    Ditherer ditherer = Ditherers.get(name);
+                    JsonObject result = null;
+                    for (int run = 0; run < runs; run++) {
+                        JsonObject attempt = render(decoded, references, size[0], size[1], ditherer, palette,
+                                executor);
+                        if (result == null || attempt.get("renderMs").getAsDouble() < result.get("renderMs")
+                                .getAsDouble())
+                            result = attempt;
+                    }
+                    JsonObject entry = new JsonObject();
+                    entry.addProperty("image", image.getKey());
+                    entry.addProperty("size", size[0] + "x" + size[1]);
+                    entry.addProperty("dither", name);
+                    entry.addProperty("frames", decoded.frames().size());
+                    entry.addProperty("decodeMs", round(decoded.nanos() / 1e6));
+                    for (Map.Entry<String, JsonElement> field : result.entrySet())
+                        entry.add(field.getKey(), field.getValue());
+                    results.add(entry);
+                    System.out.printf("%-16s %-5s %-12s %8.2f ms  PSNR %6.2f dB  dE %5.2f%n", image.getKey(),
+                            entry.get("size").getAsString(), name, entry.get("renderMs").getAsDouble(),
+                            entry.get("psnr").getAsDouble(), entry.get("meanDeltaE").getAsDouble());
+                }
+            }
+        }
+        executor.shutdown();
+
+        JsonObject report = new JsonObject();
+        report.addProperty("java", System.getProperty("java.version"));
+        report.addProperty("cores", Runtime.getRuntime().availableProcessors());
+        report.addProperty("threads", threads);
+        report.addProperty("metric", metric.getName());
+        report.addProperty("palette", Integer.toHexString(palette.hash()));
+        report.addProperty("filter", filter.getName());
+        report.addProperty("referenceFilter", REFERENCE_FILTER.getName());
+        report.addProperty("corpus", corpus == null ? "built-in" : corpus.toString());
+        report.add("results", results);
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        if (out.getParent() != null)
+            Files.createDirectories(out.getParent());
+        try (Writer writer = Files.newBufferedWriter(out)) {
+            gson.toJson(report, writer);
+        }
+        System.out.println("Wrote " + out);
+        return baseline == null || compare(palette, results);
+    }
+
+    /**
+     * The frames of an image, the way the renderer gets them.
+     */
+    private record Decoded(List<BufferedImage> frames, long nanos) {
+    }
+
+    private Decoded decode(byte[] bytes) throws IOException {
+        Decoded fastest = null;
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            List<BufferedImage> frames = new ArrayList<>();
+            try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                if (!readers.hasNext())
+                    return null;
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, false, false);
+                    if (reader.getFormatName().equalsIgnoreCase("gif") && reader.getNumImages(true) > 1) {
+                        // the frames are drawn onto one canvas, keep a copy of each
+                        GifFrames.read(reader, (frame, delay) -> frames.add(copy(frame)));
+                    } else {
+                        frames.add(reader.read(0));
+                    }
+                } finally {
+                    reader.dispose();
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            if (fastest == null || nanos < fastest.nanos())
+                fastest = new Decoded(frames, nanos);
+        }
+        return fastest;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        return MapQuantizer.toImage(MapQuantizer.getPixels(image).clone(), image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Scales each frame onto a canvas of countX by countY maps the way the
+     * render places it, but with {@link #REFERENCE_FILTER} and on this thread.
+     */
+    private static List<int[]> scaleReferences(Decoded decoded, int countX, int countY) {
+        List<int[]> references = new ArrayList<>();
+        for (BufferedImage frame : decoded.frames()) {
+            int[] reference = new int[countX * 128 * countY * 128];
+            Rectangle area = ImageUtils.place(Image2Map.ScaleMode.FIT, countX * 128, countY * 128, frame.getWidth(),
+                    frame.getHeight());
+            Resampler.resample(MapQuantizer.getPixels(frame), frame.getWidth(), frame.getHeight(), reference,
+                    countX * 128, countY * 128, area.x, area.y, area.width, area.height, REFERENCE_FILTER, null, 1);
+            references.add(reference);
+        }
+        return references;
+    }
+
+    /**
+     * Renders an image like a job does: a still is scaled and dithered a strip
+     * at a time, an animation frame by frame on a scaled canvas.
+     *
+     * @param references each frame scaled for comparison, see {@link #scaleReferences}
+     * @return the timings and the quality
+     */
+    private JsonObject render(Decoded decoded, List<int[]> references, int countX, int countY, Ditherer ditherer,
+            MapPalette palette, ExecutorService executor) {
+        Quality quality = new Quality();
+        JsonObject before = PipelineStats.toJson();
+        long start = System.nanoTime();
+        if (decoded.frames().size() == 1) {
+            BufferedImage image = decoded.frames().get(0);
+            int[] source = MapQuantizer.getPixels(image);
+            Rectangle area = ImageUtils.place(Image2Map.ScaleMode.FIT, countX * 128, countY * 128, image.getWidth(),
+                    image.getHeight());
+            byte[][] tiles = RenderWorkers.renderStrips(source, image.getWidth(), image.getHeight(), area, countX,
+                    countY, filter, ditherer, palette, true, executor, threads, RenderMonitor.NONE).join();
+            long nanos = System.nanoTime() - start;
+            JsonObject after = PipelineStats.toJson();
+            quality.add(references.get(0), tiles, countX, palette);
+            return toJson(nanos, (long) countX * 128 * countY * 128, before, after, quality);
+        }
+
+        List<byte[][]> frames = new ArrayList<>();
+        long pixels = 0;
+        for (BufferedImage frame : decoded.frames()) {
+            BufferedImage scaled = ImageUtils.scaleImage(Image2Map.ScaleMode.FIT, countX, countY, frame, filter,
+                    executor, threads);
+            frames.add(MapQuantizer.renderCanvas(scaled, countX, countY, ditherer, palette));
+            pixels += (long) scaled.getWidth() * scaled.getHeight();
+        }
+        long nanos = System.nanoTime() - start;
+        JsonObject after = PipelineStats.toJson();
+        for (int i = 0; i < frames.size(); i++)
+            quality.add(references.get(i), frames.get(i), countX, palette);
+        return toJson(nanos, pixels, before, after, quality);
+    }
+
+    private static JsonObject toJson(long nanos, long pixels, JsonObject before, JsonObject after, Quality quality) {
+        JsonObject result = new JsonObject();
+        result.addProperty("renderMs", round(nanos / 1e6));
+        // the stages are summed over every worker, so they can add up to more than the render
+        result.addProperty("scaleMs", round(stageMs(after, PipelineStats.Stage.SCALE)
+                - stageMs(before, PipelineStats.Stage.SCALE)));
+        result.addProperty("ditherMs", round(stageMs(after, PipelineStats.Stage.DITHER)
+                - stageMs(before, PipelineStats.Stage.DITHER)));
+        result.addProperty("megapixelsPerSecond", round(pixels / (nanos / 1e3)));
+        result.addProperty("psnr", round(quality.psnr()));
+        result.addProperty("meanDeltaE", round(quality.meanDeltaE()));
+        result.addProperty("transparencyErrors", quality.transparencyErrors);
+        return result;
+    }
+
+    private static double stageMs(JsonObject stats, PipelineStats.Stage stage) {
+        return stats.getAsJsonObject("stages").getAsJsonObject(stage.getName()).get("totalMs").getAsDouble();
+    }
+
+    /**
+     * How close the map colors are to the reference pixels.
+     * Pixels that are mostly see-through in the source should be transparent
+     * on the map and the other way around, the rest are compared by color.
+     */
+    private static final class Quality {
+        private final float[] sourceLab = new float[3];
+        private final float[] mapLab = new float[3];
+        private long compared;
+        private double squaredError;
+        private double deltaE;
+        private long transparencyErrors;
+
+        void add(int[] reference, byte[][] tiles, int countX, MapPalette palette) {
+            int width = countX * 128;
+            for (int tile = 0; tile < tiles.length; tile++) {
+                for (int i = 0; i < 128 * 128; i++) {
+                    int x = (tile % countX) * 128 + (i & 127);
+                    int y = (tile / countX) * 128 + (i >> 7);
+                    int argb = reference[y * width + x];
+                    int color = tiles[tile][i] & 0xFF;
+                    boolean transparent = color < TRANSPARENT_COLORS;
+                    if ((argb >>> 24) < 128 != transparent) {
+                        transparencyErrors++;
+                        continue;
+                    }
+                    if (transparent)
+                        continue;
+                    int rgb = palette.getRGB(color);
+                    for (int shift = 0; shift <= 16; shift += 8) {
+                        int difference = ((argb >> shift) & 0xFF) - ((rgb >> shift) & 0xFF);
+                        squaredError += difference * difference;
+                    }
+                    ColorMetric.CIELAB.getCoordinates(argb, sourceLab);
+                    ColorMetric.CIELAB.getCoordinates(rgb, mapLab);
+                    double dl = sourceLab[0] - mapLab[0];
+                    double da = sourceLab[1] - mapLab[1];
+                    double db = sourceLab[2] - mapLab[2];
+                    deltaE += Math.sqrt(dl * dl + da * da + db * db);
+                    compared++;
+                }
+            }
+        }
+
+        /**
+         * @return the peak signal to noise ratio in dB, capped at 100 for identical colors
+         */
+        double psnr() {
+            if (compared == 0 || squaredError == 0)
+                return 100;
+            double mse = squaredError / (compared * 3.0);
+            return Math.min(100, 10 * Math.log10(255.0 * 255.0 / mse));
+        }
+
+        double meanDeltaE() {
+            return compared == 0 ? 0 : deltaE / compared;
+        }
+    }
+
+    /**
+     * Compares the results with the baseline report and prints what changed.
+     *
+     * @return false if any result lost quality
+     */
+    private boolean compare(MapPalette palette, JsonArray results) throws IOException {
+        JsonObject old;
+        try (Reader reader = Files.newBufferedReader(baseline)) {
+            old = JsonParser.parseReader(reader).getAsJsonObject();
+        }
+        // another palette moves every dithered result a little
+        String hash = Integer.toHexString(palette.hash());
+        if (old.has("palette") && !old.get("palette").getAsString().equals(hash)) {
+            System.out.printf("%s was made with another palette (%s, now %s), the colors or the metric changed. "
+                    + "Make a new baseline.%n", baseline, old.get("palette").getAsString(), hash);
+            return false;
+        }
+        Map<String, JsonObject> previous = new HashMap<>();
+        for (JsonElement element : old.getAsJsonArray("results")) {
+            JsonObject result = element.getAsJsonObject();
+            previous.put(key(result), result);
+        }
+
+        int regressions = 0;
+        double renderMs = 0;
+        double previousRenderMs = 0;
+        for (JsonElement element : results) {
+            JsonObject result = element.getAsJsonObject();
+            JsonObject before = previous.get(key(result));
+            if (before == null) {
+                System.out.println("New: " + key(result));
+                continue;
+            }
+            renderMs += result.get("renderMs").getAsDouble();
+            previousRenderMs += before.get("renderMs").getAsDouble();
+            double psnr = result.get("psnr").getAsDouble() - before.get("psnr").getAsDouble();
+            double deltaE = result.get("meanDeltaE").getAsDouble() - before.get("meanDeltaE").getAsDouble();
+            long transparency = result.get("transparencyErrors").getAsLong()
+                    - before.get("transparencyErrors").getAsLong();
+            if (psnr < -TOLERANCE || deltaE > TOLERANCE || transparency > 0) {
+                regressions++;
+                System.out.printf("Worse: %s (PSNR %+.2f dB, dE %+.2f, transparency errors %+d)%n", key(result), psnr,
+                        deltaE, transparency);
+            } else if (psnr > TOLERANCE || deltaE < -TOLERANCE || transparency < 0) {
+                System.out.printf("Better: %s (PSNR %+.2f dB, dE %+.2f, transparency errors %+d)%n", key(result),
+                        psnr, deltaE, transparency);
+            }
+        }
+        if (previousRenderMs > 0)
+            System.out.printf("Rendering took %.0f ms, %+.1f%% compared with the baseline%n", renderMs,
+                    (renderMs / previousRenderMs - 1) * 100);
+        if (regressions > 0)
+            System.out.printf("%d results lost quality compared with %s%n", regressions, baseline);
+        return regressions == 0;
+    }
+
+    private static String key(JsonObject result) {
+        return result.get("image").getAsString() + " " + result.get("size").getAsString() + " "
+                + result.get("dither").getAsString();
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private Map<String, byte[]> loadCorpus() throws IOException {
+        Map<String, byte[]> images = new LinkedHashMap<>();
+        if (corpus == null) {
+            BufferedImage photo = BenchmarkImages.createImage(800, 600, BufferedImage.TYPE_INT_RGB);
+            images.put("photo.png", encode(photo, "png"));
+            images.put("photo.jpg", encode(photo, "jpg"));
+            images.put("pixel_art.png", encode(createPixelArt(), "png"));
+            images.put("transparent.png", encode(createTransparent(), "png"));
+            images.put("animated.gif", encodeGif(createFrames()));
+            return images;
+        }
+        try (Stream<Path> files = Files.list(corpus)) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList())
+                images.put(file.getFileName().toString(), Files.readAllBytes(file));
+        }
+        return images;
+    }
+
+    private static byte[] encode(BufferedImage image, String format) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, format, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeGif(List<BufferedImage> frames) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            writer.prepareWriteSequence(null);
+            for (BufferedImage frame : frames)
+                writer.writeToSequence(new IIOImage(frame, null, null), null);
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A small sprite of flat colors with hard edges, which scaling blurs and
+     * the palette rarely has exactly.
+     */
+    private static BufferedImage createPixelArt() {
+        int[] colors = { 0x1D2B53, 0x7E2553, 0x008751, 0xAB5236, 0xFF004D, 0xFFA300, 0xFFEC27, 0x29ADFF };
+        BufferedImage image = new BufferedImage(48, 32, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(7);
+        for (int y = 0; y < 32; y += 4) {
+            for (int x = 0; x < 48; x += 4) {
+                int color = colors[random.nextInt(colors.length)];
+                for (int dy = 0; dy < 4; dy++) {
+                    for (int dx = 0; dx < 4; dx++)
+                        image.setRGB(x + dx, y + dy, color);
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Anti-aliased shapes and a fading gradient on a transparent background.
+     */
+    private static BufferedImage createTransparent() {
+        BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setPaint(new GradientPaint(0, 0, new Color(0xFF2A6FDB, true), 400, 0, new Color(0x002A6FDB, true)));
+        g.fillRect(0, 200, 400, 100);
+        g.setColor(new Color(0xE4572E));
+        g.fillOval(40, 30, 160, 160);
+        g.setColor(new Color(0x80F2C14E, true));
+        g.fillRoundRect(180, 60, 180, 120, 40, 40);
+        g.setColor(Color.BLACK);
+        g.setStroke(new BasicStroke(6));
+        g.drawLine(20, 280, 380, 20);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * A ball moving across a gradient.
+     */
+    private static List<BufferedImage> createFrames() {
+        List<BufferedImage> frames = new ArrayList<>();
+        BufferedImage background = BenchmarkImages.createImage(160, 120, BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < 8; i++) {
+            BufferedImage frame = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = frame.createGraphics();
+            g.drawImage(background, 0, 0, null);
+            g.setColor(new Color(0x3A8E8C));
+            g.fillOval(10 + i * 15, 40, 40, 40);
+            g.dispose();
+            frames.add(frame);
+        }
+        return frames;
+    }
+}
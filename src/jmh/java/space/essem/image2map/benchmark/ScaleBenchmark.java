@@ -0,0 +1,61 @@
+package space.essem.image2map.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import space.essem.image2map.Image2Map;
+import space.essem.image2map.ImageUtils;
+import space.essem.image2map.renderer.ResampleFilter;
+
+/**
+ * Scaling source images to poster sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScaleBenchmark {
+    @Param({ "256x256", "1920x1080", "4000x3000" })
+    public String image;
+
+    @Param({ "1x1", "3x2", "10x10" })
+    public String poster;
+
+    @Param({ "FIT", "FILL", "STRETCH" })
+    public Image2Map.ScaleMode scale;
+
+    @Param({ "AREA", "BILINEAR", "LANCZOS" })
+    public ResampleFilter filter;
+
+    private BufferedImage source;
+    private int countX;
+    private int countY;
+
+    @Setup
+    public void setup() {
+        int[] imageSize = BenchmarkImages.parseSize(image);
+        int[] posterSize = BenchmarkImages.parseSize(poster);
+        source = BenchmarkImages.createImage(imageSize[0], imageSize[1], BufferedImage.TYPE_INT_RGB);
+        countX = posterSize[0];
+        countY = posterSize[1];
+    }
+
+    @Benchmark
+    public BufferedImage scaleImage() {
+        return ImageUtils.scaleImage(scale, countX, countY, source, filter, null, 1);
+    }
+}
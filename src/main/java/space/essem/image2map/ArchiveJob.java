@@ -0,0 +1,155 @@
+package space.essem.image2map;
+
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.LiteralText;
+import space.essem.image2map.offline.TileArchive;
+import space.essem.image2map.renderer.RenderWorkers;
+import space.essem.image2map.stats.PipelineStats;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Imports a {@link TileArchive} made by the offline renderer. The images are
+ * already map colors, so they go straight to the commit queue without being
+ * rendered again.
+ * <p>
+ * The archive is read twice: once to count its maps against the player's
+ * pixel quota, then again to import them. Only a few images wait in the
+ * commit queue at once, like the images of a batch, so a big archive is
+ * never held in memory.
+ */
+class ArchiveJob extends MapJob {
+    private final Path file;
+    private final BatchOutput output;
+    private final Semaphore commits = new Semaphore(Math.max(1, Image2Map.CONFIG.batchImagesInFlight));
+    private volatile long pixels;
+    private volatile int imported;
+
+    ArchiveJob(MapGenerationContext context, Path file, BatchOutput output) {
+        super(context, null);
+        this.file = file;
+        this.output = output;
+    }
+
+    /**
+     * @return the pixels of every image in the archive, 0 until it was counted
+     */
+    @Override
+    long getPixels() {
+        return pixels;
+    }
+
+    @Override
+    String getProgressText() {
+        if (getStatus() == Status.RENDERING && !isCancelled())
+            return String.format("reading image %d", imported + 1);
+        return super.getProgressText();
+    }
+
+    @Override
+    String describe() {
+        return String.format("#%d %s%s - %s, archive %s", getId(), getProgressText(), isPriority() ? " (priority)" : "",
+                getOwnerName(), file.getFileName());
+    }
+
+    @Override
+    CompletableFuture<Void> start() {
+        PipelineStats.increment(PipelineStats.Counter.JOBS_STARTED);
+        setStatus(Status.RENDERING);
+        return CompletableFuture.runAsync(() -> runInterruptibly(this::readArchive), RenderWorkers.getDownloadExecutor())
+                .handle((result, e) -> {
+                    boolean cancelled = isCancelled();
+                    String failure = e != null && !cancelled ? Image2Map.getFailureMessage(e) : null;
+                    setStatus(Status.DELIVERING);
+                    submitTask(() -> {
+                        output.flush();
+                        String message = String.format("%s %d images, %s", cancelled ? "Cancelled after importing"
+                                : failure != null ? "Stopped after importing" : "Imported", imported, output.describe());
+                        getContext().getSource().sendFeedback(new LiteralText(message), false);
+                        if (failure != null)
+                            getContext().getSource().sendFeedback(new LiteralText(failure), false);
+                        JobQueue.finish(this, cancelled ? Status.CANCELLED : failure != null ? Status.FAILED : Status.DONE);
+                        return true;
+                    });
+                    return null;
+                });
+    }
+
+    private Void readArchive() {
+        ServerCommandSource silent = getContext().getSource().withSilent();
+        try {
+            pixels = countPixels();
+            JobQueue.checkPixels(this);
+            try (TileArchive.Reader reader = TileArchive.read(file)) {
+                TileArchive.Entry entry;
+                while ((entry = reader.next()) != null) {
+                    checkCancelled();
+                    MapGenerationContext context = new MapGenerationContext(entry.name()).source(silent)
+                            .countX(entry.width()).countY(entry.height()).makePoster(entry.posterColors() != null);
+                    submit(new MapCommit(context, output::add,
+                            new RenderedMaps(entry.tiles(), entry.posterColors(), null, null)));
+                    imported++;
+                }
+            }
+        } catch (IOException e) {
+            if (isCancelled())
+                throw new UncheckedIOException(e);
+            throw new MapCreationException("Couldn't read that archive: " + e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Reads through the archive without keeping any colors.
+     *
+     * @return the pixels of every image, see {@link MapJob#getPixels(MapGenerationContext)}
+     */
+    private long countPixels() throws IOException {
+        long total = 0;
+        int images = 0;
+        try (TileArchive.Reader reader = TileArchive.read(file)) {
+            int maps;
+            while ((maps = reader.skip()) != -1) {
+                checkCancelled();
+                if (++images > Image2Map.CONFIG.maxBatchImages)
+                    throw new MapCreationException(String.format("That archive has more than %d images",
+                            Image2Map.CONFIG.maxBatchImages));
+                total += (long) maps * 128 * 128;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Queues an image's maps, first waiting until fewer than
+     * {@code batchImagesInFlight} images of this archive are queued.
+     */
+    private void submit(MapCommit commit) {
+        try {
+            commits.acquire();
+        } catch (InterruptedException e) {
+            // only cancelling the job interrupts the reader
+            throw new CancellationException();
+        }
+        MapCommitQueue.submit(new MapCommitQueue.Task() {
+            @Override
+            public boolean step() {
+                boolean done = commit.step();
+                if (done)
+                    commits.release();
+                return done;
+            }
+
+            @Override
+            public void fail(Throwable e) {
+                commits.release();
+                commit.fail(e);
+            }
+        });
+    }
+}
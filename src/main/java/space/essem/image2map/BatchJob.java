@@ -0,0 +1,334 @@
+package space.essem.image2map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.LiteralText;
+import org.jetbrains.annotations.Nullable;
+import space.essem.image2map.renderer.ColorMetric;
+import space.essem.image2map.renderer.Ditherer;
+import space.essem.image2map.renderer.Ditherers;
+import space.essem.image2map.renderer.RenderWorkers;
+import space.essem.image2map.stats.PipelineStats;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Imports every image in a directory or manifest as a single job. The
+ * directory or manifest is read once the job starts, off the server thread,
+ * and its images are then counted against the player's quota. A few images
+ * are loaded and rendered at once, so decoding one overlaps rendering
+ * the one before while only a bounded number are held in memory. Maps are
+ * handed out in the order the images are listed, through a
+ * {@link BatchOutput}.
+ */
+class BatchJob extends MapJob {
+    private static final Set<String> EXTENSIONS = Set.of("png", "jpg", "jpeg", "gif", "bmp");
+    /** Failed images beyond this many are only counted in the summary. */
+    private static final int MAX_REPORTED_FAILURES = 10;
+
+    /** Empty until the job has started and read its directory or manifest. */
+    private volatile List<MapGenerationContext> images = List.of();
+    private final BatchOutput output;
+    /** Images that finished out of order, empty if they failed. */
+    private final Map<Integer, Optional<RenderedMaps>> finished = new HashMap<>();
+    private final CompletableFuture<Void> rendered = new CompletableFuture<>();
+    private int nextToStart;
+    private volatile int nextToDeliver;
+    private int inFlight;
+    private int imported;
+    private int failed;
+
+    /**
+     * @param context the path of the directory or manifest, see {@link #readImages}
+     */
+    BatchJob(MapGenerationContext context, BatchOutput output) {
+        super(context, null);
+        this.output = output;
+    }
+
+    @Override
+    long getPixels() {
+        long pixels = 0;
+        for (MapGenerationContext image : images)
+            pixels += getPixels(image);
+        return pixels;
+    }
+
+    @Override
+    int getMaps() {
+        int maps = 0;
+        for (MapGenerationContext image : images)
+            maps += image.getCountX() * image.getCountY();
+        return maps;
+    }
+
+    @Override
+    int getTiles() {
+        return getMaps();
+    }
+
+    @Override
+    public void setTiles(int tiles) {
+        // each image would overwrite the total of the batch
+    }
+
+    @Override
+    String getProgressText() {
+        if (getStatus() == Status.RENDERING && !isCancelled())
+            return String.format("importing %d/%d images", nextToDeliver, images.size());
+        return super.getProgressText();
+    }
+
+    @Override
+    String describe() {
+        return String.format("#%d %s%s - %s, batch %s", getId(), getProgressText(), isPriority() ? " (priority)" : "",
+                getOwnerName(), getContext().getPath());
+    }
+
+    @Override
+    CompletableFuture<Void> start() {
+        PipelineStats.increment(PipelineStats.Counter.JOBS_STARTED);
+        ServerCommandSource source = getContext().getSource();
+        CompletableFuture.runAsync(() -> runInterruptibly(() -> {
+            List<MapGenerationContext> listed = readImages(getContext().getPath(), source);
+            for (MapGenerationContext image : listed)
+                image.monitor(this);
+            images = listed;
+            JobQueue.checkPixels(this);
+            return null;
+        }), RenderWorkers.getDownloadExecutor()).whenComplete((result, e) -> {
+            if (e == null) {
+                setStatus(Status.RENDERING);
+                startImages();
+                return;
+            }
+            boolean cancelled = isCancelled();
+            String message = cancelled ? String.format("Job #%d was cancelled.", getId())
+                    : Image2Map.getFailureMessage(e);
+            JobQueue.finish(this, cancelled ? Status.CANCELLED : Status.FAILED);
+            source.getServer().execute(() -> source.sendFeedback(new LiteralText(message), false));
+            rendered.complete(null);
+        });
+        return rendered;
+    }
+
+    /**
+     * Starts loading images until as many as allowed are in flight, or
+     * finishes the import once there are none left.
+     */
+    private synchronized void startImages() {
+        int window = Math.max(1, Image2Map.CONFIG.batchImagesInFlight);
+        while (inFlight < window && nextToStart < images.size() && !isCancelled()) {
+            int index = nextToStart++;
+            inFlight++;
+            MapGenerationContext context = images.get(index);
+            CompletableFuture.supplyAsync(() -> runInterruptibly(() -> ImageUtils.fetchImage(context.getPath())),
+                    RenderWorkers.getDownloadExecutor())
+                    .orTimeout(Image2Map.CONFIG.downloadTimeoutSeconds, TimeUnit.SECONDS)
+                    .thenComposeAsync(source -> {
+                        checkCancelled();
+                        return Image2Map.renderMaps(context, source);
+                    }, context.getExecutor())
+                    .whenComplete((result, e) -> imageDone(index, result, e));
+        }
+        if (inFlight == 0)
+            finishImport();
+    }
+
+    private synchronized void imageDone(int index, @Nullable RenderedMaps result, @Nullable Throwable e) {
+        if (e != null && !isCancelled())
+            reportFailure(images.get(index), e);
+        finished.put(index, Optional.ofNullable(e == null ? result : null));
+        Optional<RenderedMaps> next;
+        while ((next = finished.remove(nextToDeliver)) != null) {
+            MapGenerationContext context = images.get(nextToDeliver);
+            next.ifPresent(maps -> {
+                imported++;
+                MapCommitQueue.submit(new MapCommit(context, output::add, maps));
+            });
+            nextToDeliver++;
+            inFlight--;
+        }
+        startImages();
+    }
+
+    private void reportFailure(MapGenerationContext image, Throwable e) {
+        String message = Image2Map.getFailureMessage(e);
+        if (++failed > MAX_REPORTED_FAILURES)
+            return;
+        ServerCommandSource source = getContext().getSource();
+        source.getServer().execute(() -> source.sendFeedback(
+                new LiteralText(String.format("Skipped %s: %s", image.getPath(), message)), false));
+    }
+
+    /**
+     * Queues handing out whatever is left once every image is done, or once
+     * the job was cancelled and the images in flight have stopped.
+     */
+    private void finishImport() {
+        if (rendered.isDone())
+            return;
+        boolean cancelled = isCancelled();
+        setStatus(Status.DELIVERING);
+        submitTask(() -> {
+            output.flush();
+            getContext().getSource().sendFeedback(new LiteralText(String.format("%s %d of %d images%s, %s",
+                    cancelled ? "Cancelled after importing" : "Imported", imported, images.size(),
+                    failed > 0 ? String.format(" (%d failed)", failed) : "", output.describe())), false);
+            JobQueue.finish(this, cancelled ? Status.CANCELLED : Status.DONE);
+            return true;
+        });
+        rendered.complete(null);
+    }
+
+    /**
+     * Lists the images to import from a directory, or from a JSON manifest
+     * like {@code {"dither": "floyd", "images": ["a.png", {"path": "b.png",
+     * "width": 2, "height": 2}]}}. Entries can set path, dither, metric,
+     * scale, width and height, and anything they leave out is taken from the
+     * top of the manifest. Relative paths are resolved against the manifest's
+     * directory. This reads files, so it runs on the download executor rather
+     * than the server thread.
+     *
+     * @param source the source the images are made for, each image gets a
+     *               silent copy of it so finishing one doesn't say "Done!"
+     * @throws MapCreationException if there is nothing to import or the
+     *                              manifest is invalid
+     */
+    static List<MapGenerationContext> readImages(String path, ServerCommandSource source) {
+        List<MapGenerationContext> images = new ArrayList<>();
+        ServerCommandSource silent = source.withSilent();
+        try {
+            Path file = Paths.get(path);
+            if (Files.isDirectory(file)) {
+                try (Stream<Path> files = Files.list(file)) {
+                    files.filter(Files::isRegularFile).filter(BatchJob::isImage).sorted()
+                            .forEach(image -> images.add(new MapGenerationContext(image.toString()).source(silent)));
+                }
+            } else if (Files.isRegularFile(file)) {
+                JsonElement json;
+                try (Reader reader = Files.newBufferedReader(file)) {
+                    json = JsonParser.parseReader(reader);
+                }
+                JsonObject defaults = json.isJsonObject() ? json.getAsJsonObject() : new JsonObject();
+                JsonArray entries = json.isJsonArray() ? json.getAsJsonArray() : defaults.getAsJsonArray("images");
+                if (entries == null)
+                    throw new MapCreationException("That manifest doesn't list any images.");
+                Path base = file.toAbsolutePath().getParent();
+                for (JsonElement entry : entries)
+                    images.add(readImage(entry, defaults, base).source(silent));
+            } else {
+                throw new MapCreationException("That isn't a directory or a manifest file.");
+            }
+        } catch (IOException | InvalidPathException e) {
+            throw new MapCreationException("Couldn't read that batch: " + e.getMessage(), e);
+        } catch (JsonParseException | IllegalStateException | ClassCastException | UnsupportedOperationException
+                | NumberFormatException e) {
+            throw new MapCreationException("That manifest isn't valid: " + e.getMessage(), e);
+        }
+
+        if (images.isEmpty())
+            throw new MapCreationException("There are no images to import there.");
+        if (images.size() > Image2Map.CONFIG.maxBatchImages)
+            throw new MapCreationException(String.format("That batch has %d images, the limit is %d", images.size(),
+                    Image2Map.CONFIG.maxBatchImages));
+        return images;
+    }
+
+    /**
+     * @return the name of the directory, manifest or archive, for naming the
+     *         shulker boxes
+     */
+    static String getName(String path) {
+        Path name;
+        try {
+            name = Paths.get(path).getFileName();
+        } catch (InvalidPathException e) {
+            name = null;
+        }
+        if (name == null)
+            return "Maps";
+        String fileName = name.toString();
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    private static boolean isImage(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static MapGenerationContext readImage(JsonElement element, JsonObject defaults, Path base) {
+        JsonObject entry = new JsonObject();
+        if (element.isJsonObject())
+            entry = element.getAsJsonObject();
+        else
+            entry.add("path", element);
+        String path = getString(entry, defaults, "path");
+        if (path == null)
+            throw new MapCreationException("An image in that manifest has no path.");
+        if (!ImageUtils.isValid(path))
+            path = base.resolve(path).toString();
+
+        MapGenerationContext context = new MapGenerationContext(path);
+        String dither = getString(entry, defaults, "dither");
+        if (dither != null) {
+            Ditherer ditherer = Ditherers.get(dither);
+            if (ditherer == null)
+                throw new MapCreationException("Invalid Dither mode '" + dither + "' for " + path);
+            context.dither(ditherer);
+        }
+        String metric = getString(entry, defaults, "metric");
+        if (metric != null) {
+            ColorMetric colorMetric = ColorMetric.byName(metric);
+            if (colorMetric == null)
+                throw new MapCreationException("Invalid color metric '" + metric + "' for " + path);
+            context.metric(colorMetric);
+        }
+        String scale = getString(entry, defaults, "scale");
+        if (scale != null) {
+            try {
+                context.scaleMode(Image2Map.ScaleMode.fromString(scale));
+            } catch (IllegalArgumentException e) {
+                throw new MapCreationException("Invalid scale mode '" + scale + "' for " + path);
+            }
+        }
+        return context.countX(getSize(entry, defaults, "width", path))
+                .countY(getSize(entry, defaults, "height", path));
+    }
+
+    @Nullable
+    private static String getString(JsonObject entry, JsonObject defaults, String key) {
+        JsonElement value = entry.has(key) ? entry.get(key) : defaults.get(key);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+
+    private static int getSize(JsonObject entry, JsonObject defaults, String key, String path) {
+        JsonElement value = entry.has(key) ? entry.get(key) : defaults.get(key);
+        int size = value == null ? 1 : value.getAsInt();
+        // the same limit as /multimap
+        if (size < 1 || size > 25)
+            throw new MapCreationException(String.format("The %s of %s has to be between 1 and 25", key, path));
+        return size;
+    }
+}
@@ -0,0 +1,95 @@
+package space.essem.image2map;
+
+import net.minecraft.inventory.Inventories;
+import net.minecraft.inventory.Inventory;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.LiteralText;
+import net.minecraft.util.collection.DefaultedList;
+import net.minecraft.util.math.BlockPos;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Collects the maps of a batch import into a container, or packs them into
+ * shulker boxes for the player, instead of handing out each map on its own.
+ * Only used on the server thread.
+ */
+class BatchOutput {
+    private static final int SHULKER_SLOTS = 27;
+
+    private final ServerWorld world;
+    private final ServerPlayerEntity player;
+    @Nullable
+    private final BlockPos containerPos;
+    private final String name;
+    private final DefaultedList<ItemStack> box = DefaultedList.ofSize(SHULKER_SLOTS, ItemStack.EMPTY);
+    private int boxed;
+    private int boxes;
+    private int stored;
+
+    /**
+     * @param containerPos the container maps are put in first, or null to
+     *                     only use shulker boxes
+     * @param name         the name of the shulker boxes, which are numbered
+     */
+    BatchOutput(ServerWorld world, ServerPlayerEntity player, @Nullable BlockPos containerPos, String name) {
+        this.world = world;
+        this.player = player;
+        this.containerPos = containerPos;
+        this.name = name;
+    }
+
+    void add(ItemStack stack) {
+        if (containerPos != null && insert(stack)) {
+            stored++;
+            return;
+        }
+        box.set(boxed++, stack);
+        if (boxed == SHULKER_SLOTS)
+            flush();
+    }
+
+    private boolean insert(ItemStack stack) {
+        if (!(world.getBlockEntity(containerPos) instanceof Inventory inventory))
+            return false;
+        for (int slot = 0; slot < inventory.size(); slot++) {
+            if (inventory.getStack(slot).isEmpty() && inventory.isValid(slot, stack)) {
+                inventory.setStack(slot, stack);
+                inventory.markDirty();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gives the player the shulker box being filled, if there is anything in it.
+     */
+    void flush() {
+        if (boxed == 0)
+            return;
+        NbtCompound blockEntity = new NbtCompound();
+        Inventories.writeNbt(blockEntity, box);
+        ItemStack shulker = new ItemStack(Items.SHULKER_BOX);
+        shulker.putSubTag("BlockEntityTag", blockEntity);
+        shulker.setCustomName(new LiteralText(String.format("%s #%d", name, ++boxes)));
+        Image2Map.givePlayerMap(player, shulker);
+        box.clear();
+        boxed = 0;
+    }
+
+    /**
+     * @return where the maps went, for telling the player
+     */
+    String describe() {
+        if (containerPos == null)
+            return String.format("packed into %d shulker boxes", boxes);
+        if (boxes == 0)
+            return String.format("%d items put in the container", stored);
+        return String.format("%d items put in the container and the rest packed into %d shulker boxes", stored,
+                boxes);
+    }
+}
@@ -5,21 +5,27 @@ import com.mojang.brigadier.LiteralMessage;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.builder.ArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
 import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
 import com.mojang.brigadier.suggestion.SuggestionProvider;
 import me.shedaniel.autoconfig.AutoConfig;
 import me.shedaniel.autoconfig.serializer.GsonConfigSerializer;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v1.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.minecraft.command.CommandSource;
+import net.minecraft.command.argument.BlockPosArgumentType;
 import net.minecraft.command.suggestion.SuggestionProviders;
 import net.minecraft.entity.ItemEntity;
 import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.inventory.Inventory;
 import net.minecraft.item.FilledMapItem;
 import net.minecraft.item.ItemStack;
-import net.minecraft.nbt.NbtCompound;
-import net.minecraft.nbt.NbtInt;
+import net.minecraft.item.Items;
 import net.minecraft.nbt.NbtList;
 import net.minecraft.nbt.NbtString;
 import net.minecraft.server.command.CommandManager;
@@ -30,13 +36,31 @@ import net.minecraft.text.Style;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
 import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import space.essem.image2map.animation.AnimationScheduler;
 import space.essem.image2map.config.Image2MapConfig;
-import space.essem.image2map.renderer.MapRenderer;
+import space.essem.image2map.renderer.ColorMetric;
+import space.essem.image2map.renderer.Ditherer;
+import space.essem.image2map.renderer.Ditherers;
+import space.essem.image2map.renderer.MapQuantizer;
+import space.essem.image2map.renderer.RenderWorkers;
+import space.essem.image2map.stats.PipelineStats;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.UnaryOperator;
 
 public class Image2Map implements ModInitializer {
@@ -49,6 +73,16 @@ public class Image2Map implements ModInitializer {
     public void onInitialize() {
         LOGGER.info("Loading Image2Map...");
 
+		ServerTickEvents.END_SERVER_TICK.register(MapCommitQueue::tick);
+		ServerTickEvents.END_SERVER_TICK.register(AnimationScheduler::tick);
+		ServerTickEvents.END_SERVER_TICK.register(StatsReporter::tick);
+		ServerTickEvents.END_SERVER_TICK.register(JobQueue::tick);
+		ServerTickEvents.END_SERVER_TICK.register(MapSyncScheduler::tick);
+		ServerPlayConnectionEvents.DISCONNECT.register((handler, _server) -> MapSyncScheduler.remove(handler.player));
+		ServerLifecycleEvents.SERVER_STOPPING.register(JobQueue::cancelAll);
+		ServerLifecycleEvents.SERVER_STOPPING.register(MapCommitQueue::flush);
+		ServerLifecycleEvents.SERVER_STOPPING.register(AnimationScheduler::stop);
+
 		CommandRegistrationCallback.EVENT.register((dispatcher, _dedicated) -> {
 			dispatcher.register(
 					CommandManager.literal("mapcreate").requires(source -> source.hasPermissionLevel(CONFIG.minPermLevel))
@@ -63,15 +97,68 @@ public class Image2Map implements ModInitializer {
 					.requires(source -> source.hasPermissionLevel(CONFIG.minPermLevel))
 					.then(CommandManager.argument("width", IntegerArgumentType.integer(1, 25)).then(CommandManager
 							.argument("height", IntegerArgumentType.integer(1, 25))
-							.then(CommandManager.argument("scale", StringArgumentType.word()).suggests(ScaleMode.getSuggestor())
+							.then(CommandManager.argument("scale", StringArgumentType.word()).suggests(SCALE_SUGGESTOR)
 									.then(ditherAndPath(ctx -> createMaps(
 											MapGenerationContext.getBasicInfo(ctx).getSize(ctx).getScaleMethod(ctx).makePoster(true))))))));
+
+			dispatcher.register(CommandManager.literal("mapbatch")
+					.requires(source -> source.hasPermissionLevel(CONFIG.minPermLevel))
+					.then(CommandManager.literal("into").then(CommandManager.argument("pos", BlockPosArgumentType.blockPos())
+							.then(CommandManager.argument("path", StringArgumentType.greedyString())
+									.executes(ctx -> createBatch(ctx, BlockPosArgumentType.getLoadedBlockPos(ctx, "pos"))))))
+					.then(CommandManager.argument("path", StringArgumentType.greedyString())
+							.executes(ctx -> createBatch(ctx, null))));
+
+			dispatcher.register(CommandManager.literal("mapimport")
+					.requires(source -> source.hasPermissionLevel(CONFIG.minPermLevel))
+					.then(CommandManager.literal("into").then(CommandManager.argument("pos", BlockPosArgumentType.blockPos())
+							.then(CommandManager.argument("path", StringArgumentType.greedyString())
+									.executes(ctx -> importArchive(ctx, BlockPosArgumentType.getLoadedBlockPos(ctx, "pos"))))))
+					.then(CommandManager.argument("path", StringArgumentType.greedyString())
+							.executes(ctx -> importArchive(ctx, null))));
+
+			dispatcher.register(CommandManager.literal("image2map")
+					.requires(source -> source.hasPermissionLevel(CONFIG.minPermLevel))
+					.then(CommandManager.literal("stats").executes(StatsReporter::showStats))
+					.then(CommandManager.literal("jobs")
+							.then(CommandManager.literal("list").executes(JobQueue::listJobs))
+							.then(CommandManager.literal("cancel")
+									.then(CommandManager.argument("id", IntegerArgumentType.integer(1))
+											.executes(JobQueue::cancelJob)))
+							.then(CommandManager.literal("status").executes(JobQueue::showStatus)
+									.then(CommandManager.argument("id", IntegerArgumentType.integer(1))
+											.executes(JobQueue::showJobStatus))))
+					.then(CommandManager.literal("animations").executes(AnimationScheduler::listAnimations)
+							.then(CommandManager.literal("remove")
+									.then(CommandManager.argument("mapId", IntegerArgumentType.integer(0))
+											.executes(AnimationScheduler::removeAnimation)))));
+
+			dispatcher.register(CommandManager.literal("mapupdate")
+					.requires(source -> source.hasPermissionLevel(CONFIG.minPermLevel))
+					.then(CommandManager.literal("held").then(ditherAndPath(this::updateHeldMaps)))
+					.then(CommandManager.argument("mapId", IntegerArgumentType.integer(0))
+							.then(ditherAndPath(this::updateMapById))));
 		});
     }
 	
+	private static final SimpleCommandExceptionType LOCAL_FILES_DISABLED = new SimpleCommandExceptionType(
+			new LiteralMessage("Batches need allowLocalFiles to be turned on in the config"));
+	private static final SimpleCommandExceptionType NOT_A_CONTAINER = new SimpleCommandExceptionType(
+			new LiteralMessage("There is no container at that position"));
+	private static final SimpleCommandExceptionType NO_SUCH_ARCHIVE = new SimpleCommandExceptionType(
+			new LiteralMessage("There is no archive at that path"));
+	private static final SimpleCommandExceptionType NOT_HOLDING_MAP = new SimpleCommandExceptionType(
+			new LiteralMessage("You need to be holding a map or poster"));
+
+	private static final DynamicCommandExceptionType NOT_CREATED_MAP = new DynamicCommandExceptionType(
+			id -> new LiteralMessage("Map #" + id + " wasn't made by Image2Map"));
+	private static final DynamicCommandExceptionType SHARED_MAP = new DynamicCommandExceptionType(
+			id -> new LiteralMessage("Map #" + id
+					+ " is also used by other images, hold it and use /mapupdate held to give it a map of its own"));
+
 	private static final UnaryOperator<Style> LORE_STYLE = s -> s.withColor(Formatting.GOLD).withItalic(false);
 
-	private NbtList getLore(int width, int height) {
+	static NbtList getLore(int width, int height) {
 		NbtList posterLore = new NbtList();
 		posterLore.add(NbtString.of(Text.Serializer
 				.toJson(new LiteralText(String.format("Use me on an item frame grid at least %d by %d big", width, height))
@@ -81,55 +168,38 @@ public class Image2Map implements ModInitializer {
 		return posterLore;
 	}
 
+	private static final SuggestionProvider<ServerCommandSource> DITHER_SUGGESTOR = SuggestionProviders.register(new Identifier("dither_mode"), (commandContext, suggestionsBuilder) -> CommandSource.suggestMatching(Ditherers.getNames(), suggestionsBuilder));
+	// kept out of ScaleMode so the enum can be used without a running game
+	private static final SuggestionProvider<ServerCommandSource> SCALE_SUGGESTOR = SuggestionProviders.register(new Identifier("scale_mode"), (commandContext, suggestionsBuilder) -> CommandSource.suggestMatching(Arrays.stream(ScaleMode.values()).map(scaleMode -> scaleMode.name().toLowerCase()), suggestionsBuilder));
+
+	static Ditherer getDitherer(String name) throws CommandSyntaxException {
+		Ditherer ditherer = Ditherers.get(name);
+		if (ditherer == null)
+			throw new CommandSyntaxException(
+					new SimpleCommandExceptionType(new LiteralMessage("Invalid Dither mode '" + name + "'")),
+					new LiteralMessage("Invalid Dither mode '" + name + "'"));
+		return ditherer;
+	}
+
 	protected static ArgumentBuilder<ServerCommandSource, ?> ditherAndPath(Command<ServerCommandSource> command) {
-		return CommandManager.argument("dither", StringArgumentType.word()).suggests(DitherMode.getSuggestor())
-				.then(CommandManager.argument("path", StringArgumentType.greedyString()).executes(command));
+		ArgumentBuilder<ServerCommandSource, ?> dither = CommandManager.argument("dither", StringArgumentType.word())
+				.suggests(DITHER_SUGGESTOR);
+		// an optional color metric can go between the dither mode and the path
+		for (ColorMetric metric : ColorMetric.values()) {
+			dither.then(CommandManager.literal(metric.getName())
+					.then(CommandManager.argument("path", StringArgumentType.greedyString()).executes(command)));
+		}
+		return dither.then(CommandManager.argument("path", StringArgumentType.greedyString()).executes(command));
 	}
 
 	private int createMaps(MapGenerationContext context) throws CommandSyntaxException {
 		try {
 			ServerCommandSource source = context.getSource();
 			source.sendFeedback(new LiteralText("Generating image map..."), false);
-			BufferedImage sourceImg = ImageUtils.getImage(context.getPath(), source);
-			if (sourceImg == null)
-				return 0;
 			ServerPlayerEntity player = source.getPlayer();
-			new Thread(() -> {
-				BufferedImage img = ImageUtils.scaleImage(context.getScaleMode(), context.getCountX(), context.getCountY(),
-						sourceImg);
-				final int SECTION_SIZE = 128;
-				NbtList maps = new NbtList();
-				for (int y = 0; y < context.getCountY(); y++) {
-					NbtList mapsY = new NbtList();
-					for (int x = 0; x < context.getCountX(); x++) {
-						BufferedImage subImage = img.getSubimage(x * SECTION_SIZE, y * SECTION_SIZE, SECTION_SIZE, SECTION_SIZE);
-						ItemStack stack = createMap(source, context.getDither(), subImage);
-						if (context.shouldMakePoster() && (context.getCountX() > 1 || context.getCountY() > 1)) {
-							mapsY.add(NbtInt.of(FilledMapItem.getMapId(stack)));
-						} else {
-							givePlayerMap(player, stack);
-						}
-					}
-					maps.add(mapsY);
-				}
-				if (context.shouldMakePoster() && (context.getCountX() > 1 || context.getCountY() > 1)) {
-					BufferedImage posterImg = ImageUtils.scaleImage(ScaleMode.FIT, 1, 1, img);
-					ItemStack stack = createMap(source, context.getDither(), posterImg);
-					stack.putSubTag("i2mStoredMaps", maps);
-					NbtCompound stackDisplay = stack.getOrCreateSubTag("display");
-					String path = context.getPath();
-					String fileName = ImageUtils.getImageName(path);
-					if (fileName == null)
-						fileName = path.length() < 15 ? path : "image";
-					stackDisplay.put("Name",
-							NbtString.of(String.format("{\"text\":\"Poster for '%s'\",\"italic\":false}", fileName)));
-					stackDisplay.put("Lore", getLore(context.getCountX(), context.getCountY()));
-
-					givePlayerMap(player, stack);
-				}
-				source.sendFeedback(new LiteralText("Done!"), false);
-			}).start();
-			source.sendFeedback(new LiteralText("Map Creation Queued!"), false);
+			MapJob job = JobQueue.submit(new MapJob(context,
+					rendered -> new MapCommit(context, stack -> givePlayerMap(player, stack), rendered)));
+			source.sendFeedback(new LiteralText(String.format("Map Creation Queued as job #%d!", job.getId())), false);
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw e;
@@ -137,45 +207,219 @@ public class Image2Map implements ModInitializer {
 		return 1;
 	}
 
-	private ItemStack createMap(ServerCommandSource source, DitherMode mode, BufferedImage image) {
-		return MapRenderer.render(image, mode, source.getWorld(), source.getPosition().x, source.getPosition().z);
+	/**
+	 * Queues every image in a directory or manifest as one job, see
+	 * {@link BatchJob#readImages}. The job reads the directory or manifest
+	 * itself once it starts.
+	 *
+	 * @param containerPos the container to put the maps in, or null to pack
+	 *                     them all into shulker boxes
+	 */
+	private int createBatch(CommandContext<ServerCommandSource> ctx, @Nullable BlockPos containerPos)
+			throws CommandSyntaxException {
+		ServerCommandSource source = ctx.getSource();
+		String path = StringArgumentType.getString(ctx, "path");
+		BatchOutput output = getBatchOutput(source, containerPos, BatchJob.getName(path));
+		MapJob job = JobQueue.submit(new BatchJob(new MapGenerationContext(path).source(source), output));
+		source.sendFeedback(new LiteralText(String.format("Batch queued as job #%d!", job.getId())), false);
+		return 1;
 	}
 
-	private void givePlayerMap(PlayerEntity player, ItemStack stack) {
-		if (!player.getInventory().insertStack(stack)) {
-			ItemEntity itemEntity = new ItemEntity(player.world, player.getPos().x, player.getPos().y, player.getPos().z,
-					stack);
-			player.world.spawnEntity(itemEntity);
+	/**
+	 * Queues importing a tile archive made by the offline renderer, see
+	 * {@link space.essem.image2map.offline.OfflineRenderer}.
+	 *
+	 * @param containerPos the container to put the maps in, or null to pack
+	 *                     them all into shulker boxes
+	 */
+	private int importArchive(CommandContext<ServerCommandSource> ctx, @Nullable BlockPos containerPos)
+			throws CommandSyntaxException {
+		ServerCommandSource source = ctx.getSource();
+		String path = StringArgumentType.getString(ctx, "path");
+		BatchOutput output = getBatchOutput(source, containerPos, BatchJob.getName(path));
+		Path file;
+		try {
+			file = Paths.get(path);
+		} catch (InvalidPathException e) {
+			file = null;
 		}
+		if (file == null || !Files.isRegularFile(file))
+			throw NO_SUCH_ARCHIVE.create();
+		MapJob job = JobQueue.submit(new ArchiveJob(new MapGenerationContext(path).source(source), file, output));
+		source.sendFeedback(new LiteralText(String.format("Archive import queued as job #%d!", job.getId())), false);
+		return 1;
 	}
 
-	public enum DitherMode {
-		NONE, FLOYD;
+	/**
+	 * Checks that a batch may be made and finds where its maps go.
+	 */
+	private static BatchOutput getBatchOutput(ServerCommandSource source, @Nullable BlockPos containerPos, String name)
+			throws CommandSyntaxException {
+		if (!CONFIG.allowLocalFiles)
+			throw LOCAL_FILES_DISABLED.create();
+		ServerPlayerEntity player = source.getPlayer();
+		if (containerPos != null && !(source.getWorld().getBlockEntity(containerPos) instanceof Inventory))
+			throw NOT_A_CONTAINER.create();
+		return new BatchOutput(source.getWorld(), player, containerPos, name);
+	}
 
-		private static final SuggestionProvider<ServerCommandSource> SUGGEST_PROVIDER = SuggestionProviders.register(new Identifier("dither_mode"), (commandContext, suggestionsBuilder) -> CommandSource.suggestMatching(Arrays.stream(values()).map(ditherMode -> ditherMode.name().toLowerCase()), suggestionsBuilder));
+	private int updateHeldMaps(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+		ItemStack stack = ctx.getSource().getPlayer().getMainHandStack();
+		Integer posterId = FilledMapItem.getMapId(stack);
+		if (!stack.isOf(Items.FILLED_MAP) || posterId == null)
+			throw NOT_HOLDING_MAP.create();
+		if (!PosterManifest.isPoster(stack.getTag()))
+			return updateMaps(MapGenerationContext.getBasicInfo(ctx), new int[] { posterId }, null, stack);
 
-		// The default from string method doesn't quite fit my needs
-		public static DitherMode fromString(String string) throws CommandSyntaxException {
-			if (string.equalsIgnoreCase("NONE"))
-				return DitherMode.NONE;
-			else if (string.equalsIgnoreCase("DITHER") || string.equalsIgnoreCase("FLOYD"))
-				return DitherMode.FLOYD;
-			throw new CommandSyntaxException(
-					new SimpleCommandExceptionType(new LiteralMessage("Invalid Dither mode '" + string + "'")),
-					new LiteralMessage("Invalid Dither mode '" + string + "'"));
-		}
+		PosterManifest poster = PosterManifest.read(ctx.getSource().getWorld(), stack.getTag());
+		if (poster == null)
+			throw NOT_HOLDING_MAP.create();
+		return updateMaps(MapGenerationContext.getBasicInfo(ctx).countX(poster.width()).countY(poster.height())
+				.makePoster(true), poster.mapIds(), posterId, stack);
+	}
 
-		public static SuggestionProvider<ServerCommandSource> getSuggestor() {
-			return SUGGEST_PROVIDER;
-		}
+	/**
+	 * Updates a map by id. Only maps this mod made and that no other image
+	 * uses can be updated this way, so nobody else's maps can be overwritten.
+	 */
+	private int updateMapById(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+		int mapId = IntegerArgumentType.getInteger(ctx, "mapId");
+		MapIndexState index = MapIndexState.get(ctx.getSource().getWorld());
+		if (!index.isCreated(mapId))
+			throw NOT_CREATED_MAP.create(mapId);
+		if (index.isShared(mapId))
+			throw SHARED_MAP.create(mapId);
+		return updateMaps(MapGenerationContext.getBasicInfo(ctx), new int[] { mapId }, null, null);
+	}
+
+	/**
+	 * Renders an image into maps that already exist, replacing their colors.
+	 *
+	 * @param mapIds   the map to update with each tile, indexed by {@code y * countX + x}
+	 * @param posterId the map of the poster item to update, or null if there is none
+	 * @param item     the held map or poster, or null if the maps were given by id
+	 */
+	private int updateMaps(MapGenerationContext context, int[] mapIds, @Nullable Integer posterId,
+			@Nullable ItemStack item) throws CommandSyntaxException {
+		ServerCommandSource source = context.getSource();
+		source.sendFeedback(new LiteralText("Updating image map..."), false);
+		MapJob job = JobQueue.submit(
+				new MapJob(context, rendered -> new MapUpdateCommit(context, rendered, mapIds, posterId, item)));
+		source.sendFeedback(new LiteralText(String.format("Map Update Queued as job #%d!", job.getId())), false);
+		return 1;
+	}
+
+	/**
+	 * Loads and renders an image off the server thread, then hands the result
+	 * to the job to be turned into maps.
+	 *
+	 * @return completes once the job is rendered or has stopped
+	 */
+	static CompletableFuture<Void> startJob(MapJob job) {
+		MapGenerationContext context = job.getContext();
+		ServerCommandSource source = context.getSource();
+		PipelineStats.increment(PipelineStats.Counter.JOBS_STARTED);
+		return CompletableFuture.supplyAsync(() -> job.runInterruptibly(() -> ImageUtils.fetchImage(context.getPath())),
+				RenderWorkers.getDownloadExecutor())
+				.orTimeout(CONFIG.downloadTimeoutSeconds, TimeUnit.SECONDS)
+				.thenComposeAsync(image -> {
+					job.checkCancelled();
+					job.setStatus(MapJob.Status.RENDERING);
+					return renderMaps(context, image);
+				}, context.getExecutor())
+				.thenAccept(job::deliver)
+				.exceptionally(e -> {
+					// a cancelled download fails with whatever the interrupt caused, so check the job itself
+					boolean cancelled = job.isCancelled() || unwrap(e) instanceof CancellationException;
+					// stop whatever is still running, like a download that timed out
+					job.cancel();
+					String message;
+					if (cancelled) {
+						JobQueue.finish(job, MapJob.Status.CANCELLED);
+						message = String.format("Job #%d was cancelled.", job.getId());
+					} else {
+						JobQueue.finish(job, MapJob.Status.FAILED);
+						message = getFailureMessage(e);
+					}
+					source.getServer().execute(() -> source.sendFeedback(new LiteralText(message), false));
+					return null;
+				});
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+	}
+
+	/**
+	 * Explains why loading or rendering an image failed, logging anything
+	 * unexpected.
+	 */
+	static String getFailureMessage(Throwable e) {
+		Throwable cause = unwrap(e);
+		if (cause instanceof MapCreationException)
+			return cause.getMessage();
+		if (cause instanceof TimeoutException)
+			return "Timed out loading that image.";
+		LOGGER.error("Failed to create image map", cause);
+		return "Map creation failed!";
+	}
 
+	/**
+	 * Renders an image into map colors once there is enough memory for it,
+	 * see {@link MemoryGovernor}.
+	 */
+	static CompletableFuture<RenderedMaps> renderMaps(MapGenerationContext context, ImageUtils.ImageSource source) {
+		long bytes = MemoryGovernor.estimate(context, ImageUtils.probe(source));
+		return MemoryGovernor.acquire(bytes, context.getMonitor()).thenComposeAsync(permit -> {
+			CompletableFuture<RenderedMaps> rendered;
+			try {
+				rendered = render(context, source);
+			} catch (RuntimeException e) {
+				permit.release();
+				throw e;
+			}
+			return rendered.whenComplete((result, e) -> permit.release());
+		}, context.getExecutor());
+	}
+
+	private static CompletableFuture<RenderedMaps> render(MapGenerationContext context, ImageUtils.ImageSource source) {
+		RenderedMaps animation = ImageUtils.renderAnimation(source, context, shouldMakePoster(context));
+		if (animation != null)
+			return CompletableFuture.completedFuture(animation);
+		context.getMonitor().checkCancelled();
+		BufferedImage img = ImageUtils.decodeImage(source, context);
+		int[] pixels = MapQuantizer.getPixels(img);
+		Rectangle area = ImageUtils.place(context.getScaleMode(), context.getCountX() * 128,
+				context.getCountY() * 128, img.getWidth(), img.getHeight());
+		PipelineStats.Timer timer = PipelineStats.start(PipelineStats.Stage.QUANTIZE);
+		return RenderWorkers.renderStrips(pixels, img.getWidth(), img.getHeight(), area, context.getCountX(),
+				context.getCountY(), context.getFilter(), context.getDither(), context.getPalette(),
+				context.isSeamless(), context.getExecutor(), context.getParallelism(), context.getMonitor())
+				.thenApply(tiles -> {
+					timer.stop((long) tiles.length * 128 * 128);
+					return new RenderedMaps(tiles, shouldMakePoster(context)
+							? ImageUtils.renderPoster(pixels, img.getWidth(), img.getHeight(), area,
+									context.getCountX(), context.getCountY(), context.getFilter(),
+									context.getDither(), context.getPalette())
+							: null, null, null);
+				});
+	}
+
+	private static boolean shouldMakePoster(MapGenerationContext context) {
+		return context.shouldMakePoster() && (context.getCountX() > 1 || context.getCountY() > 1);
+	}
+
+	static void givePlayerMap(PlayerEntity player, ItemStack stack) {
+		if (!player.getInventory().insertStack(stack)) {
+			ItemEntity itemEntity = new ItemEntity(player.world, player.getPos().x, player.getPos().y, player.getPos().z,
+					stack);
+			player.world.spawnEntity(itemEntity);
+		}
 	}
 
 	public enum ScaleMode {
 		FIT, FILL, STRETCH;
 
-		private static final SuggestionProvider<ServerCommandSource> SUGGEST_PROVIDER = SuggestionProviders.register(new Identifier("scale_mode"), (commandContext, suggestionsBuilder) -> CommandSource.suggestMatching(Arrays.stream(values()).map(scaleMode -> scaleMode.name().toLowerCase()), suggestionsBuilder));
-
 		public static ScaleMode fromString(String sMode) {
 			return switch (sMode.toUpperCase()) {
 				case "FIT" -> FIT;
@@ -184,10 +428,6 @@ public class Image2Map implements ModInitializer {
 				default -> throw new IllegalArgumentException("input string must be a valid enum value!");
 			};
 		}
-
-		public static SuggestionProvider<ServerCommandSource> getSuggestor() {
-			return SUGGEST_PROVIDER;
-		}
 	}
 
 }
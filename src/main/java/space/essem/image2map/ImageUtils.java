@@ -1,78 +1,337 @@
 package space.essem.image2map;
 
-import net.minecraft.server.command.ServerCommandSource;
-import net.minecraft.text.LiteralText;
+import net.fabricmc.loader.api.FabricLoader;
 import org.jetbrains.annotations.Nullable;
+import space.essem.image2map.animation.AnimationState;
+import space.essem.image2map.animation.FrameWriter;
+import space.essem.image2map.animation.GifFrames;
+import space.essem.image2map.animation.MapAnimation;
+import space.essem.image2map.cache.DecodedImageCache;
+import space.essem.image2map.cache.DownloadCache;
+import space.essem.image2map.cache.SizeLimitException;
+import space.essem.image2map.config.Image2MapConfig;
+import space.essem.image2map.renderer.Ditherer;
+import space.essem.image2map.renderer.MapPalette;
+import space.essem.image2map.renderer.MapQuantizer;
+import space.essem.image2map.renderer.RenderWorkers;
+import space.essem.image2map.renderer.ResampleFilter;
+import space.essem.image2map.renderer.Resampler;
+import space.essem.image2map.stats.PipelineStats;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
 
 public class ImageUtils {
-    private static BufferedImage scaleImage(int width, int height, BufferedImage input, boolean fitAll) {
-        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        Graphics g = output.createGraphics();
-        double imgAspect = (double) input.getHeight() / input.getWidth();
+    private static DownloadCache downloadCache;
+    private static DecodedImageCache imageCache;
 
-        int outputWidth = output.getWidth();
-        int outputHeight = output.getHeight();
+    static synchronized DownloadCache getDownloadCache() {
+        if (downloadCache == null) {
+            Image2MapConfig config = Image2Map.CONFIG;
+            downloadCache = new DownloadCache(FabricLoader.getInstance().getGameDir().resolve("image2map_cache"),
+                    config.downloadCacheMb * 1024L * 1024L, config.downloadCacheEntries,
+                    config.downloadCacheFreshSeconds * 1000L, config.connectTimeoutSeconds * 1000,
+                    config.readTimeoutSeconds * 1000, getMaxImageBytes());
+        }
+        return downloadCache;
+    }
 
-        double canvasAspect = (double) outputHeight / outputWidth;
+    static synchronized DecodedImageCache getImageCache() {
+        if (imageCache == null)
+            imageCache = new DecodedImageCache(Image2Map.CONFIG.imageMemoryCacheMb * 1024L * 1024L);
+        return imageCache;
+    }
 
-        int x1 = 0;
-        int y1 = 0;
+    private static int getMaxImageBytes() {
+        return (int) Math.min(Image2Map.CONFIG.maxImageMb * 1024L * 1024L, Integer.MAX_VALUE - 8);
+    }
 
-        // XOR conditionally negates the IF statement
-        // (A XOR true == !A, A XOR false == A)
-        if (canvasAspect > imgAspect ^ !fitAll) {
-            y1 = outputHeight;
-            outputHeight = (int) (outputWidth * imgAspect);
-            y1 = (y1 - outputHeight) / 2;
-        } else {
-            x1 = outputWidth;
-            outputWidth = (int) (outputHeight / imgAspect);
-            x1 = (x1 - outputWidth) / 2;
+    /**
+     * The undecoded contents of an image, either downloaded or on disk.
+     *
+     * @param key identifies the contents, used to cache anything derived from them
+     */
+    record ImageSource(String key, @Nullable byte[] bytes, @Nullable File file) {
+        ImageInputStream open() throws IOException {
+            return ImageIO.createImageInputStream(bytes != null ? new ByteArrayInputStream(bytes) : file);
         }
-        int x2 = outputWidth + x1;
-        int y2 = outputHeight + y1;
+    }
 
-        g.drawImage(input, x1, y1, x2, y2, 0, 0, input.getWidth(), input.getHeight(), null);
-        return output;
+    /**
+     * Downloads an image or, if allowed, finds it on disk. This blocks, so it
+     * should be run on {@link RenderWorkers#getDownloadExecutor()}.
+     *
+     * @throws MapCreationException if the image can't be loaded
+     */
+    static ImageSource fetchImage(String urlStr) {
+        PipelineStats.Timer timer = PipelineStats.start(PipelineStats.Stage.FETCH);
+        ImageSource source = loadSource(urlStr);
+        timer.stop(0, source.bytes() != null ? source.bytes().length : source.file().length());
+        return source;
     }
 
-    @Nullable
-    static BufferedImage getImage(String urlStr, ServerCommandSource source) {
-        BufferedImage image;
+    private static ImageSource loadSource(String urlStr) {
         try {
             if (isValid(urlStr)) {
-                URL url = new URL(urlStr);
-                URLConnection connection = url.openConnection();
-                connection.setRequestProperty("User-Agent", "Image2Map mod");
-                connection.connect();
-                image = ImageIO.read(connection.getInputStream());
+                DownloadCache.Download download = download(new URL(urlStr));
+                return new ImageSource(download.hash(), download.bytes(), null);
             } else if (Image2Map.CONFIG.allowLocalFiles) {
                 File file = new File(urlStr);
-                image = ImageIO.read(file);
-            } else {
-                image = null;
+                if (file.length() > getMaxImageBytes())
+                    throw new SizeLimitException(String.format("That image is too big (%d KB, the limit is %d KB)",
+                            file.length() / 1024, getMaxImageBytes() / 1024));
+                if (!file.isFile())
+                    throw new MapCreationException("That doesn't seem to be a valid image.");
+                return new ImageSource("file:" + file.getAbsolutePath() + ":" + file.lastModified() + ":"
+                        + file.length(), null, file);
             }
+        } catch (SizeLimitException e) {
+            throw new MapCreationException(e.getMessage(), e);
         } catch (IOException e) {
-            source.sendFeedback(new LiteralText("That doesn't seem to be a valid image."), false);
-            return null;
+            throw new MapCreationException("That doesn't seem to be a valid image.", e);
         }
+        throw new MapCreationException("That doesn't seem to be a valid image.");
+    }
 
-        if (image == null) {
-            source.sendFeedback(new LiteralText("That doesn't seem to be a valid image."), false);
-            return null;
+    /**
+     * Downloads a file, trying again after server errors and dropped
+     * connections, but not after client errors or when the file is too big.
+     */
+    private static DownloadCache.Download download(URL url) throws IOException {
+        int attempt = 0;
+        while (true) {
+            try {
+                return getDownloadCache().fetch(url);
+            } catch (SizeLimitException e) {
+                throw e;
+            } catch (IOException e) {
+                boolean clientError = e instanceof DownloadCache.HttpStatusException status
+                        && status.getStatus() < 500;
+                if (clientError || attempt >= Image2Map.CONFIG.downloadRetries)
+                    throw e;
+                attempt++;
+                try {
+                    Thread.sleep(500L << Math.min(attempt, 5));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
         }
+    }
+
+    /**
+     * Decodes an image, only as much of it as is needed to fill the requested
+     * number of maps. The returned image may be shared with other imports so it
+     * must not be modified.
+     *
+     * @throws MapCreationException if the image can't be decoded
+     */
+    static BufferedImage decodeImage(ImageSource source, MapGenerationContext context) {
+        PipelineStats.Timer timer = PipelineStats.start(PipelineStats.Stage.DECODE);
+        BufferedImage image;
+        try (ImageInputStream input = source.open()) {
+            image = input == null ? null
+                    : decode(input, source.key(), context.getScaleMode(), context.getCountX(), context.getCountY());
+        } catch (SizeLimitException e) {
+            throw new MapCreationException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new MapCreationException("That doesn't seem to be a valid image.", e);
+        }
+        if (image == null)
+            throw new MapCreationException("That doesn't seem to be a valid image.");
+        timer.stop((long) image.getWidth() * image.getHeight());
         return image;
     }
 
+    /**
+     * The size of an image, read from its header without decoding it.
+     *
+     * @param frames the number of frames of an animated GIF, otherwise 1
+     */
+    record ImageInfo(int width, int height, int frames) {
+    }
+
+    /**
+     * Reads the size of an image from its header.
+     *
+     * @throws MapCreationException if the image can't be read
+     */
+    static ImageInfo probe(ImageSource source) {
+        try (ImageInputStream input = source.open()) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext())
+                throw new MapCreationException("That doesn't seem to be a valid image.");
+            ImageReader reader = readers.next();
+            try {
+                boolean gif = reader.getFormatName().equalsIgnoreCase("gif");
+                reader.setInput(input, !gif, true);
+                // counting the frames of a GIF means reading all of it, but GIFs are small
+                return new ImageInfo(reader.getWidth(0), reader.getHeight(0), gif ? reader.getNumImages(true) : 1);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new MapCreationException("That doesn't seem to be a valid image.", e);
+        }
+    }
+
+    /**
+     * Renders every frame of an animated GIF into map colors. Each frame is
+     * scaled and rendered as soon as it is read and written to a frame file,
+     * so only one full-size frame is held at a time. The context's monitor is
+     * checked before every frame.
+     *
+     * @param makePoster whether to render a poster item from the first frame
+     * @return the rendered frames, or null if the image isn't an animated GIF
+     * @throws MapCreationException if the animation is too big or can't be decoded
+     */
+    @Nullable
+    static RenderedMaps renderAnimation(ImageSource source, MapGenerationContext context, boolean makePoster) {
+        try (ImageInputStream input = source.open()) {
+            if (input == null)
+                return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext())
+                return null;
+            ImageReader reader = readers.next();
+            try {
+                if (!reader.getFormatName().equalsIgnoreCase("gif"))
+                    return null;
+                reader.setInput(input, false, false);
+                int frameCount = reader.getNumImages(true);
+                if (frameCount <= 1)
+                    return null;
+
+                int countX = context.getCountX();
+                int countY = context.getCountY();
+                int mapCount = countX * countY;
+                long frameBytes = (long) frameCount * mapCount * MapAnimation.MAP_SIZE;
+                if (frameCount > Image2Map.CONFIG.maxAnimationFrames
+                        || frameBytes > Image2Map.CONFIG.maxAnimationMb * 1024L * 1024L)
+                    throw new MapCreationException(String.format("That animation is too big (%d frames over %d maps)",
+                            frameCount, mapCount));
+                if ((long) reader.getWidth(0) * reader.getHeight(0) * frameCount > Image2Map.CONFIG.maxImagePixels)
+                    throw new MapCreationException(String.format(
+                            "That animation is too big (%dx%d with %d frames, the limit is %d pixels)",
+                            reader.getWidth(0), reader.getHeight(0), frameCount, Image2Map.CONFIG.maxImagePixels));
+
+                context.getMonitor().setTiles(frameCount * mapCount);
+                int[] delays = new int[frameCount];
+                byte[][][] firstFrame = new byte[1][][];
+                byte[][] posterColors = new byte[1][];
+                try (FrameWriter writer = new FrameWriter(
+                        AnimationState.newFrameFile(context.getSource().getServer()), mapCount)) {
+                    GifFrames.read(reader, (image, delay) -> {
+                        int frame = writer.getFrames();
+                        if (frame >= frameCount)
+                            return;
+                        context.getMonitor().checkCancelled();
+                        BufferedImage scaled = scaleImage(context.getScaleMode(), countX, countY, image,
+                                context.getFilter(), context.getExecutor(), context.getParallelism());
+                        PipelineStats.Timer timer = PipelineStats.start(PipelineStats.Stage.QUANTIZE);
+                        byte[][] tiles = MapQuantizer.renderCanvas(scaled, countX, countY, context.getDither(),
+                                context.getPalette());
+                        timer.stop((long) scaled.getWidth() * scaled.getHeight());
+                        writer.write(tiles);
+                        if (frame == 0) {
+                            firstFrame[0] = tiles;
+                            if (makePoster)
+                                posterColors[0] = MapQuantizer.render(scaleImage(Image2Map.ScaleMode.FIT, 1, 1,
+                                        scaled, context.getFilter(), null, 1), context.getDither(),
+                                        context.getPalette());
+                        }
+                        delays[frame] = delay;
+                        context.getMonitor().tilesDone(mapCount);
+                    });
+                    if (writer.getFrames() == 0)
+                        throw new MapCreationException("That doesn't seem to be a valid image.");
+                    // frames that couldn't be decoded are left out
+                    return new RenderedMaps(firstFrame[0], posterColors[0],
+                            Arrays.copyOf(delays, writer.getFrames()), writer.finish());
+                }
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new MapCreationException("That doesn't seem to be a valid image.", e);
+        }
+    }
+
+    /**
+     * Decodes the first image in a stream. The size is read from the header
+     * first, so oversized images are rejected before any pixels are decoded.
+     * Rows and columns that wouldn't survive scaling down to countX by countY
+     * maps are skipped while decoding, and with {@link Image2Map.ScaleMode#FILL}
+     * so are the edges that get cropped off, so the memory used depends on the
+     * output size rather than on the source size.
+     *
+     * @param key identifies the source, used to cache the decoded image
+     */
+    @Nullable
+    static BufferedImage decode(ImageInputStream input, String key, Image2Map.ScaleMode scale, int countX, int countY)
+            throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext())
+            return null;
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            if ((long) width * height > Image2Map.CONFIG.maxImagePixels)
+                throw new SizeLimitException(String.format("That image is too big (%dx%d, the limit is %d pixels)",
+                        width, height, Image2Map.CONFIG.maxImagePixels));
+
+            int targetWidth = countX * 128;
+            int targetHeight = countY * 128;
+            Rectangle region = new Rectangle(0, 0, width, height);
+            if (scale == Image2Map.ScaleMode.FILL) {
+                double canvasAspect = (double) targetHeight / targetWidth;
+                double imgAspect = (double) height / width;
+                if (imgAspect > canvasAspect) {
+                    region.height = Math.max(1, (int) Math.round(width * canvasAspect));
+                    region.y = (height - region.height) / 2;
+                } else {
+                    region.width = Math.max(1, (int) Math.round(height / canvasAspect));
+                    region.x = (width - region.width) / 2;
+                }
+            }
+            // keep at least twice the output resolution so the final scale still has detail to work with
+            int subsampleX = Math.max(1, region.width / (targetWidth * 2));
+            int subsampleY = Math.max(1, region.height / (targetHeight * 2));
+            if (scale != Image2Map.ScaleMode.STRETCH)
+                subsampleX = subsampleY = Math.min(subsampleX, subsampleY);
+
+            String decodedKey = String.format("%s@%d,%d,%d,%d/%d,%d", key, region.x, region.y, region.width,
+                    region.height, subsampleX, subsampleY);
+            BufferedImage image = getImageCache().get(decodedKey);
+            if (image == null) {
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(region);
+                param.setSourceSubsampling(subsampleX, subsampleY, 0, 0);
+                image = reader.read(0, param);
+                if (image != null)
+                    getImageCache().put(decodedKey, image);
+            }
+            return image;
+        } finally {
+            reader.dispose();
+        }
+    }
+
     public static String getImageName(String path) {
         if (ImageUtils.isValid(path)) {
             String fileName;
@@ -108,20 +367,82 @@ public class ImageUtils {
         }
     }
 
-    static BufferedImage scaleImage(Image2Map.ScaleMode scale, int countX, int countY, BufferedImage sourceImage) {
-        BufferedImage img = new BufferedImage(countX * 128, countY * 128, BufferedImage.TYPE_INT_ARGB);
-        switch (scale) {
-            case STRETCH:
-                img.createGraphics().drawImage(sourceImage, 0, 0, img.getWidth(), img.getHeight(), null);
-                break;
-            case FIT:
-                return scaleImage(countX * 128, countY * 128, sourceImage, true);
-            case FILL:
-                return scaleImage(countX * 128, countY * 128, sourceImage, false);
-            default:
-                throw new RuntimeException("impossible scale mode!");
+    /**
+     * Scales an image onto a transparent canvas the size of countX by countY
+     * maps in a single resampling pass.
+     *
+     * @param executor    runs rows in parallel, or null to scale on the calling thread
+     * @param parallelism the maximum number of threads used
+     */
+    public static BufferedImage scaleImage(Image2Map.ScaleMode scale, int countX, int countY, BufferedImage sourceImage,
+            ResampleFilter filter, @Nullable Executor executor, int parallelism) {
+        int width = countX * 128;
+        int height = countY * 128;
+        Rectangle area = place(scale, width, height, sourceImage.getWidth(), sourceImage.getHeight());
+        PipelineStats.Timer timer = PipelineStats.start(PipelineStats.Stage.SCALE);
+        int[] pixels = new int[width * height];
+        Resampler.resample(MapQuantizer.getPixels(sourceImage), sourceImage.getWidth(), sourceImage.getHeight(),
+                pixels, width, height, area.x, area.y, area.width, area.height, filter, executor, parallelism);
+        timer.stop(pixels.length);
+        return MapQuantizer.toImage(pixels, width, height);
+    }
+
+    /**
+     * Works out where an image goes on a canvas. With {@link Image2Map.ScaleMode#FILL}
+     * the area is bigger than the canvas and gets cropped.
+     */
+    public static Rectangle place(Image2Map.ScaleMode scale, int width, int height, int sourceWidth,
+            int sourceHeight) {
+        Rectangle area = new Rectangle(0, 0, width, height);
+        if (scale != Image2Map.ScaleMode.STRETCH) {
+            boolean fitAll = scale == Image2Map.ScaleMode.FIT;
+            double imgAspect = (double) sourceHeight / sourceWidth;
+            double canvasAspect = (double) height / width;
+            // XOR conditionally negates the IF statement
+            // (A XOR true == !A, A XOR false == A)
+            if (canvasAspect > imgAspect ^ !fitAll) {
+                area.height = Math.max(1, (int) (width * imgAspect));
+                area.y = (height - area.height) / 2;
+            } else {
+                area.width = Math.max(1, (int) (height / imgAspect));
+                area.x = (width - area.width) / 2;
+            }
+        }
+        return area;
+    }
+
+    /**
+     * Renders the poster item of a countX by countY poster straight from the
+     * source image, as the poster scaled to fit a single map.
+     *
+     * @param pixels the ARGB pixels of the source image, which are only read
+     * @param area   where the source image goes on the poster, see {@link #place}
+     */
+    public static byte[] renderPoster(int[] pixels, int width, int height, Rectangle area, int countX, int countY,
+            ResampleFilter filter, Ditherer ditherer, MapPalette palette) {
+        int posterWidth = countX * 128;
+        int posterHeight = countY * 128;
+        Rectangle small = place(Image2Map.ScaleMode.FIT, 128, 128, posterWidth, posterHeight);
+        // scale onto the small poster first so a cropped image stays inside it
+        int[] poster = new int[small.width * small.height];
+        double scaleX = (double) small.width / posterWidth;
+        double scaleY = (double) small.height / posterHeight;
+        Resampler.resample(pixels, width, height, poster, small.width, small.height,
+                (int) Math.floor(area.x * scaleX), (int) Math.floor(area.y * scaleY),
+                Math.max(1, (int) Math.round(area.width * scaleX)), Math.max(1, (int) Math.round(area.height * scaleY)),
+                filter, null, 1);
+        int[] map = new int[128 * 128];
+        for (int row = 0; row < small.height; row++)
+            System.arraycopy(poster, row * small.width, map, (small.y + row) * 128 + small.x, small.width);
+        return MapQuantizer.quantize(map, 128, 128, ditherer, palette);
+    }
+
+    public static ResampleFilter getDefaultFilter() {
+        ResampleFilter filter = ResampleFilter.byName(Image2Map.CONFIG.scaleFilter);
+        if (filter == null) {
+            Image2Map.LOGGER.warn("Unknown scale filter '{}', using area", Image2Map.CONFIG.scaleFilter);
+            return ResampleFilter.AREA;
         }
-        img.flush();
-        return img;
+        return filter;
     }
 }
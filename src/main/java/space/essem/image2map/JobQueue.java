@@ -0,0 +1,337 @@
+package space.essem.image2map;
+
+import com.mojang.brigadier.LiteralMessage;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.Dynamic2CommandExceptionType;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import net.minecraft.entity.Entity;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.text.LiteralText;
+import net.minecraft.util.Formatting;
+import org.jetbrains.annotations.Nullable;
+import space.essem.image2map.config.Image2MapConfig;
+import space.essem.image2map.stats.PipelineStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Decides when map creation jobs run. Only a few jobs download and render at
+ * once; the rest wait in one of two lanes, and jobs of players with the
+ * priority permission level always go first. Everyone else is held to a
+ * number of jobs and pixels waiting or in progress, and to a number of jobs
+ * running at once, so one player can't take over the render workers.
+ */
+public class JobQueue {
+    /** Every job that hasn't finished yet, oldest first. */
+    private static final List<MapJob> JOBS = new ArrayList<>();
+    private static int running;
+
+    private static final DynamicCommandExceptionType NO_SUCH_JOB = new DynamicCommandExceptionType(
+            id -> new LiteralMessage("There is no job #" + id));
+    private static final DynamicCommandExceptionType NOT_YOUR_JOB = new DynamicCommandExceptionType(
+            id -> new LiteralMessage("Job #" + id + " isn't yours"));
+    private static final DynamicCommandExceptionType ALREADY_DELIVERING = new DynamicCommandExceptionType(
+            id -> new LiteralMessage("Job #" + id + " is already being handed out"));
+    private static final Dynamic2CommandExceptionType TOO_MANY_JOBS = new Dynamic2CommandExceptionType(
+            (count, limit) -> new LiteralMessage(
+                    String.format("You already have %s jobs waiting or in progress, the limit is %s", count, limit)));
+    private static final Dynamic2CommandExceptionType TOO_MANY_PIXELS = new Dynamic2CommandExceptionType(
+            (pixels, limit) -> new LiteralMessage(String.format(
+                    "That would give you %s pixels waiting or in progress, the limit is %s", pixels, limit)));
+
+    /**
+     * Queues a job, starting it right away if there is a free slot.
+     *
+     * @throws CommandSyntaxException if the player is over their quota
+     */
+    static synchronized MapJob submit(MapJob job) throws CommandSyntaxException {
+        Image2MapConfig config = Image2Map.CONFIG;
+        if (!job.isPriority()) {
+            int jobs = 1;
+            long pixels = job.getPixels();
+            for (MapJob other : JOBS) {
+                if (Objects.equals(other.getOwner(), job.getOwner())) {
+                    jobs++;
+                    pixels += other.getPixels();
+                }
+            }
+            if (jobs > config.maxJobsPerPlayer)
+                throw TOO_MANY_JOBS.create(jobs - 1, config.maxJobsPerPlayer);
+            if (pixels > config.maxPixelsPerPlayer)
+                throw TOO_MANY_PIXELS.create(pixels, config.maxPixelsPerPlayer);
+        }
+        JOBS.add(job);
+        startJobs();
+        return job;
+    }
+
+    /**
+     * Checks the pixel quota again for a job that only finds out how many
+     * pixels it renders once it has started, like a batch or an archive.
+     *
+     * @throws MapCreationException if that takes its owner over their quota
+     */
+    static synchronized void checkPixels(MapJob job) {
+        if (job.isPriority())
+            return;
+        long pixels = 0;
+        for (MapJob other : JOBS) {
+            if (Objects.equals(other.getOwner(), job.getOwner()))
+                pixels += other.getPixels();
+        }
+        if (pixels > Image2Map.CONFIG.maxPixelsPerPlayer)
+            throw new MapCreationException(String.format(
+                    "That would give you %d pixels waiting or in progress, the limit is %d", pixels,
+                    Image2Map.CONFIG.maxPixelsPerPlayer));
+    }
+
+    /**
+     * Starts waiting jobs until every slot is taken.
+     */
+    private static void startJobs() {
+        while (running < Math.max(1, Image2Map.CONFIG.maxRunningJobs)) {
+            MapJob job = getNext();
+            if (job == null)
+                return;
+            running++;
+            job.setStatus(MapJob.Status.FETCHING);
+            job.start().whenComplete((result, e) -> release());
+        }
+    }
+
+    /**
+     * @return the oldest waiting priority job, or else the oldest waiting job
+     *         of a player who isn't at their limit of running jobs
+     */
+    @Nullable
+    private static MapJob getNext() {
+        MapJob next = null;
+        for (MapJob job : JOBS) {
+            if (job.getStatus() != MapJob.Status.QUEUED || job.isCancelled())
+                continue;
+            if (job.isPriority())
+                return job;
+            if (next == null && countRunning(job.getOwner()) < Math.max(1, Image2Map.CONFIG.maxRunningJobsPerPlayer))
+                next = job;
+        }
+        return next;
+    }
+
+    private static int countRunning(@Nullable UUID owner) {
+        int count = 0;
+        for (MapJob job : JOBS) {
+            if (job.isRunning() && Objects.equals(job.getOwner(), owner))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Frees the slot of a job once it is rendered, failed or stopped.
+     */
+    private static synchronized void release() {
+        running--;
+        startJobs();
+    }
+
+    /**
+     * Forgets a job that won't do anything more.
+     */
+    static synchronized void finish(MapJob job, MapJob.Status status) {
+        if (job.isFinished())
+            return;
+        job.setStatus(status);
+        JOBS.remove(job);
+        PipelineStats.increment(switch (status) {
+            case DONE -> PipelineStats.Counter.JOBS_FINISHED;
+            case CANCELLED -> PipelineStats.Counter.JOBS_CANCELLED;
+            default -> PipelineStats.Counter.JOBS_FAILED;
+        });
+        startJobs();
+    }
+
+    public static synchronized int getRunning() {
+        return running;
+    }
+
+    public static synchronized int getWaiting() {
+        int waiting = 0;
+        for (MapJob job : JOBS) {
+            if (job.getStatus() == MapJob.Status.QUEUED)
+                waiting++;
+        }
+        return waiting;
+    }
+
+    /**
+     * @return how many waiting jobs will start before this one, as things stand
+     */
+    private static int getJobsAhead(MapJob job) {
+        int ahead = 0;
+        boolean before = true;
+        for (MapJob other : JOBS) {
+            if (other == job)
+                before = false;
+            else if (other.getStatus() == MapJob.Status.QUEUED
+                    && (other.isPriority() ? before || !job.isPriority() : before && !job.isPriority()))
+                ahead++;
+        }
+        return ahead;
+    }
+
+    /**
+     * Shows the owners of running jobs how far along they are, at most once a
+     * second and only when something changed.
+     */
+    static void tick(MinecraftServer server) {
+        if (server.getTicks() % 20 != 0)
+            return;
+        List<MapJob> jobs;
+        synchronized (JobQueue.class) {
+            jobs = new ArrayList<>(JOBS);
+        }
+        for (MapJob job : jobs) {
+            if (job.getOwner() == null || (!job.isRunning() && job.getStatus() != MapJob.Status.DELIVERING)
+                    || !job.takeProgress())
+                continue;
+            ServerPlayerEntity player = server.getPlayerManager().getPlayer(job.getOwner());
+            if (player != null)
+                player.sendMessage(new LiteralText(String.format("Job #%d: %s", job.getId(), job.getProgressText())),
+                        true);
+        }
+    }
+
+    /**
+     * Drops waiting jobs and stops running ones when the server shuts down.
+     * Jobs that are being handed out are finished by the commit queue.
+     */
+    static synchronized void cancelAll(MinecraftServer server) {
+        for (MapJob job : new ArrayList<>(JOBS)) {
+            if (job.getStatus() == MapJob.Status.DELIVERING)
+                continue;
+            job.cancel();
+            if (job.getStatus() == MapJob.Status.QUEUED)
+                finish(job, MapJob.Status.CANCELLED);
+        }
+    }
+
+    @Nullable
+    private static UUID getOwner(ServerCommandSource source) {
+        Entity entity = source.getEntity();
+        return entity != null ? entity.getUuid() : null;
+    }
+
+    private static boolean canSeeAll(ServerCommandSource source) {
+        return source.hasPermissionLevel(Image2Map.CONFIG.priorityPermLevel);
+    }
+
+    private static synchronized MapJob getJob(CommandContext<ServerCommandSource> context)
+            throws CommandSyntaxException {
+        int id = IntegerArgumentType.getInteger(context, "id");
+        for (MapJob job : JOBS) {
+            if (job.getId() == id) {
+                if (!canSeeAll(context.getSource()) && !Objects.equals(job.getOwner(), getOwner(context.getSource())))
+                    throw NOT_YOUR_JOB.create(id);
+                return job;
+            }
+        }
+        throw NO_SUCH_JOB.create(id);
+    }
+
+    static int listJobs(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        List<MapJob> jobs = new ArrayList<>();
+        synchronized (JobQueue.class) {
+            for (MapJob job : JOBS) {
+                if (canSeeAll(source) || Objects.equals(job.getOwner(), getOwner(source)))
+                    jobs.add(job);
+            }
+        }
+        if (jobs.isEmpty()) {
+            source.sendFeedback(new LiteralText("There are no map jobs"), false);
+            return 0;
+        }
+        source.sendFeedback(new LiteralText(String.format("Map jobs (%d running, %d waiting)", getRunning(),
+                getWaiting())).formatted(Formatting.GOLD), false);
+        for (MapJob job : jobs)
+            source.sendFeedback(new LiteralText(job.describe()), false);
+        return jobs.size();
+    }
+
+    static int cancelJob(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        MapJob job = getJob(context);
+        boolean waiting;
+        synchronized (JobQueue.class) {
+            if (job.isFinished())
+                throw NO_SUCH_JOB.create(job.getId());
+            if (job.getStatus() == MapJob.Status.DELIVERING)
+                throw ALREADY_DELIVERING.create(job.getId());
+            waiting = job.getStatus() == MapJob.Status.QUEUED;
+            job.cancel();
+            if (waiting)
+                finish(job, MapJob.Status.CANCELLED);
+        }
+        // the owner of a running job hears about it once its workers have stopped
+        if (waiting && !Objects.equals(job.getOwner(), getOwner(context.getSource())))
+            job.getContext().getSource().sendFeedback(
+                    new LiteralText(String.format("Job #%d was cancelled.", job.getId())), false);
+        context.getSource().sendFeedback(new LiteralText(
+                String.format(waiting ? "Cancelled job #%d" : "Cancelling job #%d...", job.getId())), false);
+        return 1;
+    }
+
+    /**
+     * Shows how busy the queue is and how much of their quota the player is
+     * using.
+     */
+    static int showStatus(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        Image2MapConfig config = Image2Map.CONFIG;
+        source.sendFeedback(new LiteralText(String.format("%d of %d job slots in use, %d jobs waiting", getRunning(),
+                Math.max(1, config.maxRunningJobs), getWaiting())), false);
+        if (canSeeAll(source)) {
+            source.sendFeedback(new LiteralText("Your jobs go first and have no limits"), false);
+            return 1;
+        }
+        int jobs = 0;
+        long pixels = 0;
+        synchronized (JobQueue.class) {
+            for (MapJob job : JOBS) {
+                if (Objects.equals(job.getOwner(), getOwner(source))) {
+                    jobs++;
+                    pixels += job.getPixels();
+                }
+            }
+        }
+        source.sendFeedback(new LiteralText(String.format("You have %d of %d jobs and %d of %d pixels in use", jobs,
+                config.maxJobsPerPlayer, pixels, config.maxPixelsPerPlayer)), false);
+        return 1;
+    }
+
+    static int showJobStatus(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        ServerCommandSource source = context.getSource();
+        MapJob job = getJob(context);
+        source.sendFeedback(new LiteralText(job.describe()).formatted(Formatting.GOLD), false);
+        source.sendFeedback(new LiteralText("Image: " + job.getContext().getPath()), false);
+        long age = (System.currentTimeMillis() - job.getCreated()) / 1000;
+        if (job.getStatus() == MapJob.Status.QUEUED) {
+            int ahead;
+            synchronized (JobQueue.class) {
+                ahead = getJobsAhead(job);
+            }
+            source.sendFeedback(new LiteralText(String.format("Waiting for %ds, %d jobs ahead", age, ahead)), false);
+        } else {
+            source.sendFeedback(new LiteralText(String.format("Queued %ds ago, %d/%d tiles rendered, %d/%d maps "
+                    + "delivered", age, job.getTilesRendered(), job.getTiles(), job.getMapsDelivered(),
+                    job.getMaps())), false);
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,89 @@
+package space.essem.image2map;
+
+import net.minecraft.item.FilledMapItem;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtString;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.LiteralText;
+import org.jetbrains.annotations.Nullable;
+import space.essem.image2map.animation.AnimationState;
+import space.essem.image2map.animation.MapAnimation;
+import space.essem.image2map.renderer.MapRenderer;
+
+import java.util.function.Consumer;
+
+/**
+ * Turns the rendered colors of a job into maps, one map per step.
+ */
+class MapCommit implements MapCommitQueue.Task {
+    private final MapGenerationContext context;
+    private final Consumer<ItemStack> output;
+    private final RenderedMaps rendered;
+    private final byte[][] tiles;
+    @Nullable
+    private final byte[] posterColors;
+    private final int[] mapIds;
+    private int next = 0;
+
+    /**
+     * @param output receives each map item that is made
+     */
+    MapCommit(MapGenerationContext context, Consumer<ItemStack> output, RenderedMaps rendered) {
+        this.context = context;
+        this.output = output;
+        this.rendered = rendered;
+        this.tiles = rendered.tiles();
+        this.posterColors = rendered.posterColors();
+        this.mapIds = new int[tiles.length];
+    }
+
+    @Override
+    public boolean step() {
+        ServerCommandSource source = context.getSource();
+        if (next < tiles.length) {
+            // animated maps change, so they can't be shared with other images
+            ItemStack stack = MapRenderer.createMap(source.getWorld(), source.getPosition().x, source.getPosition().z,
+                    tiles[next], !rendered.isAnimated());
+            mapIds[next] = FilledMapItem.getMapId(stack);
+            if (posterColors == null)
+                output.accept(stack);
+            next++;
+            return false;
+        }
+
+        if (posterColors != null) {
+            ItemStack stack = MapRenderer.createMap(source.getWorld(), source.getPosition().x, source.getPosition().z,
+                    posterColors);
+            new PosterManifest(context.getCountX(), context.getCountY(), mapIds).write(source.getWorld(),
+                    stack.getOrCreateTag());
+            NbtCompound stackDisplay = stack.getOrCreateSubTag("display");
+            String path = context.getPath();
+            String fileName = ImageUtils.getImageName(path);
+            if (fileName == null)
+                fileName = path.length() < 15 ? path : "image";
+            stackDisplay.put("Name",
+                    NbtString.of(String.format("{\"text\":\"Poster for '%s'\",\"italic\":false}", fileName)));
+            stackDisplay.put("Lore", Image2Map.getLore(context.getCountX(), context.getCountY()));
+
+            output.accept(stack);
+        }
+        if (rendered.isAnimated())
+            addAnimation(source, mapIds, rendered);
+        source.sendFeedback(new LiteralText("Done!"), false);
+        return true;
+    }
+
+    /**
+     * Starts playing the frames of a job on its maps, or tells the player why
+     * it can't.
+     */
+    static void addAnimation(ServerCommandSource source, int[] mapIds, RenderedMaps rendered) {
+        AnimationState animations = AnimationState.get(source.getWorld());
+        if (!animations.add(new MapAnimation(mapIds, rendered.frameDelays(), rendered.frameFile())))
+            source.sendFeedback(new LiteralText(String.format("The maps only show the first frame, animations "
+                    + "already use %d of %d MB. Remove some with /image2map animations remove <map id>",
+                    animations.getTotalSize() / (1024 * 1024), AnimationState.getMaxTotalSize() / (1024 * 1024))),
+                    false);
+    }
+}
@@ -0,0 +1,97 @@
+package space.essem.image2map;
+
+import jdk.jfr.Event;
+import net.minecraft.server.MinecraftServer;
+import space.essem.image2map.stats.JfrEvents;
+import space.essem.image2map.stats.PipelineStats;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs the parts of map creation that touch the world (allocating map ids,
+ * filling map states and handing out items) on the server thread, spread over
+ * as many ticks as needed to stay within the configured time budget.
+ */
+public class MapCommitQueue {
+    private static final Queue<Entry> TASKS = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Work that is done in small steps on the server thread.
+     */
+    public interface Task {
+        /**
+         * Does the next unit of work.
+         *
+         * @return true once the task has nothing left to do
+         */
+        boolean step();
+
+        /**
+         * Called when {@link #step()} throws, the task is dropped after. By
+         * default the exception is only logged.
+         */
+        default void fail(Throwable e) {
+            Image2Map.LOGGER.error("Failed to finish image map", e);
+        }
+    }
+
+    private record Entry(Task task, PipelineStats.Timer timer) {
+    }
+
+    /**
+     * Queues a task, can be called from any thread.
+     */
+    public static void submit(Task task) {
+        TASKS.add(new Entry(task, PipelineStats.start(PipelineStats.Stage.DELIVER)));
+    }
+
+    public static int size() {
+        return TASKS.size();
+    }
+
+    static void tick(MinecraftServer server) {
+        if (TASKS.isEmpty())
+            return;
+        Event event = JfrEvents.beginCommitTick();
+        int steps = 0;
+        long deadline = System.nanoTime() + Image2Map.CONFIG.commitBudgetMs * 1_000_000L;
+        // always make some progress, even with a budget of zero
+        do {
+            Entry entry = TASKS.peek();
+            if (entry == null)
+                break;
+            steps++;
+            if (step(entry))
+                TASKS.remove();
+        } while (System.nanoTime() < deadline);
+        JfrEvents.endCommitTick(event, steps, TASKS.size());
+    }
+
+    /**
+     * Finishes every queued task, ignoring the time budget.
+     */
+    static void flush(MinecraftServer server) {
+        Entry entry;
+        while ((entry = TASKS.peek()) != null) {
+            if (step(entry))
+                TASKS.remove();
+        }
+    }
+
+    private static boolean step(Entry entry) {
+        try {
+            if (!entry.task().step())
+                return false;
+            entry.timer().stop();
+        } catch (Exception e) {
+            try {
+                entry.task().fail(e);
+            } catch (Exception other) {
+                other.addSuppressed(e);
+                Image2Map.LOGGER.error("Failed to finish image map", other);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,14 @@
+package space.essem.image2map;
+
+/**
+ * A reason a map couldn't be created that should be shown to the player as is.
+ */
+public class MapCreationException extends RuntimeException {
+    public MapCreationException(String message) {
+        super(message);
+    }
+
+    public MapCreationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -4,9 +4,21 @@ import com.mojang.brigadier.arguments.BoolArgumentType;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.context.ParsedCommandNode;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.tree.LiteralCommandNode;
 import net.minecraft.server.command.ServerCommandSource;
 import org.jetbrains.annotations.NotNull;
+import space.essem.image2map.renderer.ColorMetric;
+import space.essem.image2map.renderer.Ditherer;
+import space.essem.image2map.renderer.Ditherers;
+import space.essem.image2map.renderer.MapPalette;
+import space.essem.image2map.renderer.MapRenderer;
+import space.essem.image2map.renderer.RenderMonitor;
+import space.essem.image2map.renderer.RenderWorkers;
+import space.essem.image2map.renderer.ResampleFilter;
+
+import java.util.concurrent.Executor;
 
 class MapGenerationContext {
     public ServerCommandSource getSource() {
@@ -19,7 +31,9 @@ class MapGenerationContext {
     }
 
     ServerCommandSource source;
-    private Image2Map.DitherMode dither = Image2Map.DitherMode.NONE;
+    private Ditherer dither = Ditherers.NONE;
+    private ColorMetric metric;
+    private ResampleFilter filter;
     private Image2Map.ScaleMode scaleMode = Image2Map.ScaleMode.STRETCH;
     private String path;
 
@@ -30,6 +44,10 @@ class MapGenerationContext {
     private boolean makePoster = true;
     private int countX = 1;
     private int countY = 1;
+    private boolean seamless = Image2Map.CONFIG.seamlessDithering;
+    private Executor executor;
+    private int parallelism;
+    private RenderMonitor monitor = RenderMonitor.NONE;
 
     public static MapGenerationContext getBasicInfo(CommandContext<ServerCommandSource> context)
             throws CommandSyntaxException {
@@ -41,7 +59,22 @@ class MapGenerationContext {
         MapGenerationContext ctx = new MapGenerationContext(StringArgumentType.getString(context, "path"))
                 .source(context.getSource());
         return basic ? ctx
-                : ctx.dither(Image2Map.DitherMode.fromString(StringArgumentType.getString(context, "dither")));
+                : ctx.dither(Image2Map.getDitherer(StringArgumentType.getString(context, "dither")))
+                        .metric(getMetric(context));
+    }
+
+    /**
+     * Finds the color metric literal given before the path, if there is one.
+     */
+    private static ColorMetric getMetric(CommandContext<ServerCommandSource> context) {
+        for (ParsedCommandNode<ServerCommandSource> node : context.getNodes()) {
+            if (node.getNode() instanceof LiteralCommandNode) {
+                ColorMetric metric = ColorMetric.byName(node.getNode().getName());
+                if (metric != null)
+                    return metric;
+            }
+        }
+        return null;
     }
 
     public MapGenerationContext getSize(CommandContext<ServerCommandSource> context) {
@@ -62,15 +95,41 @@ class MapGenerationContext {
         return this;
     }
 
-    public Image2Map.DitherMode getDither() {
+    public Ditherer getDither() {
         return dither;
     }
 
-    public MapGenerationContext dither(Image2Map.DitherMode dither) {
+    public MapGenerationContext dither(Ditherer dither) {
         this.dither = dither;
         return this;
     }
 
+    public ColorMetric getMetric() {
+        return metric != null ? metric : MapRenderer.getDefaultMetric();
+    }
+
+    public MapGenerationContext metric(ColorMetric metric) {
+        this.metric = metric;
+        return this;
+    }
+
+    /**
+     * Gets the palette for this job's metric. Building a palette can take a
+     * while, so this should only be called off the server thread.
+     */
+    public MapPalette getPalette() {
+        return MapRenderer.getPalette(getMetric());
+    }
+
+    public ResampleFilter getFilter() {
+        return filter != null ? filter : ImageUtils.getDefaultFilter();
+    }
+
+    public MapGenerationContext filter(ResampleFilter filter) {
+        this.filter = filter;
+        return this;
+    }
+
     public String getPath() {
         return path;
     }
@@ -102,6 +161,42 @@ class MapGenerationContext {
         this.path = path;
     }
 
+    public boolean isSeamless() {
+        return seamless;
+    }
+
+    public MapGenerationContext seamless(boolean seamless) {
+        this.seamless = seamless;
+        return this;
+    }
+
+    public Executor getExecutor() {
+        return executor != null ? executor : RenderWorkers.getExecutor();
+    }
+
+    public MapGenerationContext executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism > 0 ? parallelism : RenderWorkers.getDefaultParallelism();
+    }
+
+    public MapGenerationContext parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public RenderMonitor getMonitor() {
+        return monitor;
+    }
+
+    public MapGenerationContext monitor(RenderMonitor monitor) {
+        this.monitor = monitor;
+        return this;
+    }
+
     public Image2Map.ScaleMode getScaleMode() {
         return scaleMode;
     }
@@ -0,0 +1,139 @@
+package space.essem.image2map;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.item.FilledMapItem;
+import net.minecraft.item.map.MapState;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.world.PersistentState;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Remembers which map id holds which colors, so an image (or a tile of one)
+ * that was already turned into a map reuses that map instead of writing a new
+ * map file. Stored with the overworld, next to the map files themselves.
+ * <p>
+ * It also remembers which maps this mod created, and which of those were
+ * handed out more than once and so may be shown by several images.
+ */
+public class MapIndexState extends PersistentState {
+    private static final String ID = "image2map_index";
+
+    private final Long2IntMap maps = new Long2IntOpenHashMap();
+    private final IntSet created = new IntOpenHashSet();
+    private final IntSet shared = new IntOpenHashSet();
+
+    public static MapIndexState get(ServerWorld world) {
+        return world.getServer().getOverworld().getPersistentStateManager()
+                .getOrCreate(MapIndexState::fromNbt, MapIndexState::new, ID);
+    }
+
+    private static MapIndexState fromNbt(NbtCompound nbt) {
+        MapIndexState state = new MapIndexState();
+        long[] hashes = nbt.getLongArray("Hashes");
+        int[] ids = nbt.getIntArray("Ids");
+        for (int i = 0; i < Math.min(hashes.length, ids.length); i++) {
+            state.maps.put(hashes[i], ids[i]);
+        }
+        if (nbt.contains("Created", 11)) {
+            for (int id : nbt.getIntArray("Created"))
+                state.created.add(id);
+            for (int id : nbt.getIntArray("Shared"))
+                state.shared.add(id);
+        } else {
+            // saved before maps were tracked, so any indexed map could have been reused
+            state.created.addAll(state.maps.values());
+            state.shared.addAll(state.maps.values());
+        }
+        return state;
+    }
+
+    @Override
+    public NbtCompound writeNbt(NbtCompound nbt) {
+        long[] hashes = new long[maps.size()];
+        int[] ids = new int[maps.size()];
+        int i = 0;
+        for (Long2IntMap.Entry entry : maps.long2IntEntrySet()) {
+            hashes[i] = entry.getLongKey();
+            ids[i] = entry.getIntValue();
+            i++;
+        }
+        nbt.putLongArray("Hashes", hashes);
+        nbt.putIntArray("Ids", ids);
+        nbt.putIntArray("Created", created.toIntArray());
+        nbt.putIntArray("Shared", shared.toIntArray());
+        return nbt;
+    }
+
+    /**
+     * Finds a locked map that already holds exactly these colors.
+     *
+     * @return the map id, or null if there is none
+     */
+    @Nullable
+    public Integer find(ServerWorld world, byte[] colors) {
+        long hash = hash(colors);
+        if (!maps.containsKey(hash))
+            return null;
+        int id = maps.get(hash);
+        MapState state = world.getServer().getOverworld().getMapState(FilledMapItem.getMapName(id));
+        // the map could have been deleted or replaced, or the hash could collide
+        if (state == null || !state.locked || !Arrays.equals(state.colors, colors)) {
+            maps.remove(hash);
+            this.markDirty();
+            return null;
+        }
+        if (shared.add(id))
+            this.markDirty();
+        return id;
+    }
+
+    public void put(byte[] colors, int id) {
+        maps.put(hash(colors), id);
+        this.markDirty();
+    }
+
+    public void remove(byte[] colors, int id) {
+        if (maps.remove(hash(colors), id))
+            this.markDirty();
+    }
+
+    /**
+     * Records that this mod created a map.
+     */
+    public void markCreated(int id) {
+        if (created.add(id))
+            this.markDirty();
+    }
+
+    /**
+     * @return whether this mod created the map
+     */
+    public boolean isCreated(int id) {
+        return created.contains(id);
+    }
+
+    /**
+     * @return whether the map was handed out more than once, so changing it
+     *         could change other images too
+     */
+    public boolean isShared(int id) {
+        return shared.contains(id);
+    }
+
+    public static long hash(byte[] colors) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(colors)).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
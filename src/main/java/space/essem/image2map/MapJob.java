@@ -0,0 +1,278 @@
+package space.essem.image2map;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.LiteralText;
+import org.jetbrains.annotations.Nullable;
+import space.essem.image2map.renderer.RenderMonitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * One image being turned into maps for a player, from the moment the command
+ * is run until the maps are handed out. Jobs are scheduled by {@link JobQueue}.
+ */
+class MapJob implements RenderMonitor {
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+
+    private final int id = NEXT_ID.getAndIncrement();
+    private final MapGenerationContext context;
+    @Nullable
+    private final Function<RenderedMaps, MapCommitQueue.Task> commit;
+    @Nullable
+    private final UUID owner;
+    private final String ownerName;
+    private final boolean priority;
+    private final long created = System.currentTimeMillis();
+    private final AtomicInteger tilesRendered = new AtomicInteger();
+    private volatile int tiles;
+    private volatile int mapsDelivered;
+    private volatile Status status = Status.QUEUED;
+    private volatile boolean cancelled;
+    private final List<Thread> blockedThreads = new ArrayList<>();
+    private int reportedProgress;
+
+    enum Status {
+        QUEUED, FETCHING, RENDERING, DELIVERING, DONE, FAILED, CANCELLED;
+
+        String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * @param commit makes the task that turns the rendered colors into maps,
+     *               or null if the job hands out its maps itself
+     */
+    MapJob(MapGenerationContext context, @Nullable Function<RenderedMaps, MapCommitQueue.Task> commit) {
+        ServerCommandSource source = context.getSource();
+        Entity entity = source.getEntity();
+        this.context = context.monitor(this);
+        this.commit = commit;
+        this.owner = entity != null ? entity.getUuid() : null;
+        this.ownerName = source.getName();
+        this.priority = source.hasPermissionLevel(Image2Map.CONFIG.priorityPermLevel);
+        this.tiles = context.getCountX() * context.getCountY();
+    }
+
+    /**
+     * Loads and renders the image, called by {@link JobQueue} once the job
+     * gets a slot.
+     *
+     * @return completes once the job no longer needs its slot
+     */
+    CompletableFuture<Void> start() {
+        return Image2Map.startJob(this);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    MapGenerationContext getContext() {
+        return context;
+    }
+
+    @Nullable
+    UUID getOwner() {
+        return owner;
+    }
+
+    String getOwnerName() {
+        return ownerName;
+    }
+
+    /**
+     * @return whether the job goes ahead of everyone else's and skips the
+     *         per-player limits
+     */
+    boolean isPriority() {
+        return priority;
+    }
+
+    long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return the number of pixels the job renders, counted against its
+     *         owner's quota
+     */
+    long getPixels() {
+        return getPixels(context);
+    }
+
+    static long getPixels(MapGenerationContext context) {
+        long maps = (long) context.getCountX() * context.getCountY();
+        if (context.shouldMakePoster() && maps > 1)
+            maps++;
+        return maps * 128 * 128;
+    }
+
+    Status getStatus() {
+        return status;
+    }
+
+    void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /**
+     * @return whether the job holds one of the queue's slots
+     */
+    boolean isRunning() {
+        return status == Status.FETCHING || status == Status.RENDERING;
+    }
+
+    boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    int getTilesRendered() {
+        return tilesRendered.get();
+    }
+
+    int getTiles() {
+        return tiles;
+    }
+
+    int getMapsDelivered() {
+        return mapsDelivered;
+    }
+
+    int getMaps() {
+        return context.getCountX() * context.getCountY();
+    }
+
+    @Override
+    public void setTiles(int tiles) {
+        this.tiles = tiles;
+    }
+
+    @Override
+    public void tilesDone(int count) {
+        tilesRendered.addAndGet(count);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops the job as soon as its workers notice, interrupting a download
+     * that is in progress or waiting for memory.
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        for (Thread thread : blockedThreads)
+            thread.interrupt();
+        MemoryGovernor.dropCancelled();
+    }
+
+    /**
+     * Runs blocking work that {@link #cancel()} can interrupt.
+     */
+    <T> T runInterruptibly(Supplier<T> task) {
+        synchronized (this) {
+            checkCancelled();
+            blockedThreads.add(Thread.currentThread());
+        }
+        try {
+            return task.get();
+        } finally {
+            synchronized (this) {
+                blockedThreads.remove(Thread.currentThread());
+                // don't leave a late interrupt behind for the next task on this thread
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * Queues the rendered colors to be turned into maps on the server thread.
+     */
+    void deliver(RenderedMaps rendered) {
+        checkCancelled();
+        if (commit == null)
+            throw new IllegalStateException("Job #" + id + " hands out its own maps");
+        MapCommitQueue.Task task = commit.apply(rendered);
+        status = Status.DELIVERING;
+        submitTask(() -> {
+            boolean done = task.step();
+            if (done)
+                JobQueue.finish(this, Status.DONE);
+            else if (mapsDelivered < getMaps())
+                mapsDelivered++;
+            return done;
+        });
+    }
+
+    /**
+     * Queues work of this job on the server thread. If it throws, the job
+     * fails and the player is told why, see {@link #fail}.
+     */
+    void submitTask(MapCommitQueue.Task task) {
+        MapCommitQueue.submit(new MapCommitQueue.Task() {
+            @Override
+            public boolean step() {
+                return task.step();
+            }
+
+            @Override
+            public void fail(Throwable e) {
+                MapJob.this.fail(e);
+            }
+        });
+    }
+
+    /**
+     * Ends the job after its work on the server thread threw, so it doesn't
+     * keep its place in the queue, and tells the player why.
+     */
+    void fail(Throwable e) {
+        JobQueue.finish(this, Status.FAILED);
+        context.getSource().sendFeedback(new LiteralText(Image2Map.getFailureMessage(e)), false);
+    }
+
+    /**
+     * @return whether any tiles were rendered or maps delivered since the last
+     *         call, only called on the server thread
+     */
+    boolean takeProgress() {
+        int progress = tilesRendered.get() + mapsDelivered;
+        if (progress == reportedProgress)
+            return false;
+        reportedProgress = progress;
+        return true;
+    }
+
+    /**
+     * @return what the job is doing, with how far along it is
+     */
+    String getProgressText() {
+        if (cancelled && !isFinished())
+            return "cancelling";
+        return switch (status) {
+            case RENDERING -> String.format("rendering %d/%d tiles", tilesRendered.get(), tiles);
+            case DELIVERING -> String.format("delivering %d/%d maps", mapsDelivered, getMaps());
+            default -> status.getName();
+        };
+    }
+
+    /**
+     * @return a line describing the job and how far along it is
+     */
+    String describe() {
+        String name = ImageUtils.getImageName(context.getPath());
+        return String.format("#%d %s%s - %s, %dx%d %s", id, getProgressText(), priority ? " (priority)" : "",
+                ownerName, context.getCountX(), context.getCountY(), name != null ? name : context.getPath());
+    }
+}
@@ -0,0 +1,253 @@
+package space.essem.image2map;
+
+import net.minecraft.entity.decoration.ItemFrameEntity;
+import net.minecraft.item.FilledMapItem;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.item.map.MapState;
+import net.minecraft.network.Packet;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.Hand;
+import net.minecraft.util.math.Direction;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.registry.RegistryKey;
+import net.minecraft.world.World;
+import space.essem.image2map.animation.MapAnimation;
+import space.essem.image2map.mixin.MapStateAccessor;
+import space.essem.image2map.mixin.PlayerUpdateTrackerAccessor;
+import space.essem.image2map.stats.PipelineStats;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+
+/**
+ * Spreads out the first full sync of locked maps to each player. Walking up
+ * to a big map wall would otherwise send every map of it in the same tick, so
+ * instead each player gets a few maps per tick within a byte budget, the maps
+ * they hold and the frames in front of them first, then the nearest ones.
+ * Once a player has a map, changes to its colors go out right away, even
+ * when they cover the whole map like the frames of an animation do.
+ * <p>
+ * Maps a player already received this session aren't sent again when the
+ * game starts tracking them from scratch, for example after a respawn, unless
+ * their colors changed since. The client forgets its maps when it changes
+ * dimension, so that starts over.
+ */
+public class MapSyncScheduler {
+    private static final int SEARCH_RADIUS = 64;
+    // about the cosine of half the default field of view
+    private static final double VIEW_COS = 0.5;
+    private static final Comparator<Candidate> CANDIDATE_ORDER = Comparator
+            .comparing((Candidate candidate) -> !candidate.visible()).thenComparingDouble(Candidate::distance);
+    private static final Map<UUID, PlayerSync> SYNCS = new HashMap<>();
+    private static final Map<MapState, Long> VERSIONS = new WeakHashMap<>();
+    /** The trackers that have sent their first packet, new ones start out dirty over the whole map. */
+    private static final Set<MapState.PlayerUpdateTracker> STARTED = Collections.newSetFromMap(new WeakHashMap<>());
+    private static long nextVersion;
+    private static boolean sending;
+
+    private static final class PlayerSync {
+        final Map<Integer, Long> received = new HashMap<>();
+        final Set<Integer> pending = new LinkedHashSet<>();
+        RegistryKey<World> dimension;
+        long credit;
+    }
+
+    private record Candidate(int id, boolean visible, double distance) {
+    }
+
+    /**
+     * Called before the game builds the sync packet of a locked map for a
+     * player.
+     *
+     * @return false to send nothing now, the map is then sent by {@link #tick}
+     */
+    public static boolean allowSync(MapState state, int id, ServerPlayerEntity player) {
+        if (sending || Image2Map.CONFIG.mapSyncBytesPerTick <= 0)
+            return true;
+        MapState.PlayerUpdateTracker tracker = ((MapStateAccessor) state).getUpdateTrackersByPlayer().get(player);
+        if (tracker == null || !((PlayerUpdateTrackerAccessor) tracker).isDirty())
+            return true;
+
+        PlayerSync sync = getSync(player);
+        long version = getVersion(state);
+        if (!isFirstSync(tracker, id, sync)) {
+            // updates keep a client that has the map up to date
+            sync.received.computeIfPresent(id, (key, received) -> version);
+            STARTED.add(tracker);
+            return true;
+        }
+        Long received = sync.received.get(id);
+        if (received != null && received == version) {
+            // the client still has these colors, only the icons go out
+            ((PlayerUpdateTrackerAccessor) tracker).setDirty(false);
+            STARTED.add(tracker);
+            PipelineStats.increment(PipelineStats.Counter.MAP_SYNCS_SKIPPED);
+            return true;
+        }
+        sync.pending.add(id);
+        return false;
+    }
+
+    /**
+     * Called whenever the colors of a locked map change.
+     */
+    public static void changed(MapState state) {
+        VERSIONS.put(state, ++nextVersion);
+    }
+
+    public static void remove(ServerPlayerEntity player) {
+        SYNCS.remove(player.getUuid());
+    }
+
+    /**
+     * @return the number of maps waiting to be sent across all players
+     */
+    public static int getPending() {
+        int pending = 0;
+        for (PlayerSync sync : SYNCS.values())
+            pending += sync.pending.size();
+        return pending;
+    }
+
+    /**
+     * Sends each player as many of their waiting maps as their budget allows.
+     */
+    public static void tick(MinecraftServer server) {
+        long budget = Image2Map.CONFIG.mapSyncBytesPerTick;
+        Iterator<Map.Entry<UUID, PlayerSync>> syncs = SYNCS.entrySet().iterator();
+        while (syncs.hasNext()) {
+            Map.Entry<UUID, PlayerSync> entry = syncs.next();
+            ServerPlayerEntity player = server.getPlayerManager().getPlayer(entry.getKey());
+            if (player == null) {
+                syncs.remove();
+                continue;
+            }
+            PlayerSync sync = entry.getValue();
+            checkDimension(sync, player);
+            if (sync.pending.isEmpty())
+                continue;
+            // maps left over from before the limit was turned off go out at once
+            boolean limited = budget > 0;
+            if (limited) {
+                // unused budget carries over only as far as one map, so the sends stay spread out
+                sync.credit = Math.min(sync.credit + budget, Math.max(budget, MapAnimation.MAP_SIZE));
+                if (sync.credit < MapAnimation.MAP_SIZE)
+                    continue;
+            }
+
+            for (int id : prioritize(player, sync.pending)) {
+                if (limited && sync.credit < MapAnimation.MAP_SIZE)
+                    break;
+                sync.pending.remove(id);
+                MapState state = player.getServerWorld().getMapState(FilledMapItem.getMapName(id));
+                if (state == null)
+                    continue;
+                MapState.PlayerUpdateTracker tracker = ((MapStateAccessor) state).getUpdateTrackersByPlayer()
+                        .get(player);
+                // the player stopped tracking it, or the colors already went out
+                if (tracker == null || !isFirstSync(tracker, id, sync))
+                    continue;
+
+                Packet<?> packet;
+                sending = true;
+                try {
+                    packet = state.getPlayerMarkerPacket(id, player);
+                } finally {
+                    sending = false;
+                }
+                if (packet == null)
+                    continue;
+                player.networkHandler.sendPacket(packet);
+                sync.received.put(id, getVersion(state));
+                STARTED.add(tracker);
+                sync.credit -= MapAnimation.MAP_SIZE;
+                PipelineStats.increment(PipelineStats.Counter.MAP_SYNCS_SENT);
+            }
+        }
+    }
+
+    /**
+     * Orders waiting maps by how soon the player will notice them: maps in
+     * hand, then maps in frames facing the player within their view, then
+     * other framed maps, each nearest first. Maps that aren't found in a frame
+     * nearby go last, in the order they were asked for.
+     */
+    private static Set<Integer> prioritize(ServerPlayerEntity player, Set<Integer> pending) {
+        Set<Integer> order = new LinkedHashSet<>();
+        for (Hand hand : Hand.values()) {
+            ItemStack stack = player.getStackInHand(hand);
+            Integer id = stack.isOf(Items.FILLED_MAP) ? FilledMapItem.getMapId(stack) : null;
+            if (id != null && pending.contains(id))
+                order.add(id);
+        }
+        if (order.size() == pending.size())
+            return order;
+
+        Vec3d eye = player.getCameraPosVec(1.0F);
+        Vec3d look = player.getRotationVec(1.0F);
+        Map<Integer, Candidate> framed = new HashMap<>();
+        List<ItemFrameEntity> frames = player.getServerWorld().getEntitiesByClass(ItemFrameEntity.class,
+                player.getBoundingBox().expand(SEARCH_RADIUS),
+                frame -> frame.getHeldItemStack().isOf(Items.FILLED_MAP));
+        for (ItemFrameEntity frame : frames) {
+            Integer id = FilledMapItem.getMapId(frame.getHeldItemStack());
+            if (id == null || !pending.contains(id) || order.contains(id))
+                continue;
+            Vec3d toFrame = frame.getPos().subtract(eye);
+            double distance = toFrame.lengthSquared();
+            Direction facing = frame.getHorizontalFacing();
+            boolean facesPlayer = facing.getOffsetX() * toFrame.x + facing.getOffsetY() * toFrame.y
+                    + facing.getOffsetZ() * toFrame.z < 0;
+            boolean visible = facesPlayer && look.dotProduct(toFrame) > Math.sqrt(distance) * VIEW_COS;
+            Candidate candidate = new Candidate(id, visible, distance);
+            framed.merge(id, candidate, (a, b) -> CANDIDATE_ORDER.compare(a, b) <= 0 ? a : b);
+        }
+        framed.values().stream().sorted(CANDIDATE_ORDER).forEach(candidate -> order.add(candidate.id()));
+        order.addAll(pending);
+        return order;
+    }
+
+    private static PlayerSync getSync(ServerPlayerEntity player) {
+        PlayerSync sync = SYNCS.computeIfAbsent(player.getUuid(), uuid -> new PlayerSync());
+        checkDimension(sync, player);
+        return sync;
+    }
+
+    private static void checkDimension(PlayerSync sync, ServerPlayerEntity player) {
+        RegistryKey<World> dimension = player.getServerWorld().getRegistryKey();
+        if (dimension != sync.dimension) {
+            sync.received.clear();
+            sync.dimension = dimension;
+        }
+    }
+
+    /**
+     * @return a number that changes whenever the map's colors do, and differs
+     *         between map states
+     */
+    private static long getVersion(MapState state) {
+        return VERSIONS.computeIfAbsent(state, key -> ++nextVersion);
+    }
+
+    /**
+     * @return whether the tracker is about to send the whole map to a client
+     *         that doesn't have it yet: the game only just started tracking the
+     *         map for the player, or the player never got it this session
+     */
+    private static boolean isFirstSync(MapState.PlayerUpdateTracker tracker, int id, PlayerSync sync) {
+        PlayerUpdateTrackerAccessor accessor = (PlayerUpdateTrackerAccessor) tracker;
+        boolean fullMap = accessor.isDirty() && accessor.getStartX() == 0 && accessor.getStartZ() == 0
+                && accessor.getEndX() == 127 && accessor.getEndZ() == 127;
+        return fullMap && (!STARTED.contains(tracker) || !sync.received.containsKey(id));
+    }
+}
@@ -0,0 +1,135 @@
+package space.essem.image2map;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import net.minecraft.item.FilledMapItem;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.map.MapState;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.LiteralText;
+import org.jetbrains.annotations.Nullable;
+import space.essem.image2map.animation.AnimationState;
+import space.essem.image2map.mixin.MapStateAccessor;
+import space.essem.image2map.renderer.MapRenderer;
+import space.essem.image2map.stats.PipelineStats;
+
+import java.util.Arrays;
+
+/**
+ * Writes newly rendered colors into maps that already exist, one map per step.
+ * Only the part of each map that changed is marked dirty, so viewers receive
+ * a partial update instead of the whole map.
+ * <p>
+ * A map that other images may show too, because it was reused for identical
+ * colors, is left alone and a new map takes its place in the poster's
+ * manifest and the held item instead.
+ */
+class MapUpdateCommit implements MapCommitQueue.Task {
+    private final MapGenerationContext context;
+    private final RenderedMaps rendered;
+    private final int[] mapIds;
+    private final int[] newIds;
+    @Nullable
+    private final Integer posterId;
+    @Nullable
+    private final ItemStack item;
+    private final IntSet seen = new IntOpenHashSet();
+    private int next = 0;
+    private int changed = 0;
+    private int copied = 0;
+    private int kept = 0;
+
+    /**
+     * @param mapIds   the map to update with each tile, indexed by {@code y * countX + x}
+     * @param posterId the map of the poster item to update, or null if there is none
+     * @param item     the map or poster item being updated, pointed at any maps
+     *                 that replace shared ones, or null if there is none
+     */
+    MapUpdateCommit(MapGenerationContext context, RenderedMaps rendered, int[] mapIds, @Nullable Integer posterId,
+            @Nullable ItemStack item) {
+        this.context = context;
+        this.rendered = rendered;
+        this.mapIds = mapIds;
+        this.newIds = mapIds.clone();
+        this.posterId = posterId;
+        this.item = item;
+    }
+
+    @Override
+    public boolean step() {
+        ServerCommandSource source = context.getSource();
+        ServerWorld world = source.getWorld();
+        if (next == 0)
+            AnimationState.get(world).removeAll(mapIds);
+
+        if (next < mapIds.length) {
+            newIds[next] = update(world, mapIds[next], rendered.tiles()[next], rendered.isAnimated());
+            next++;
+            return false;
+        }
+
+        boolean replaced = !Arrays.equals(newIds, mapIds);
+        if (posterId != null && rendered.posterColors() != null) {
+            int newPosterId = update(world, posterId, rendered.posterColors(), false);
+            if (item != null && newPosterId != posterId)
+                item.getOrCreateTag().putInt("map", newPosterId);
+        }
+        if (item != null && replaced) {
+            if (posterId != null) {
+                new PosterManifest(context.getCountX(), context.getCountY(), newIds).replace(world,
+                        item.getOrCreateTag());
+            } else {
+                item.getOrCreateTag().putInt("map", newIds[0]);
+            }
+        }
+        if (rendered.isAnimated())
+            MapCommit.addAnimation(source, newIds, rendered);
+        source.sendFeedback(new LiteralText(String.format("Updated %d of %d maps!", changed, mapIds.length)), false);
+        if (copied > 0) {
+            source.sendFeedback(new LiteralText(String.format("%d maps were also used by other images, so new maps "
+                    + "took their place. Maps already in item frames need to be placed again", copied)), false);
+        }
+        if (kept > 0) {
+            source.sendFeedback(new LiteralText(String.format("%d maps were left alone because other images use them "
+                    + "too, hold them and use /mapupdate held to give them maps of their own", kept)), false);
+        }
+        return true;
+    }
+
+    /**
+     * @return the map that now holds the colors
+     */
+    private int update(ServerWorld world, int id, byte[] colors, boolean animated) {
+        MapState state = world.getMapState(FilledMapItem.getMapName(id));
+        if (state == null)
+            return id;
+        MapIndexState index = MapIndexState.get(world);
+        // a map showing up twice in one poster is shared between its tiles
+        if (index.isShared(id) || !seen.add(id)) {
+            // without an item to point at a new map, there's nothing it could replace, this happens when
+            // the map was given by id and got shared while the image was rendered
+            if (item == null) {
+                kept++;
+                return id;
+            }
+            copied++;
+            changed++;
+            ItemStack stack = MapRenderer.createMap(world, context.getSource().getPosition().x,
+                    context.getSource().getPosition().z, colors, !animated);
+            return FilledMapItem.getMapId(stack);
+        }
+
+        PipelineStats.Timer timer = PipelineStats.start(PipelineStats.Stage.ALLOCATE);
+        index.remove(state.colors, id);
+        ((MapStateAccessor) state).setLocked(true);
+        if (MapRenderer.updateColors(state, colors, 0) > 0) {
+            changed++;
+            PipelineStats.increment(PipelineStats.Counter.MAPS_UPDATED);
+        }
+        if (!animated && Image2Map.CONFIG.reuseMaps)
+            index.put(colors, id);
+        timer.stop(colors.length);
+        return id;
+    }
+}
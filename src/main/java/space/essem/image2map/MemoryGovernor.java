@@ -0,0 +1,135 @@
+package space.essem.image2map;
+
+import space.essem.image2map.animation.MapAnimation;
+import space.essem.image2map.renderer.RenderMonitor;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps the memory that renders need below a budget. Each render says how
+ * much it will need at most before it starts; renders that don't fit wait
+ * until others are done, in the order they asked, and renders that could
+ * never fit are turned down.
+ */
+class MemoryGovernor {
+    private static final Queue<Request> WAITING = new ArrayDeque<>();
+    private static long inUse;
+
+    private record Request(long bytes, RenderMonitor monitor, CompletableFuture<Permit> permit) {
+    }
+
+    /**
+     * Memory handed out to a render, given back with {@link #release()}.
+     */
+    static final class Permit {
+        private final long bytes;
+        private boolean released;
+
+        private Permit(long bytes) {
+            this.bytes = bytes;
+        }
+
+        void release() {
+            synchronized (MemoryGovernor.class) {
+                if (released)
+                    return;
+                released = true;
+                inUse -= bytes;
+                admitWaiting();
+            }
+        }
+    }
+
+    /**
+     * @return the budget in bytes
+     */
+    static long getBudget() {
+        if (Image2Map.CONFIG.renderMemoryMb > 0)
+            return Image2Map.CONFIG.renderMemoryMb * 1024L * 1024L;
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    static synchronized long getInUse() {
+        return inUse;
+    }
+
+    static synchronized int getWaiting() {
+        return WAITING.size();
+    }
+
+    /**
+     * Asks for memory for a render. A render that is cancelled while it waits
+     * fails with a {@link CancellationException}, see {@link #dropCancelled()}.
+     *
+     * @return completes once the memory is free
+     * @throws MapCreationException if the render needs more than the whole budget
+     */
+    static synchronized CompletableFuture<Permit> acquire(long bytes, RenderMonitor monitor) {
+        long budget = getBudget();
+        if (bytes > budget)
+            throw new MapCreationException(String.format(
+                    "That image needs about %d MB to render, the limit is %d MB. Try fewer maps or a smaller image.",
+                    toMb(bytes), toMb(budget)));
+        Request request = new Request(bytes, monitor, new CompletableFuture<>());
+        WAITING.add(request);
+        admitWaiting();
+        return request.permit();
+    }
+
+    /**
+     * Stops waiting for memory for renders that were cancelled.
+     */
+    static synchronized void dropCancelled() {
+        admitWaiting();
+    }
+
+    /**
+     * Starts waiting renders that fit, strictly in order so big renders don't
+     * wait forever behind small ones.
+     */
+    private static void admitWaiting() {
+        Iterator<Request> requests = WAITING.iterator();
+        while (requests.hasNext()) {
+            Request request = requests.next();
+            if (request.monitor().isCancelled()) {
+                requests.remove();
+                request.permit().completeExceptionally(new CancellationException());
+                continue;
+            }
+            if (inUse + request.bytes() > getBudget())
+                return;
+            requests.remove();
+            inUse += request.bytes();
+            request.permit().complete(new Permit(request.bytes()));
+        }
+    }
+
+    /**
+     * Estimates the most memory rendering an image will take at once: the
+     * decoded source, a copy of its pixels, a 128 row strip per worker and the
+     * map colors, or for an animation one scaled frame and the colors of the
+     * first frame, since the others are written to disk as they are rendered.
+     */
+    static long estimate(MapGenerationContext context, ImageUtils.ImageInfo info) {
+        int maps = context.getCountX() * context.getCountY();
+        long posterWidth = context.getCountX() * 128L;
+        long posterHeight = context.getCountY() * 128L;
+        long colors = (maps + 1) * 128L * 128L;
+        if (info.frames() > 1) {
+            long frame = (long) info.width() * info.height() * 4;
+            return frame * 2 + posterWidth * posterHeight * 4 + colors * 2 + (long) maps * MapAnimation.MAP_SIZE;
+        }
+        // the decoder skips what it doesn't need, keeping about twice the poster's resolution
+        long decoded = Math.min((long) info.width() * info.height(), posterWidth * posterHeight * 4);
+        long strips = (long) Math.min(context.getParallelism(), context.getCountY()) * posterWidth * 128 * 5;
+        return decoded * 8 + strips + colors;
+    }
+
+    private static long toMb(long bytes) {
+        return (bytes + 1024 * 1024 - 1) / (1024 * 1024);
+    }
+}
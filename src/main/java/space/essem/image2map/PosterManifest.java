@@ -0,0 +1,86 @@
+package space.essem.image2map;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.server.world.ServerWorld;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The maps that make up a poster. Poster items only carry the id of their
+ * manifest, which is kept in {@link PosterState}.
+ *
+ * @param mapIds the map of each tile, indexed by {@code y * width + x} starting
+ *               from the top left
+ */
+public record PosterManifest(int width, int height, int[] mapIds) {
+    /** Holds the id of a poster item's manifest. */
+    public static final String TAG = "i2mPoster";
+    /** The rows of map ids that posters used to carry themselves. */
+    private static final String LEGACY_TAG = "i2mStoredMaps";
+
+    public int getMapId(int x, int y) {
+        return mapIds[y * width + x];
+    }
+
+    /**
+     * @return whether an item with this tag is a poster, which doesn't mean
+     *         its manifest can be read
+     */
+    public static boolean isPoster(@Nullable NbtCompound tag) {
+        return tag != null && (tag.contains(TAG, 3) || tag.contains(LEGACY_TAG, 9));
+    }
+
+    /**
+     * Finds the manifest of a poster item, or reads the layout stored on the
+     * item by older versions.
+     *
+     * @return the manifest, or null if the item isn't a poster or its manifest
+     *         is missing or invalid
+     */
+    @Nullable
+    public static PosterManifest read(ServerWorld world, @Nullable NbtCompound tag) {
+        if (tag == null)
+            return null;
+        if (tag.contains(TAG, 3))
+            return PosterState.get(world).getManifest(tag.getInt(TAG));
+        if (!tag.contains(LEGACY_TAG, 9))
+            return null;
+
+        NbtList rows = tag.getList(LEGACY_TAG, 9);
+        int height = rows.size();
+        int width = height > 0 ? rows.getList(0).size() : 0;
+        if (width == 0)
+            return null;
+        int[] mapIds = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            NbtList row = rows.getList(y);
+            if (row.size() < width || row.getHeldType() != 3)
+                return null;
+            for (int x = 0; x < width; x++) {
+                mapIds[y * width + x] = row.getInt(x);
+            }
+        }
+        return new PosterManifest(width, height, mapIds);
+    }
+
+    /**
+     * Saves this manifest and points a poster item's tag at it.
+     */
+    public void write(ServerWorld world, NbtCompound tag) {
+        tag.putInt(TAG, PosterState.get(world).add(this));
+    }
+
+    /**
+     * Replaces the manifest a poster item's tag points at with this one, or
+     * saves it and points the tag at it if the item doesn't have one yet.
+     */
+    public void replace(ServerWorld world, NbtCompound tag) {
+        PosterState state = PosterState.get(world);
+        if (tag.contains(TAG, 3) && state.getManifest(tag.getInt(TAG)) != null) {
+            state.setManifest(tag.getInt(TAG), this);
+        } else {
+            tag.remove(LEGACY_TAG);
+            write(world, tag);
+        }
+    }
+}
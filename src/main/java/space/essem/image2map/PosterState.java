@@ -0,0 +1,82 @@
+package space.essem.image2map;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.world.PersistentState;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps the manifest of every poster, so the items don't have to carry (and
+ * sync to clients) a list of all their maps. Stored with the overworld, next
+ * to the map files themselves.
+ */
+public class PosterState extends PersistentState {
+    private static final String ID = "image2map_posters";
+
+    private final Int2ObjectMap<PosterManifest> manifests = new Int2ObjectOpenHashMap<>();
+    private int nextId = 1;
+
+    public static PosterState get(ServerWorld world) {
+        return world.getServer().getOverworld().getPersistentStateManager()
+                .getOrCreate(PosterState::fromNbt, PosterState::new, ID);
+    }
+
+    private static PosterState fromNbt(NbtCompound nbt) {
+        PosterState state = new PosterState();
+        NbtList list = nbt.getList("Posters", 10);
+        for (int i = 0; i < list.size(); i++) {
+            NbtCompound poster = list.getCompound(i);
+            int width = poster.getInt("Width");
+            int height = poster.getInt("Height");
+            int[] mapIds = poster.getIntArray("Maps");
+            if (width > 0 && mapIds.length == width * height)
+                state.manifests.put(poster.getInt("Id"), new PosterManifest(width, height, mapIds));
+        }
+        state.nextId = Math.max(1, nbt.getInt("NextId"));
+        return state;
+    }
+
+    @Override
+    public NbtCompound writeNbt(NbtCompound nbt) {
+        NbtList list = new NbtList();
+        for (Int2ObjectMap.Entry<PosterManifest> entry : manifests.int2ObjectEntrySet()) {
+            PosterManifest manifest = entry.getValue();
+            NbtCompound poster = new NbtCompound();
+            poster.putInt("Id", entry.getIntKey());
+            poster.putInt("Width", manifest.width());
+            poster.putInt("Height", manifest.height());
+            poster.putIntArray("Maps", manifest.mapIds());
+            list.add(poster);
+        }
+        nbt.put("Posters", list);
+        nbt.putInt("NextId", nextId);
+        return nbt;
+    }
+
+    /**
+     * @return the id the manifest is stored under
+     */
+    public int add(PosterManifest manifest) {
+        int id = nextId++;
+        manifests.put(id, manifest);
+        this.markDirty();
+        return id;
+    }
+
+    /**
+     * Replaces a manifest, so every poster item pointing at it shows the new
+     * maps.
+     */
+    public void setManifest(int id, PosterManifest manifest) {
+        manifests.put(id, manifest);
+        this.markDirty();
+    }
+
+    @Nullable
+    public PosterManifest getManifest(int id) {
+        return manifests.get(id);
+    }
+}
@@ -0,0 +1,22 @@
+package space.essem.image2map;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+
+/**
+ * Everything the render stage of a job produces, ready to be turned into maps
+ * on the server thread.
+ *
+ * @param tiles        the colors of each map, indexed by {@code y * countX + x}
+ * @param posterColors the colors of the poster item, or null if no poster should be made
+ * @param frameDelays  how long each frame is shown in milliseconds, or null if the image isn't animated
+ * @param frameFile    the file holding every frame, see {@link space.essem.image2map.animation.FrameWriter},
+ *                     or null if the image isn't animated
+ */
+record RenderedMaps(byte[][] tiles, @Nullable byte[] posterColors, @Nullable int[] frameDelays,
+        @Nullable Path frameFile) {
+    boolean isAnimated() {
+        return frameFile != null;
+    }
+}
@@ -0,0 +1,125 @@
+package space.essem.image2map;
+
+import com.google.gson.JsonObject;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.LiteralText;
+import net.minecraft.util.Formatting;
+import space.essem.image2map.cache.DecodedImageCache;
+import space.essem.image2map.cache.DownloadCache;
+import space.essem.image2map.renderer.RenderWorkers;
+import space.essem.image2map.stats.PipelineStats;
+
+/**
+ * Shows the pipeline stats to players and writes them to the log.
+ */
+public class StatsReporter {
+    private static long nextLog;
+    private static long lastLoggedRuns;
+
+    /**
+     * @return the pipeline stats together with the queues and caches
+     */
+    static JsonObject snapshot() {
+        JsonObject json = PipelineStats.toJson();
+
+        JsonObject queues = new JsonObject();
+        queues.addProperty("renderQueued", RenderWorkers.getQueuedTasks());
+        queues.addProperty("renderActive", RenderWorkers.getActiveWorkers());
+        queues.addProperty("commits", MapCommitQueue.size());
+        queues.addProperty("mapSyncs", MapSyncScheduler.getPending());
+        queues.addProperty("jobsRunning", JobQueue.getRunning());
+        queues.addProperty("jobsWaiting", JobQueue.getWaiting());
+        queues.addProperty("renderMemoryBytes", MemoryGovernor.getInUse());
+        queues.addProperty("rendersWaitingForMemory", MemoryGovernor.getWaiting());
+        json.add("queues", queues);
+
+        JsonObject caches = new JsonObject();
+        DownloadCache downloads = ImageUtils.getDownloadCache();
+        JsonObject download = new JsonObject();
+        download.addProperty("hits", downloads.getHits());
+        download.addProperty("revalidated", downloads.getRevalidations());
+        download.addProperty("misses", downloads.getMisses());
+        download.addProperty("bytesDownloaded", downloads.getBytesDownloaded());
+        caches.add("download", download);
+        DecodedImageCache images = ImageUtils.getImageCache();
+        JsonObject decoded = new JsonObject();
+        decoded.addProperty("hits", images.getHits());
+        decoded.addProperty("misses", images.getMisses());
+        decoded.addProperty("bytes", images.getTotalBytes());
+        caches.add("decoded", decoded);
+        json.add("caches", caches);
+        return json;
+    }
+
+    static int showStats(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        JsonObject stages = PipelineStats.toJson().getAsJsonObject("stages");
+        source.sendFeedback(new LiteralText("Image2Map stats").formatted(Formatting.GOLD), false);
+        for (PipelineStats.Stage stage : PipelineStats.Stage.values()) {
+            JsonObject stats = stages.getAsJsonObject(stage.getName());
+            source.sendFeedback(new LiteralText(String.format("%s: %d runs, avg %.1f ms, max %.1f ms", stage.getName(),
+                    stats.get("count").getAsLong(), stats.get("avgMs").getAsDouble(),
+                    stats.get("maxMs").getAsDouble())), false);
+        }
+
+        JsonObject dither = stages.getAsJsonObject(PipelineStats.Stage.DITHER.getName());
+        long pixels = dither.has("pixels") ? dither.get("pixels").getAsLong() : 0;
+        source.sendFeedback(new LiteralText(String.format(
+                "Jobs: %d started, %d finished, %d failed, %d cancelled; %d pixels rendered",
+                PipelineStats.get(PipelineStats.Counter.JOBS_STARTED),
+                PipelineStats.get(PipelineStats.Counter.JOBS_FINISHED),
+                PipelineStats.get(PipelineStats.Counter.JOBS_FAILED),
+                PipelineStats.get(PipelineStats.Counter.JOBS_CANCELLED), pixels)), false);
+        source.sendFeedback(new LiteralText(String.format("Maps: %d created, %d reused, %d updated",
+                PipelineStats.get(PipelineStats.Counter.MAPS_CREATED),
+                PipelineStats.get(PipelineStats.Counter.MAPS_REUSED),
+                PipelineStats.get(PipelineStats.Counter.MAPS_UPDATED))), false);
+        source.sendFeedback(new LiteralText(String.format("Map syncs: %d sent, %d already received, %d waiting",
+                PipelineStats.get(PipelineStats.Counter.MAP_SYNCS_SENT),
+                PipelineStats.get(PipelineStats.Counter.MAP_SYNCS_SKIPPED), MapSyncScheduler.getPending())), false);
+
+        DownloadCache downloads = ImageUtils.getDownloadCache();
+        long fetches = downloads.getHits() + downloads.getRevalidations() + downloads.getMisses();
+        source.sendFeedback(new LiteralText(String.format(
+                "Downloads: %d KB downloaded, %s answered from the cache (%d revalidated)",
+                downloads.getBytesDownloaded() / 1024,
+                percent(downloads.getHits() + downloads.getRevalidations(), fetches), downloads.getRevalidations())),
+                false);
+        DecodedImageCache images = ImageUtils.getImageCache();
+        source.sendFeedback(new LiteralText(String.format("Decoded images: %s cache hits, %d KB cached",
+                percent(images.getHits(), images.getHits() + images.getMisses()), images.getTotalBytes() / 1024)),
+                false);
+        source.sendFeedback(new LiteralText(String.format("Queues: %d jobs running, %d waiting, %d render tasks "
+                + "waiting, %d workers busy, %d jobs being handed out", JobQueue.getRunning(), JobQueue.getWaiting(),
+                RenderWorkers.getQueuedTasks(), RenderWorkers.getActiveWorkers(), MapCommitQueue.size())), false);
+        source.sendFeedback(new LiteralText(String.format("Render memory: %d of %d MB in use, %d renders waiting",
+                MemoryGovernor.getInUse() / (1024 * 1024), MemoryGovernor.getBudget() / (1024 * 1024),
+                MemoryGovernor.getWaiting())), false);
+        return 1;
+    }
+
+    /**
+     * Writes the stats to the log every few minutes, as long as something
+     * happened since the last time.
+     */
+    static void tick(MinecraftServer server) {
+        int minutes = Image2Map.CONFIG.statsLogMinutes;
+        long now = System.currentTimeMillis();
+        if (minutes <= 0 || now < nextLog)
+            return;
+        nextLog = now + minutes * 60_000L;
+        long runs = 0;
+        for (PipelineStats.Stage stage : PipelineStats.Stage.values())
+            runs += PipelineStats.getRuns(stage);
+        if (runs == lastLoggedRuns)
+            return;
+        lastLoggedRuns = runs;
+        Image2Map.LOGGER.info("Image2Map stats: {}", snapshot());
+    }
+
+    private static String percent(long part, long total) {
+        return total == 0 ? "n/a" : String.format("%.0f%%", part * 100.0 / total);
+    }
+}
@@ -0,0 +1,175 @@
+package space.essem.image2map.animation;
+
+import com.mojang.brigadier.LiteralMessage;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.item.FilledMapItem;
+import net.minecraft.item.map.MapState;
+import net.minecraft.network.Packet;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.LiteralText;
+import net.minecraft.util.Formatting;
+import space.essem.image2map.Image2Map;
+import space.essem.image2map.mixin.MapStateAccessor;
+import space.essem.image2map.renderer.MapRenderer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Steps animated maps to their next frame on the server thread. Only the
+ * rectangle of each map that changed is marked dirty, so viewers get small
+ * partial updates. Each tick stops once the time or bandwidth budget is used
+ * up, and the next tick continues with the animations that missed out.
+ */
+public class AnimationScheduler {
+    private static final DynamicCommandExceptionType NO_ANIMATION = new DynamicCommandExceptionType(
+            id -> new LiteralMessage("No animation plays on map " + id));
+    private static final byte[] COLORS = new byte[MapAnimation.MAP_SIZE];
+    private static int offset;
+
+    public static void tick(MinecraftServer server) {
+        ServerWorld world = server.getOverworld();
+        List<MapAnimation> animations = AnimationState.get(world).getAnimations();
+        int count = animations.size();
+        if (count == 0)
+            return;
+
+        long now = System.nanoTime() / 1_000_000L;
+        long deadline = System.nanoTime() + Image2Map.CONFIG.animationBudgetMs * 1_000_000L;
+        long bytesLeft = Image2Map.CONFIG.animationBytesPerTick;
+        List<MapAnimation> broken = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = (offset + i) % count;
+            MapAnimation animation = animations.get(index);
+            if (animation.nextFrameAt != 0 && now < animation.nextFrameAt)
+                continue;
+            if (System.nanoTime() > deadline || bytesLeft <= 0) {
+                offset = index;
+                removeAll(world, broken);
+                return;
+            }
+
+            int frame;
+            long due;
+            if (animation.nextFrameAt == 0) {
+                // the maps could show any frame after a restart, start from the beginning
+                frame = 0;
+                due = now + animation.delays[0];
+            } else {
+                // skip the frames we are too late for, so the animation keeps its speed
+                frame = animation.frame;
+                due = animation.nextFrameAt;
+                do {
+                    frame = (frame + 1) % animation.getFrameCount();
+                    due += animation.delays[frame];
+                } while (due <= now && frame != animation.frame);
+                if (due <= now)
+                    due = now + animation.delays[frame];
+            }
+            try {
+                bytesLeft -= showFrame(world, animation, frame);
+            } catch (IOException e) {
+                Image2Map.LOGGER.error("Couldn't read the frames of the animation on map "
+                        + animation.mapIds[0] + ", stopping it", e);
+                broken.add(animation);
+                continue;
+            }
+            animation.frame = frame;
+            animation.nextFrameAt = due;
+        }
+        offset = 0;
+        removeAll(world, broken);
+    }
+
+    private static void removeAll(ServerWorld world, List<MapAnimation> animations) {
+        for (MapAnimation animation : animations)
+            AnimationState.get(world).remove(animation);
+    }
+
+    /**
+     * Copies a frame into the maps of an animation and sends the changed part
+     * to everyone tracking them.
+     *
+     * @return roughly how many bytes of map data were sent
+     */
+    private static long showFrame(ServerWorld world, MapAnimation animation, int frame) throws IOException {
+        long sent = 0;
+        for (int i = 0; i < animation.mapIds.length; i++) {
+            MapState state = world.getMapState(FilledMapItem.getMapName(animation.mapIds[i]));
+            if (state == null)
+                continue;
+            animation.readFrame(frame, i, COLORS);
+            int changed = MapRenderer.updateColors(state, COLORS, 0);
+            if (changed == 0)
+                continue;
+
+            List<MapState.PlayerUpdateTracker> trackers = ((MapStateAccessor) state).getUpdateTrackers();
+            sent += (long) changed * trackers.size();
+            // send right away rather than waiting for the next item frame sync, which
+            // only happens every half second
+            for (MapState.PlayerUpdateTracker tracker : trackers) {
+                PlayerEntity player = tracker.player;
+                if (player instanceof ServerPlayerEntity serverPlayer) {
+                    Packet<?> packet = state.getPlayerMarkerPacket(animation.mapIds[i], serverPlayer);
+                    if (packet != null)
+                        serverPlayer.networkHandler.sendPacket(packet);
+                }
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Closes the frame files, called when the server stops.
+     */
+    public static void stop(MinecraftServer server) {
+        AnimationState.get(server.getOverworld()).closeFiles();
+    }
+
+    /**
+     * Lists every animation with the space its frames take up.
+     */
+    public static int listAnimations(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        AnimationState state = AnimationState.get(source.getWorld());
+        List<MapAnimation> animations = state.getAnimations();
+        if (animations.isEmpty()) {
+            source.sendFeedback(new LiteralText("There are no animated maps"), false);
+            return 0;
+        }
+        source.sendFeedback(new LiteralText(String.format("Animated maps (%d of %d MB used)",
+                toMb(state.getTotalSize()), toMb(AnimationState.getMaxTotalSize()))).formatted(Formatting.GOLD),
+                false);
+        for (MapAnimation animation : animations) {
+            source.sendFeedback(new LiteralText(String.format("Map %d: %d maps, %d frames, %d MB",
+                    animation.mapIds[0], animation.mapIds.length, animation.getFrameCount(),
+                    toMb(animation.getSize()))), false);
+        }
+        return animations.size();
+    }
+
+    /**
+     * Stops the animation playing on a map and deletes its frames. Its maps
+     * keep showing the frame they are on.
+     */
+    public static int removeAnimation(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        int id = IntegerArgumentType.getInteger(context, "mapId");
+        int removed = AnimationState.get(context.getSource().getWorld()).removeAll(new int[] { id });
+        if (removed == 0)
+            throw NO_ANIMATION.create(id);
+        context.getSource().sendFeedback(new LiteralText("Stopped the animation on map " + id), false);
+        return removed;
+    }
+
+    private static long toMb(long bytes) {
+        return (bytes + 1024 * 1024 - 1) / (1024 * 1024);
+    }
+}
@@ -0,0 +1,235 @@
+package space.essem.image2map.animation;
+
+import net.minecraft.nbt.NbtByteArray;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.WorldSavePath;
+import net.minecraft.world.PersistentState;
+import space.essem.image2map.Image2Map;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Keeps track of every animated map, stored with the overworld next to the
+ * map files themselves. The frames of each animation are in a file of their
+ * own in {@code data/image2map_animations}, only read while they play.
+ */
+public class AnimationState extends PersistentState {
+    private static final String ID = "image2map_animations";
+
+    private final Path directory;
+    private final List<MapAnimation> animations = new ArrayList<>();
+
+    private AnimationState(Path directory) {
+        this.directory = directory;
+    }
+
+    public static AnimationState get(ServerWorld world) {
+        Path directory = getDirectory(world.getServer());
+        return world.getServer().getOverworld().getPersistentStateManager()
+                .getOrCreate(nbt -> fromNbt(directory, nbt), () -> create(directory), ID);
+    }
+
+    /**
+     * @return where the frames of animations are kept
+     */
+    public static Path getDirectory(MinecraftServer server) {
+        return server.getSavePath(WorldSavePath.ROOT).resolve("data").resolve(ID);
+    }
+
+    /**
+     * @return a file for the frames of a new animation
+     */
+    public static Path newFrameFile(MinecraftServer server) {
+        return getDirectory(server).resolve(UUID.randomUUID() + ".frames");
+    }
+
+    private static AnimationState create(Path directory) {
+        AnimationState state = new AnimationState(directory);
+        state.deleteUnused();
+        return state;
+    }
+
+    private static AnimationState fromNbt(Path directory, NbtCompound nbt) {
+        AnimationState state = new AnimationState(directory);
+        NbtList list = nbt.getList("Animations", 10);
+        for (int i = 0; i < list.size(); i++) {
+            NbtCompound animation = list.getCompound(i);
+            int[] ids = animation.getIntArray("Ids");
+            int[] delays = animation.getIntArray("Delays");
+            Path file;
+            if (animation.contains("Frames", 9)) {
+                file = state.migrate(ids, delays, animation.getList("Frames", 7));
+                if (file == null)
+                    continue;
+            } else {
+                file = directory.resolve(animation.getString("File"));
+            }
+            state.animations.add(new MapAnimation(ids, delays, file));
+        }
+        state.deleteUnused();
+        return state;
+    }
+
+    /**
+     * Moves the frames of an animation saved by an older version, which kept
+     * them in this file, out to a file of their own.
+     */
+    private Path migrate(int[] ids, int[] delays, NbtList framesList) {
+        Path file = directory.resolve(UUID.randomUUID() + ".frames");
+        try (FrameWriter writer = new FrameWriter(file, ids.length)) {
+            byte[][] tiles = new byte[ids.length][MapAnimation.MAP_SIZE];
+            for (int frame = 0; frame < delays.length; frame++) {
+                for (int map = 0; map < ids.length; map++) {
+                    byte[] frames = ((NbtByteArray) framesList.get(map)).getByteArray();
+                    System.arraycopy(frames, frame * MapAnimation.MAP_SIZE, tiles[map], 0, MapAnimation.MAP_SIZE);
+                }
+                writer.write(tiles);
+            }
+            writer.finish();
+        } catch (IOException | RuntimeException e) {
+            Image2Map.LOGGER.error("Couldn't move the frames of an animation out of the world data, dropping it", e);
+            return null;
+        }
+        markDirty();
+        return file;
+    }
+
+    /**
+     * Deletes frame files no animation uses, left behind by jobs that were
+     * stopped after rendering or by animations removed before a crash. This
+     * runs when the state is loaded on the first tick, before any job could
+     * have started writing.
+     */
+    private void deleteUnused() {
+        if (!Files.isDirectory(directory))
+            return;
+        Set<Path> used = new HashSet<>();
+        for (MapAnimation animation : animations)
+            used.add(animation.file);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.frames")) {
+            for (Path file : files) {
+                if (!used.contains(file))
+                    Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            Image2Map.LOGGER.warn("Couldn't clean up unused animation frames", e);
+        }
+    }
+
+    @Override
+    public NbtCompound writeNbt(NbtCompound nbt) {
+        NbtList list = new NbtList();
+        for (MapAnimation animation : animations) {
+            NbtCompound compound = new NbtCompound();
+            compound.putIntArray("Ids", animation.mapIds);
+            compound.putIntArray("Delays", animation.delays);
+            compound.putString("File", animation.file.getFileName().toString());
+            list.add(compound);
+        }
+        nbt.put("Animations", list);
+        return nbt;
+    }
+
+    /**
+     * @return the size of the frames of every animation in bytes
+     */
+    public long getTotalSize() {
+        long total = 0;
+        for (MapAnimation animation : animations)
+            total += animation.getSize();
+        return total;
+    }
+
+    /**
+     * @return the most the frames of all animations may take up in bytes
+     */
+    public static long getMaxTotalSize() {
+        return Image2Map.CONFIG.maxTotalAnimationMb * 1024L * 1024L;
+    }
+
+    /**
+     * Starts playing an animation, unless it would take the animations over
+     * {@link #getMaxTotalSize()}, in which case its frames are deleted.
+     *
+     * @return whether the animation was added
+     */
+    public boolean add(MapAnimation animation) {
+        if (getTotalSize() + animation.getSize() > getMaxTotalSize()) {
+            delete(animation);
+            return false;
+        }
+        animations.add(animation);
+        this.markDirty();
+        return true;
+    }
+
+    /**
+     * Stops every animation that plays on any of the given maps and deletes
+     * its frames.
+     *
+     * @return the number of animations stopped
+     */
+    public int removeAll(int[] mapIds) {
+        List<MapAnimation> removed = new ArrayList<>();
+        for (MapAnimation animation : animations) {
+            if (playsOn(animation, mapIds))
+                removed.add(animation);
+        }
+        for (MapAnimation animation : removed)
+            remove(animation);
+        return removed.size();
+    }
+
+    private static boolean playsOn(MapAnimation animation, int[] mapIds) {
+        for (int id : animation.mapIds) {
+            for (int other : mapIds) {
+                if (id == other)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops an animation and deletes its frames.
+     */
+    public void remove(MapAnimation animation) {
+        if (animations.remove(animation)) {
+            delete(animation);
+            this.markDirty();
+        }
+    }
+
+    private static void delete(MapAnimation animation) {
+        animation.close();
+        try {
+            Files.deleteIfExists(animation.file);
+        } catch (IOException e) {
+            Image2Map.LOGGER.warn("Couldn't delete the frames in " + animation.file, e);
+        }
+    }
+
+    /**
+     * Closes the frame files of every animation, reopened as needed.
+     */
+    public void closeFiles() {
+        for (MapAnimation animation : animations)
+            animation.close();
+    }
+
+    public List<MapAnimation> getAnimations() {
+        return Collections.unmodifiableList(animations);
+    }
+}
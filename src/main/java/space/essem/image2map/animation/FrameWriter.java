@@ -0,0 +1,65 @@
+package space.essem.image2map.animation;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the frames of an animation to disk as they are rendered, so they
+ * never have to be held in memory together. A file that is closed without
+ * {@link #finish()} is deleted.
+ */
+public class FrameWriter implements Closeable {
+    private final Path file;
+    private final OutputStream out;
+    private final int maps;
+    private int frames;
+    private boolean finished;
+
+    /**
+     * @param maps the number of maps in each frame
+     */
+    public FrameWriter(Path file, int maps) throws IOException {
+        Files.createDirectories(file.getParent());
+        this.file = file;
+        this.out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+        this.maps = maps;
+    }
+
+    /**
+     * Adds the next frame.
+     *
+     * @param tiles the colors of each map, in the same order every frame
+     */
+    public void write(byte[][] tiles) throws IOException {
+        if (tiles.length != maps)
+            throw new IllegalArgumentException("Expected " + maps + " maps, got " + tiles.length);
+        for (byte[] tile : tiles)
+            out.write(tile, 0, MapAnimation.MAP_SIZE);
+        frames++;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the finished file, to be given to a {@link MapAnimation}
+     */
+    public Path finish() throws IOException {
+        out.close();
+        finished = true;
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (finished)
+            return;
+        out.close();
+        Files.deleteIfExists(file);
+    }
+}
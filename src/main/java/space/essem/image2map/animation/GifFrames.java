@@ -0,0 +1,88 @@
+package space.essem.image2map.animation;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+
+import org.w3c.dom.NodeList;
+
+/**
+ * Reads the frames of an animated GIF. GIF frames only hold the part of the
+ * image that changed, so each one is drawn over the frames before it (and
+ * cleared afterwards as its disposal method says) to get the full picture.
+ */
+public class GifFrames {
+    /**
+     * GIF delays under this are usually meant as "as fast as possible", which
+     * browsers show at 10 frames a second.
+     */
+    private static final int MIN_DELAY = 20;
+    private static final int DEFAULT_DELAY = 100;
+
+    public interface FrameConsumer {
+        /**
+         * @param frame the whole frame, only valid until this returns
+         * @param delay how long the frame is shown, in milliseconds
+         */
+        void accept(BufferedImage frame, int delay) throws IOException;
+    }
+
+    /**
+     * Reads every frame from a GIF reader, which must have been given its input
+     * without ignoring metadata.
+     *
+     * @return the number of frames read
+     */
+    public static int read(ImageReader reader, FrameConsumer consumer) throws IOException {
+        IIOMetadataNode screen = child(reader.getStreamMetadata(), "javax_imageio_gif_stream_1.0",
+                "LogicalScreenDescriptor");
+        int width = screen != null ? Integer.parseInt(screen.getAttribute("logicalScreenWidth")) : reader.getWidth(0);
+        int height = screen != null ? Integer.parseInt(screen.getAttribute("logicalScreenHeight"))
+                : reader.getHeight(0);
+        // some encoders write a bogus screen size, make sure the first frame fits
+        width = Math.max(width, reader.getWidth(0));
+        height = Math.max(height, reader.getHeight(0));
+
+        BufferedImage canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] previous = null;
+        int count = reader.getNumImages(true);
+        for (int i = 0; i < count; i++) {
+            BufferedImage raw = reader.read(i);
+            IIOMetadata metadata = reader.getImageMetadata(i);
+            IIOMetadataNode descriptor = child(metadata, "javax_imageio_gif_image_1.0", "ImageDescriptor");
+            IIOMetadataNode control = child(metadata, "javax_imageio_gif_image_1.0", "GraphicControlExtension");
+            int left = descriptor != null ? Integer.parseInt(descriptor.getAttribute("imageLeftPosition")) : 0;
+            int top = descriptor != null ? Integer.parseInt(descriptor.getAttribute("imageTopPosition")) : 0;
+            String disposal = control != null ? control.getAttribute("disposalMethod") : "none";
+            int delay = control != null ? Integer.parseInt(control.getAttribute("delayTime")) * 10 : DEFAULT_DELAY;
+
+            if (disposal.equals("restoreToPrevious"))
+                previous = canvas.getRGB(0, 0, width, height, null, 0, width);
+            Graphics2D g = canvas.createGraphics();
+            g.drawImage(raw, left, top, null);
+            consumer.accept(canvas, delay < MIN_DELAY ? DEFAULT_DELAY : delay);
+
+            if (disposal.equals("restoreToBackgroundColor")) {
+                g.setComposite(AlphaComposite.Clear);
+                g.fillRect(left, top, raw.getWidth(), raw.getHeight());
+            } else if (disposal.equals("restoreToPrevious") && previous != null) {
+                canvas.setRGB(0, 0, width, height, previous, 0, width);
+            }
+            g.dispose();
+        }
+        return count;
+    }
+
+    private static IIOMetadataNode child(IIOMetadata metadata, String format, String name) {
+        if (metadata == null)
+            return null;
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+        NodeList nodes = root.getElementsByTagName(name);
+        return nodes.getLength() > 0 ? (IIOMetadataNode) nodes.item(0) : null;
+    }
+}
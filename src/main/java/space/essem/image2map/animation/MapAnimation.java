@@ -0,0 +1,85 @@
+package space.essem.image2map.animation;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An animation played on a group of maps, such as the maps of a poster. The
+ * frames stay on disk and are read one map at a time as they are shown.
+ */
+public class MapAnimation {
+    public static final int MAP_SIZE = 128 * 128;
+
+    final int[] mapIds;
+    final int[] delays;
+    /**
+     * Every frame one after another, each holding the colors of every map in
+     * the same order as mapIds.
+     */
+    final Path file;
+    @Nullable
+    private FileChannel channel;
+
+    // playback state, not saved
+    int frame;
+    long nextFrameAt;
+
+    /**
+     * @param mapIds the id of each map
+     * @param delays how long each frame is shown, in milliseconds
+     * @param file   the frames, see {@link FrameWriter}
+     */
+    public MapAnimation(int[] mapIds, int[] delays, Path file) {
+        this.mapIds = mapIds;
+        this.delays = delays;
+        this.file = file;
+    }
+
+    public int getFrameCount() {
+        return delays.length;
+    }
+
+    public int[] getMapIds() {
+        return mapIds;
+    }
+
+    /**
+     * @return the size of the frames on disk in bytes
+     */
+    public long getSize() {
+        return (long) delays.length * mapIds.length * MAP_SIZE;
+    }
+
+    /**
+     * Reads the colors one of the maps shows in a frame.
+     *
+     * @param map    the index of the map in {@link #getMapIds()}
+     * @param colors receives the 128x128 colors
+     */
+    void readFrame(int frame, int map, byte[] colors) throws IOException {
+        if (channel == null)
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer buffer = ByteBuffer.wrap(colors, 0, MAP_SIZE);
+        long position = ((long) frame * mapIds.length + map) * MAP_SIZE;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Animation frames in " + file + " are cut short");
+        }
+    }
+
+    void close() {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,67 @@
+package space.essem.image2map.cache;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A least-recently-used cache of decoded images, limited by the memory their
+ * pixels take up. Cached images are shared, so they must not be modified.
+ */
+public class DecodedImageCache {
+    private final long maxBytes;
+    private final Map<String, BufferedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long hits;
+    private long misses;
+
+    public DecodedImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Nullable
+    public synchronized BufferedImage get(String key) {
+        BufferedImage image = images.get(key);
+        if (image != null)
+            hits++;
+        else
+            misses++;
+        return image;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized void put(String key, BufferedImage image) {
+        long size = sizeOf(image);
+        if (size > maxBytes)
+            return;
+        BufferedImage old = images.put(key, image);
+        if (old != null)
+            totalBytes -= sizeOf(old);
+        totalBytes += size;
+        Iterator<BufferedImage> iterator = images.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            totalBytes -= sizeOf(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    public static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+}
@@ -0,0 +1,360 @@
+package space.essem.image2map.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A least-recently-used cache of downloaded files on disk. Entries that are
+ * still fresh are returned without touching the network, older ones are
+ * revalidated with their ETag or Last-Modified date so an unchanged file only
+ * costs a 304 response.
+ */
+public class DownloadCache {
+    private final Path directory;
+    private final long maxBytes;
+    private final int maxEntries;
+    private final long freshMillis;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxDownloadBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private boolean loaded;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+
+    /**
+     * A downloaded file.
+     *
+     * @param bytes the contents of the file
+     * @param hash  a hash of the contents, usable as a cache key for anything derived from them
+     */
+    public record Download(byte[] bytes, String hash) {
+    }
+
+    /**
+     * Thrown when the server answers with an error status.
+     */
+    public static class HttpStatusException extends IOException {
+        private final int status;
+
+        public HttpStatusException(int status, URL url) {
+            super("Server returned HTTP " + status + " for " + url);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    private static class Entry {
+        String url;
+        @Nullable
+        String etag;
+        @Nullable
+        String lastModified;
+        String hash;
+        long size;
+        long validated;
+    }
+
+    /**
+     * @param freshMillis      how long an entry is used without revalidating it
+     * @param connectTimeout   the connect timeout in milliseconds
+     * @param readTimeout      the read timeout in milliseconds
+     * @param maxDownloadBytes the largest file that will be downloaded
+     */
+    public DownloadCache(Path directory, long maxBytes, int maxEntries, long freshMillis, int connectTimeout,
+            int readTimeout, int maxDownloadBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+        this.freshMillis = freshMillis;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxDownloadBytes = maxDownloadBytes;
+    }
+
+    public Download fetch(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setRequestProperty("User-Agent", "Image2Map mod");
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        if (!(connection instanceof HttpURLConnection http)) {
+            checkLength(connection.getContentLengthLong());
+            try (InputStream in = connection.getInputStream()) {
+                byte[] bytes = readLimited(in);
+                return new Download(bytes, hash(bytes));
+            }
+        }
+
+        String key = hash(url.toString().getBytes(StandardCharsets.UTF_8));
+        Entry entry = get(key);
+        if (entry != null && System.currentTimeMillis() - entry.validated < freshMillis) {
+            byte[] cached = read(key);
+            if (cached != null) {
+                hits.increment();
+                return new Download(cached, entry.hash);
+            }
+        }
+
+        if (entry != null) {
+            if (entry.etag != null)
+                http.setRequestProperty("If-None-Match", entry.etag);
+            if (entry.lastModified != null)
+                http.setRequestProperty("If-Modified-Since", entry.lastModified);
+        }
+        try {
+            int code = http.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+                byte[] cached = read(key);
+                if (cached != null) {
+                    entry.validated = System.currentTimeMillis();
+                    writeMeta(key, entry);
+                    revalidations.increment();
+                    return new Download(cached, entry.hash);
+                }
+                // the file went missing, ask again without the validators
+                http.disconnect();
+                remove(key);
+                return fetch(url);
+            }
+            if (code >= 400)
+                throw new HttpStatusException(code, url);
+            misses.increment();
+
+            checkLength(http.getContentLengthLong());
+            byte[] bytes;
+            try (InputStream in = http.getInputStream()) {
+                bytes = readLimited(in);
+            }
+            Entry fresh = new Entry();
+            fresh.url = url.toString();
+            fresh.etag = http.getHeaderField("ETag");
+            fresh.lastModified = http.getHeaderField("Last-Modified");
+            fresh.hash = hash(bytes);
+            fresh.size = bytes.length;
+            fresh.validated = System.currentTimeMillis();
+            if (fresh.etag != null || fresh.lastModified != null || freshMillis > 0)
+                store(key, fresh, bytes);
+            return new Download(bytes, fresh.hash);
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    private void checkLength(long length) throws SizeLimitException {
+        if (length > maxDownloadBytes)
+            throw new SizeLimitException(String.format("That image is too big to download (%d KB, the limit is %d KB)",
+                    length / 1024, maxDownloadBytes / 1024));
+    }
+
+    /**
+     * Reads a whole stream, giving up as soon as it is longer than the limit in
+     * case the server didn't send (or lied about) the length, or once the
+     * thread is interrupted.
+     */
+    private byte[] readLimited(InputStream in) throws IOException {
+        int limit = maxDownloadBytes == Integer.MAX_VALUE ? maxDownloadBytes : maxDownloadBytes + 1;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while (out.size() < limit && (read = in.read(buffer, 0, Math.min(buffer.length, limit - out.size()))) >= 0) {
+            // a cancelled job interrupts its download, which would otherwise keep going until it's done
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("Download interrupted");
+            out.write(buffer, 0, read);
+        }
+        byte[] bytes = out.toByteArray();
+        checkLength(bytes.length);
+        bytesDownloaded.add(bytes.length);
+        return bytes;
+    }
+
+    /**
+     * @return how many fetches were answered from the cache without a request
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return how many fetches were answered from the cache after a 304 response
+     */
+    public long getRevalidations() {
+        return revalidations.sum();
+    }
+
+    /**
+     * @return how many HTTP fetches had to download the file
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    @Nullable
+    private synchronized Entry get(String key) {
+        load();
+        return entries.get(key);
+    }
+
+    @Nullable
+    private byte[] read(String key) {
+        Path data = directory.resolve(key + ".bin");
+        try {
+            byte[] bytes = Files.readAllBytes(data);
+            Files.setLastModifiedTime(data, FileTime.fromMillis(System.currentTimeMillis()));
+            return bytes;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private synchronized void store(String key, Entry entry, byte[] bytes) {
+        if (bytes.length > maxBytes || maxEntries <= 0)
+            return;
+        load();
+        try {
+            Files.createDirectories(directory);
+            Path tmp = directory.resolve(key + ".tmp");
+            Files.write(tmp, bytes);
+            Files.move(tmp, directory.resolve(key + ".bin"), StandardCopyOption.REPLACE_EXISTING);
+            writeMeta(key, entry);
+        } catch (IOException e) {
+            return;
+        }
+        Entry old = entries.put(key, entry);
+        if (old != null)
+            totalBytes -= old.size;
+        totalBytes += entry.size;
+        evict();
+    }
+
+    private synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            totalBytes -= entry.size;
+        delete(key);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ((totalBytes > maxBytes || entries.size() > maxEntries) && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue().size;
+            delete(eldest.getKey());
+        }
+    }
+
+    private void delete(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key + ".bin"));
+            Files.deleteIfExists(directory.resolve(key + ".properties"));
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void writeMeta(String key, Entry entry) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("url", entry.url);
+        if (entry.etag != null)
+            properties.setProperty("etag", entry.etag);
+        if (entry.lastModified != null)
+            properties.setProperty("lastModified", entry.lastModified);
+        properties.setProperty("hash", entry.hash);
+        properties.setProperty("size", Long.toString(entry.size));
+        properties.setProperty("validated", Long.toString(entry.validated));
+        try (OutputStream out = Files.newOutputStream(directory.resolve(key + ".properties"))) {
+            properties.store(out, null);
+        }
+    }
+
+    /**
+     * Reads the entries left by previous runs, oldest access first so they are
+     * evicted first.
+     */
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        if (!Files.isDirectory(directory))
+            return;
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.bin")) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            return;
+        }
+        files.sort(Comparator.comparing(file -> {
+            try {
+                return Files.getLastModifiedTime(file);
+            } catch (IOException e) {
+                return FileTime.fromMillis(0);
+            }
+        }));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            String key = name.substring(0, name.length() - ".bin".length());
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(directory.resolve(key + ".properties"))) {
+                properties.load(in);
+                Entry entry = new Entry();
+                entry.url = properties.getProperty("url");
+                entry.etag = properties.getProperty("etag");
+                entry.lastModified = properties.getProperty("lastModified");
+                entry.hash = properties.getProperty("hash");
+                entry.size = Long.parseLong(properties.getProperty("size"));
+                entry.validated = Long.parseLong(properties.getProperty("validated"));
+                entries.put(key, entry);
+                totalBytes += entry.size;
+            } catch (IOException | RuntimeException e) {
+                delete(key);
+            }
+        }
+        evict();
+    }
+
+    public static String hash(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
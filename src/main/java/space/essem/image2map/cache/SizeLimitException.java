@@ -0,0 +1,13 @@
+package space.essem.image2map.cache;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an image is rejected for being too big, before it is fully read.
+ * The message is meant to be shown to the player.
+ */
+public class SizeLimitException extends IOException {
+    public SizeLimitException(String message) {
+        super(message);
+    }
+}
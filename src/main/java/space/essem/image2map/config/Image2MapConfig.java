@@ -11,4 +11,106 @@ public class Image2MapConfig implements ConfigData {
 
   @Comment(value = "Specifies the needed permission level to use the /mapcreate command")
   public int minPermLevel = 2;
+
+  @Comment(value = "When enabled, the color lookup table is saved in the config folder instead of being rebuilt on every start")
+  public boolean cachePalette = true;
+
+  @Comment(value = "Number of threads shared by all jobs for rendering maps, 0 uses one less than the number of processors")
+  public int renderThreads = 0;
+
+  @Comment(value = "Maximum number of render threads a single job can use at once, 0 lets a job use all of them")
+  public int maxThreadsPerJob = 0;
+
+  @Comment(value = "Maximum time in milliseconds spent each tick creating finished maps and handing them out")
+  public int commitBudgetMs = 2;
+
+  @Comment(value = "When enabled, dithering runs over a whole poster at once so there are no seams between its maps")
+  public boolean seamlessDithering = true;
+
+  @Comment(value = "How pixels are matched to map colors when a command doesn't pick one: rgb, cielab, oklab or ciede2000. The first image in each metric builds a lookup table, which takes the longest for ciede2000")
+  public String colorMetric = "rgb";
+
+  @Comment(value = "How images are resized to fit their maps: area, bilinear or lanczos")
+  public String scaleFilter = "lanczos";
+
+  @Comment(value = "When enabled, images and poster tiles that match an existing map reuse it instead of creating a new map")
+  public boolean reuseMaps = true;
+
+  @Comment(value = "Maximum size in megabytes of the cache of downloaded images on disk")
+  public int downloadCacheMb = 256;
+
+  @Comment(value = "Maximum number of downloaded images kept in the cache on disk")
+  public int downloadCacheEntries = 1000;
+
+  @Comment(value = "How long in seconds a downloaded image is reused before checking whether it changed")
+  public int downloadCacheFreshSeconds = 300;
+
+  @Comment(value = "Maximum size in megabytes of decoded images kept in memory")
+  public int imageMemoryCacheMb = 128;
+
+  @Comment(value = "How long in seconds to wait for a connection when downloading an image")
+  public int connectTimeoutSeconds = 10;
+
+  @Comment(value = "How long in seconds to wait for data when downloading an image")
+  public int readTimeoutSeconds = 30;
+
+  @Comment(value = "Maximum size in megabytes of an image file that will be downloaded or read")
+  public int maxImageMb = 32;
+
+  @Comment(value = "Maximum number of pixels in an image, checked before the image is decoded")
+  public long maxImagePixels = 100_000_000L;
+
+  @Comment(value = "How long in seconds loading an image may take in total, including retries")
+  public int downloadTimeoutSeconds = 60;
+
+  @Comment(value = "How many times a failed download is tried again")
+  public int downloadRetries = 2;
+
+  @Comment(value = "Number of threads used for downloading images")
+  public int downloadThreads = 4;
+
+  @Comment(value = "Maximum number of frames of an animated GIF that can be turned into maps")
+  public int maxAnimationFrames = 200;
+
+  @Comment(value = "Maximum size in megabytes of the map colors of all frames of one animation")
+  public int maxAnimationMb = 64;
+
+  @Comment(value = "Maximum time in milliseconds spent each tick stepping animated maps")
+  public int animationBudgetMs = 2;
+
+  @Comment(value = "Maximum bytes of animated map updates sent each tick across all players")
+  public int animationBytesPerTick = 262144;
+
+  @Comment(value = "Minutes between pipeline stats being written to the log as a line of JSON, 0 to turn it off. Nothing is written while no images are being made")
+  public int statsLogMinutes = 10;
+
+  @Comment(value = "Maximum number of jobs downloading and rendering images at the same time, the rest wait their turn")
+  public int maxRunningJobs = 2;
+
+  @Comment(value = "Permission level whose jobs go ahead of everyone else's and aren't held to the per-player limits")
+  public int priorityPermLevel = 3;
+
+  @Comment(value = "Maximum number of jobs a player can have waiting or in progress")
+  public int maxJobsPerPlayer = 3;
+
+  @Comment(value = "Maximum number of jobs of one player downloading and rendering at the same time")
+  public int maxRunningJobsPerPlayer = 1;
+
+  @Comment(value = "Maximum number of pixels across all jobs a player has waiting or in progress, each map is 16384 pixels")
+  public long maxPixelsPerPlayer = 10_240_000L;
+
+  @Comment(value = "Maximum number of images one /mapbatch can import")
+  public int maxBatchImages = 500;
+
+  @Comment(value = "Number of images of a /mapbatch loaded and rendered at the same time, more is faster but uses more memory")
+  public int batchImagesInFlight = 3;
+
+  @Comment(value = "Memory in megabytes that the renders running at once may use together, 0 for a quarter of the maximum heap. Renders that don't fit wait, and ones bigger than this are refused")
+  public int renderMemoryMb = 0;
+
+  @Comment(value = "Maximum bytes of locked maps sent to each player per tick when they first see them, nearest and in view first, 0 to send them all right away. Maps a player already got this session aren't sent again")
+  public int mapSyncBytesPerTick = 32768;
+
+  @Comment(value = "Maximum size in megabytes of the frames of all animations together, kept in the world's data/image2map_animations folder. New animations over it aren't saved, remove old ones with /image2map animations remove <map id>")
+  public int maxTotalAnimationMb = 1024;
 }
@@ -5,19 +5,20 @@ import net.minecraft.entity.decoration.AbstractDecorationEntity;
 import net.minecraft.entity.decoration.ItemFrameEntity;
 import net.minecraft.item.ItemStack;
 import net.minecraft.item.Items;
-import net.minecraft.nbt.NbtElement;
-import net.minecraft.nbt.NbtList;
+import net.minecraft.server.world.ServerWorld;
 import net.minecraft.text.LiteralText;
+import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Box;
 import net.minecraft.util.math.Direction;
-import net.minecraft.util.math.Vec3d;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import space.essem.image2map.PosterManifest;
 
-import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Mixin(ItemFrameEntity.class)
 public abstract class ItemFrameMixin extends AbstractDecorationEntity {
@@ -28,107 +29,96 @@ public abstract class ItemFrameMixin extends AbstractDecorationEntity {
 
 	@Inject(method = "setHeldItemStack(Lnet/minecraft/item/ItemStack;Z)V", at = @At(value = "INVOKE", shift = At.Shift.AFTER, target = "net/minecraft/world/World.updateComparators(Lnet/minecraft/util/math/BlockPos;Lnet/minecraft/block/Block;)V"))
 	private void checkForPosterMap(ItemStack value, boolean update, CallbackInfo ci) {
-		if (value.getItem() != Items.FILLED_MAP || value.getTag() == null
-				|| !value.getTag().contains("i2mStoredMaps", 9)
-				|| !(value.getTag().getList("i2mStoredMaps", 9).get(0) instanceof NbtList))
+		if (value.getItem() != Items.FILLED_MAP || !PosterManifest.isPoster(value.getTag())
+				|| !(world instanceof ServerWorld serverWorld))
 			return;
-		NbtList maps = (NbtList) value.getTag().get("i2mStoredMaps");
-		if (maps != null) {
-			int hSize = ((NbtList) maps.get(0)).size();
-			int vSize = maps.size();
-			Vec3d origin = this.getPos();
-			if (facing.getAxis().isVertical()) {
-				value.setCustomName(new LiteralText("Floor/ceiling posters aren't supported yet!"));
-				return;
-			}
-			Vec3d hVec = Vec3d.of(facing.rotateYCounterclockwise().getVector());
-			origin = verifyOrigin(hSize, origin, hVec);
-			if (origin == null) {
-				value.setCustomName(new LiteralText("Invalid Item Frame Structure"));
-				return;
-			}
-			origin = verifyOrigin(vSize, origin, new Vec3d(0.0, 1.0, 0.0));
-			if (origin == null) {
-				value.setCustomName(new LiteralText("Invalid Item Frame Structure"));
-				return;
-			}
-			ItemFrameEntity[][] posterFrames = new ItemFrameEntity[vSize][hSize];
-			for (int y = 0; y < vSize; y++) {
-				NbtElement mapLine = maps.get(y);
-				if (!(mapLine instanceof NbtList) || ((NbtList) mapLine).size() < hSize
-						|| ((NbtList) mapLine).getHeldType() != 3) {
-					value.setCustomName(new LiteralText("Invalid Item NBT"));
-					return;
-				}
-				for (int x = 0; x < hSize; x++) {
-					ItemFrameEntity frame = this.getAlignedFrameAt(origin.add(hVec.multiply(x)).add(0.0, y, 0.0));
-					if (frame == null || (!this.equals(frame) && !frame.getHeldItemStack().isEmpty())) {
-						value.setCustomName(new LiteralText("Invalid Item Frame Structure"));
-						return;
-					}
-					posterFrames[y][x] = frame;
-				}
-			}
-			for (int y = 0; y < vSize; y++) {
-				for (int x = 0; x < hSize; x++) {
-					ItemStack frameStack = new ItemStack(Items.FILLED_MAP, 1);
-					frameStack.putSubTag("map", ((NbtList) maps.get(y)).get(x));
-					posterFrames[vSize - y - 1][x].setHeldItemStack(frameStack, true);
-				}
-			}
+		PosterManifest poster = PosterManifest.read(serverWorld, value.getTag());
+		if (poster == null) {
+			value.setCustomName(new LiteralText("Invalid Item NBT"));
+			return;
+		}
+		int hSize = poster.width();
+		int vSize = poster.height();
+
+		// the directions of the image's x and y axes, on floors and ceilings
+		// these match how a map is drawn in a frame that hasn't been rotated
+		Direction right;
+		Direction up;
+		if (facing == Direction.UP) {
+			right = Direction.EAST;
+			up = Direction.NORTH;
+		} else if (facing == Direction.DOWN) {
+			right = Direction.EAST;
+			up = Direction.SOUTH;
+		} else {
+			right = facing.rotateYCounterclockwise();
+			up = Direction.UP;
+		}
 
+		ItemFrameEntity[][] posterFrames = findPosterFrames(hSize, vSize, right, up);
+		if (posterFrames == null) {
+			value.setCustomName(new LiteralText("Invalid Item Frame Structure"));
+			return;
+		}
+		for (int y = 0; y < vSize; y++) {
+			for (int x = 0; x < hSize; x++) {
+				ItemStack frameStack = new ItemStack(Items.FILLED_MAP, 1);
+				frameStack.getOrCreateTag().putInt("map", poster.getMapId(x, y));
+				posterFrames[vSize - y - 1][x].setHeldItemStack(frameStack, true);
+			}
 		}
 	}
 
 	/**
-	 * Ensures there is at least `target` item frames in a row, returning the
-	 * position of the first one in the row.
-	 * 
-	 * @param target    the target number of item frames
-	 * @param origin    the initial position for the search
-	 * @param searchDir the direction to move each search
-	 * @return the position of the first item frame.
+	 * Finds a grid of frames for a poster that includes this frame. Every
+	 * frame that could be part of it is found with a single query, and each
+	 * possible placement is then checked against a summed-area table of usable
+	 * cells. Placements where this frame is furthest left and lowest are
+	 * preferred.
+	 *
+	 * @param right the direction along the rows of the poster
+	 * @param up    the direction from the bottom row of the poster to the top
+	 * @return the frames indexed by row from the bottom then column, or null
+	 *         if there isn't a free grid of frames big enough
 	 */
-	private Vec3d verifyOrigin(int target, Vec3d origin, Vec3d searchDir) {
-		int found = 0;
-		// ensure origin is unique since we mutate it
-		origin = new Vec3d(origin.x, origin.y, origin.z);
-		Vec3d searchPos = origin;
-		// when we run out of item frames in forward search
-		// we reverse to find the new origin
-		boolean reverseSearch = false;
-		while (found < target) {
-			if (!reverseSearch) {
-				ItemFrameEntity alignedFrame = this.getAlignedFrameAt(searchPos);
-				if (alignedFrame != null && (alignedFrame == (Object) this || alignedFrame.getHeldItemStack().isEmpty())) {
-					searchPos = searchPos.add(searchDir);
-					found++;
-				} else {
-					reverseSearch = true;
-				}
-			} else {
-				/*
-				 * start searching left from the origin pos minus one (since we already searched
-				 * the origin pos)
-				 * 
-				 * we also move the origin left because we want the detected maps to be between
-				 * originPos and searchPos
-				 */
-				origin = origin.subtract(searchDir);
-				if (this.getAlignedFrameAt(origin) != null) {
-					searchPos = searchPos.subtract(searchDir);
-					found++;
-				} else
-					break;
+	private ItemFrameEntity[][] findPosterFrames(int hSize, int vSize, Direction right, Direction up) {
+		// the frames that could be in the poster, relative to the corner hSize - 1
+		// to the left of and vSize - 1 below this frame
+		int width = hSize * 2 - 1;
+		int height = vSize * 2 - 1;
+		BlockPos corner = this.getBlockPos().offset(right, 1 - hSize).offset(up, 1 - vSize);
+		BlockPos farCorner = corner.offset(right, width - 1).offset(up, height - 1);
+		List<ItemFrameEntity> candidates = world.getEntitiesByType(EntityType.ITEM_FRAME,
+				new Box(corner).union(new Box(farCorner)), entity -> entity.getHorizontalFacing() == facing);
+		Map<BlockPos, ItemFrameEntity> framesByPos = new HashMap<>();
+		for (ItemFrameEntity frame : candidates)
+			framesByPos.putIfAbsent(frame.getBlockPos(), frame);
+
+		ItemFrameEntity[][] frames = new ItemFrameEntity[height][width];
+		// usable[y + 1][x + 1] counts the usable cells at or below and left of (x, y)
+		int[][] usable = new int[height + 1][width + 1];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				ItemFrameEntity frame = framesByPos.get(corner.offset(right, x).offset(up, y));
+				boolean free = frame != null && (frame == (Object) this || frame.getHeldItemStack().isEmpty());
+				if (free)
+					frames[y][x] = frame;
+				usable[y + 1][x + 1] = (free ? 1 : 0) + usable[y][x + 1] + usable[y + 1][x] - usable[y][x];
 			}
 		}
-		return found == target ? origin : null;
-	}
 
-	private ItemFrameEntity getAlignedFrameAt(Vec3d pos) {
-		List<ItemFrameEntity> itemFramesInBlock = world.getEntitiesByType(EntityType.ITEM_FRAME,
-				Box.from(pos.floorAlongAxes(EnumSet.of(Direction.Axis.X, Direction.Axis.Y, Direction.Axis.Z))),
-				entity -> entity.getHorizontalFacing().equals(this.getHorizontalFacing()));
-		return itemFramesInBlock.size() > 0 ? itemFramesInBlock.get(0) : null;
+		for (int originX = hSize - 1; originX >= 0; originX--) {
+			for (int originY = vSize - 1; originY >= 0; originY--) {
+				int count = usable[originY + vSize][originX + hSize] - usable[originY][originX + hSize]
+						- usable[originY + vSize][originX] + usable[originY][originX];
+				if (count != hSize * vSize)
+					continue;
+				ItemFrameEntity[][] posterFrames = new ItemFrameEntity[vSize][hSize];
+				for (int y = 0; y < vSize; y++)
+					System.arraycopy(frames[originY + y], originX, posterFrames[y], 0, hSize);
+				return posterFrames;
+			}
+		}
+		return null;
 	}
 }
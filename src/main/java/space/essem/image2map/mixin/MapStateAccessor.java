@@ -1,5 +1,6 @@
 package space.essem.image2map.mixin;
 
+import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.item.map.MapState;
 import net.minecraft.util.registry.RegistryKey;
 import net.minecraft.world.World;
@@ -8,9 +9,21 @@ import org.spongepowered.asm.mixin.Mutable;
 import org.spongepowered.asm.mixin.gen.Accessor;
 import org.spongepowered.asm.mixin.gen.Invoker;
 
+import java.util.List;
+import java.util.Map;
+
 @Mixin(MapState.class)
 public interface MapStateAccessor {
     @Accessor("locked")
     @Mutable
     void setLocked(boolean locked);
+
+    @Accessor("updateTrackers")
+    List<MapState.PlayerUpdateTracker> getUpdateTrackers();
+
+    @Accessor("updateTrackersByPlayer")
+    Map<PlayerEntity, MapState.PlayerUpdateTracker> getUpdateTrackersByPlayer();
+
+    @Invoker("markDirty")
+    void invokeMarkDirty(int x, int z);
 }
@@ -0,0 +1,30 @@
+package space.essem.image2map.mixin;
+
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.item.map.MapState;
+import net.minecraft.network.Packet;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+import space.essem.image2map.MapSyncScheduler;
+
+@Mixin(MapState.class)
+public abstract class MapStateMixin {
+    @Inject(method = "getPlayerMarkerPacket", at = @At("HEAD"), cancellable = true)
+    private void scheduleSync(int id, PlayerEntity player, CallbackInfoReturnable<Packet<?>> cir) {
+        MapState state = (MapState) (Object) this;
+        if (state.locked && player instanceof ServerPlayerEntity serverPlayer
+                && !MapSyncScheduler.allowSync(state, id, serverPlayer))
+            cir.setReturnValue(null);
+    }
+
+    @Inject(method = "markDirty(II)V", at = @At("HEAD"))
+    private void trackChanges(int x, int z, CallbackInfo ci) {
+        MapState state = (MapState) (Object) this;
+        if (state.locked)
+            MapSyncScheduler.changed(state);
+    }
+}
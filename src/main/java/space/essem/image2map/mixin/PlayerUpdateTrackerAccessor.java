@@ -0,0 +1,26 @@
+package space.essem.image2map.mixin;
+
+import net.minecraft.item.map.MapState;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(MapState.PlayerUpdateTracker.class)
+public interface PlayerUpdateTrackerAccessor {
+    @Accessor("dirty")
+    boolean isDirty();
+
+    @Accessor("dirty")
+    void setDirty(boolean dirty);
+
+    @Accessor("startX")
+    int getStartX();
+
+    @Accessor("startZ")
+    int getStartZ();
+
+    @Accessor("endX")
+    int getEndX();
+
+    @Accessor("endZ")
+    int getEndZ();
+}
@@ -0,0 +1,111 @@
+package space.essem.image2map.offline;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the files a world keeps its maps in ({@code data/map_<id>.dat}),
+ * without the game. Only the few NBT tags those files use are supported.
+ */
+final class MapDatWriter {
+    /** The data version of Minecraft 1.17. */
+    static final int DATA_VERSION = 2724;
+
+    private static final int TAG_END = 0;
+    private static final int TAG_BYTE = 1;
+    private static final int TAG_INT = 3;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_COMPOUND = 10;
+
+    private MapDatWriter() {
+    }
+
+    /**
+     * Writes a locked map, like the ones made in game. It isn't tied to any
+     * place in the world, as locked maps never update anyway.
+     */
+    static void writeMap(Path file, byte[] colors) throws IOException {
+        try (DataOutputStream out = open(file)) {
+            startCompound(out, "data");
+            writeString(out, "dimension", "minecraft:overworld");
+            writeInt(out, "xCenter", 0);
+            writeInt(out, "zCenter", 0);
+            writeByte(out, "scale", 3);
+            writeByte(out, "trackingPosition", 0);
+            writeByte(out, "unlimitedTracking", 0);
+            writeByte(out, "locked", 1);
+            out.writeByte(TAG_BYTE_ARRAY);
+            out.writeUTF("colors");
+            out.writeInt(colors.length);
+            out.write(colors);
+            writeEmptyList(out, "banners");
+            writeEmptyList(out, "frames");
+            out.writeByte(TAG_END);
+            close(out);
+        }
+    }
+
+    /**
+     * Writes the counter the world allocates map ids from
+     * ({@code data/idcounts.dat}).
+     *
+     * @param lastId the highest map id in use
+     */
+    static void writeIdCounts(Path file, int lastId) throws IOException {
+        try (DataOutputStream out = open(file)) {
+            startCompound(out, "data");
+            writeInt(out, "map", lastId);
+            out.writeByte(TAG_END);
+            close(out);
+        }
+    }
+
+    private static DataOutputStream open(Path file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+                Files.newOutputStream(file))));
+        // the unnamed root compound
+        startCompound(out, "");
+        return out;
+    }
+
+    private static void close(DataOutputStream out) throws IOException {
+        writeInt(out, "DataVersion", DATA_VERSION);
+        out.writeByte(TAG_END);
+    }
+
+    private static void startCompound(DataOutputStream out, String name) throws IOException {
+        out.writeByte(TAG_COMPOUND);
+        out.writeUTF(name);
+    }
+
+    private static void writeByte(DataOutputStream out, String name, int value) throws IOException {
+        out.writeByte(TAG_BYTE);
+        out.writeUTF(name);
+        out.writeByte(value);
+    }
+
+    private static void writeInt(DataOutputStream out, String name, int value) throws IOException {
+        out.writeByte(TAG_INT);
+        out.writeUTF(name);
+        out.writeInt(value);
+    }
+
+    private static void writeString(DataOutputStream out, String name, String value) throws IOException {
+        out.writeByte(TAG_STRING);
+        out.writeUTF(name);
+        out.writeUTF(value);
+    }
+
+    private static void writeEmptyList(DataOutputStream out, String name) throws IOException {
+        out.writeByte(TAG_LIST);
+        out.writeUTF(name);
+        out.writeByte(TAG_COMPOUND);
+        out.writeInt(0);
+    }
+}
@@ -0,0 +1,308 @@
+package space.essem.image2map.offline;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import space.essem.image2map.Image2Map;
+import space.essem.image2map.ImageUtils;
+import space.essem.image2map.renderer.ColorMetric;
+import space.essem.image2map.renderer.Ditherer;
+import space.essem.image2map.renderer.Ditherers;
+import space.essem.image2map.renderer.MapPalette;
+import space.essem.image2map.renderer.MapQuantizer;
+import space.essem.image2map.renderer.RenderMonitor;
+import space.essem.image2map.renderer.RenderWorkers;
+import space.essem.image2map.renderer.ResampleFilter;
+
+/**
+ * Renders images into maps without the game, using every core, so big
+ * galleries can be prepared on another machine. The result is either a
+ * {@link TileArchive} to import with {@code /mapimport}, or map files to copy
+ * into a world's data directory. Run it with {@code gradlew renderOffline}
+ * or the jar built by {@code gradlew offlineJar}.
+ */
+public final class OfflineRenderer {
+    private static final String USAGE = """
+            Usage: image2map-offline (--archive <file> | --dat <dir> --first-id <id>) [options] <image or dir>...
+              --archive <file>   write a tile archive to import with /mapimport
+              --dat <dir>        write map_<id>.dat files and idcounts.dat to copy into a world's data directory
+              --first-id <id>    the first map id to use with --dat, the map id in the world's idcounts.dat plus one
+              --size <w>x<h>     the number of maps each image is split into, 1x1 by default
+              --scale <mode>     fit, fill or stretch, stretch by default
+              --dither <mode>    one of %s, none by default
+              --metric <metric>  one of %s, rgb by default
+              --filter <filter>  one of %s, lanczos by default
+              --no-seamless      dither every map on its own instead of the whole image at once
+              --no-poster        don't make a poster map for images of more than one map
+              --threads <n>      the number of threads used, every core by default
+            """;
+    private static final Set<String> EXTENSIONS = Set.of("png", "jpg", "jpeg", "gif", "bmp");
+
+    private final Options options;
+    private final MapPalette palette;
+    private final ExecutorService executor;
+
+    private OfflineRenderer(Options options) {
+        this.options = options;
+        this.palette = MapPalette.create(MapPalette.VANILLA_BASE_COLORS, options.metric, null);
+        this.executor = Executors.newFixedThreadPool(options.threads, runnable -> {
+            Thread thread = new Thread(runnable, "Image2Map Offline Renderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static final class Options {
+        Path archive;
+        Path datDir;
+        int firstId = -1;
+        int countX = 1;
+        int countY = 1;
+        Image2Map.ScaleMode scale = Image2Map.ScaleMode.STRETCH;
+        Ditherer dither = Ditherers.NONE;
+        ColorMetric metric = ColorMetric.RGB;
+        ResampleFilter filter = ResampleFilter.LANCZOS;
+        boolean seamless = true;
+        boolean poster = true;
+        int threads = Runtime.getRuntime().availableProcessors();
+        final List<Path> images = new ArrayList<>();
+    }
+
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.printf(USAGE, String.join(", ", Ditherers.getNames()), names(ColorMetric.values()),
+                    names(ResampleFilter.values()));
+            System.exit(2);
+            return;
+        }
+        try {
+            int failed = new OfflineRenderer(options).run();
+            System.exit(failed > 0 ? 1 : 0);
+        } catch (IOException e) {
+            System.err.println("Couldn't write the output: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static String names(Enum<?>[] values) {
+        StringBuilder names = new StringBuilder();
+        for (Enum<?> value : values) {
+            if (names.length() > 0)
+                names.append(", ");
+            names.append(value.name().toLowerCase(Locale.ROOT));
+        }
+        return names.toString();
+    }
+
+    private static Options parse(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                options.images.addAll(listImages(Path.of(arg)));
+                continue;
+            }
+            switch (arg) {
+                case "--no-seamless" -> options.seamless = false;
+                case "--no-poster" -> options.poster = false;
+                default -> {
+                    if (i + 1 == args.length)
+                        throw new IllegalArgumentException("Missing value for " + arg);
+                    parseOption(options, arg, args[++i]);
+                }
+            }
+        }
+        if ((options.archive == null) == (options.datDir == null))
+            throw new IllegalArgumentException("Give either --archive or --dat");
+        if (options.datDir != null && options.firstId < 0)
+            throw new IllegalArgumentException("--dat needs --first-id");
+        if (options.images.isEmpty())
+            throw new IllegalArgumentException("No images given");
+        return options;
+    }
+
+    private static void parseOption(Options options, String option, String value) {
+        switch (option) {
+            case "--archive" -> options.archive = Path.of(value);
+            case "--dat" -> options.datDir = Path.of(value);
+            case "--first-id" -> options.firstId = parseInt(option, value, 0);
+            case "--threads" -> options.threads = parseInt(option, value, 1);
+            case "--size" -> {
+                String[] size = value.toLowerCase(Locale.ROOT).split("x");
+                if (size.length != 2)
+                    throw new IllegalArgumentException("Invalid size " + value);
+                options.countX = parseInt(option, size[0], 1);
+                options.countY = parseInt(option, size[1], 1);
+                if (options.countX > TileArchive.MAX_SIZE || options.countY > TileArchive.MAX_SIZE)
+                    throw new IllegalArgumentException("Images can be at most " + TileArchive.MAX_SIZE + " maps wide and high");
+            }
+            case "--scale" -> {
+                try {
+                    options.scale = Image2Map.ScaleMode.fromString(value);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Invalid scale mode " + value);
+                }
+            }
+            case "--dither" -> {
+                options.dither = Ditherers.get(value);
+                if (options.dither == null)
+                    throw new IllegalArgumentException("Invalid dither mode " + value);
+            }
+            case "--metric" -> {
+                options.metric = ColorMetric.byName(value);
+                if (options.metric == null)
+                    throw new IllegalArgumentException("Invalid color metric " + value);
+            }
+            case "--filter" -> {
+                options.filter = ResampleFilter.byName(value);
+                if (options.filter == null)
+                    throw new IllegalArgumentException("Invalid filter " + value);
+            }
+            default -> throw new IllegalArgumentException("Unknown option " + option);
+        }
+    }
+
+    private static int parseInt(String option, String value, int min) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= min)
+                return number;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+    }
+
+    private static List<Path> listImages(Path path) {
+        if (!Files.isDirectory(path))
+            return List.of(path);
+        try (Stream<Path> files = Files.list(path)) {
+            return files.filter(Files::isRegularFile).filter(file -> {
+                String name = file.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+            }).sorted().toList();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Couldn't list " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Renders every image and writes them out in the order they were given.
+     * A few more images than there are threads are rendered ahead of the one
+     * being written, so the cores stay busy without holding every image in
+     * memory.
+     *
+     * @return the number of images that couldn't be rendered
+     */
+    private int run() throws IOException {
+        int failed = 0;
+        int done = 0;
+        int nextId = options.firstId;
+        TileArchive.Writer archive = null;
+        if (options.archive != null)
+            archive = TileArchive.write(options.archive);
+        else
+            Files.createDirectories(options.datDir);
+
+        try {
+            Queue<CompletableFuture<TileArchive.Entry>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < options.images.size() || !pending.isEmpty()) {
+                while (next < options.images.size() && pending.size() < options.threads * 2)
+                    pending.add(render(options.images.get(next++)));
+                Path image = options.images.get(done + failed);
+                TileArchive.Entry entry;
+                try {
+                    entry = pending.remove().join();
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause() instanceof UncheckedIOException io ? io.getCause() : e.getCause();
+                    System.err.printf("Skipped %s: %s%n", image, cause.getMessage());
+                    failed++;
+                    continue;
+                }
+                done++;
+                if (archive != null) {
+                    archive.add(entry);
+                    System.out.printf("[%d/%d] %s%n", done + failed, options.images.size(), image);
+                } else {
+                    int first = nextId;
+                    for (byte[] tile : entry.tiles())
+                        MapDatWriter.writeMap(options.datDir.resolve("map_" + nextId++ + ".dat"), tile);
+                    String poster = "";
+                    if (entry.posterColors() != null) {
+                        poster = ", poster map " + nextId;
+                        MapDatWriter.writeMap(options.datDir.resolve("map_" + nextId++ + ".dat"),
+                                entry.posterColors());
+                    }
+                    System.out.printf("[%d/%d] %s: maps %d-%d (%dx%d, left to right then top to bottom)%s%n",
+                            done + failed, options.images.size(), image, first, first + entry.tiles().length - 1,
+                            entry.width(), entry.height(), poster);
+                }
+            }
+        } finally {
+            if (archive != null)
+                archive.close();
+        }
+
+        if (options.datDir != null && nextId > options.firstId) {
+            MapDatWriter.writeIdCounts(options.datDir.resolve("idcounts.dat"), nextId - 1);
+            System.out.printf("Used map ids %d-%d. Stop the server before copying the files, idcounts.dat makes "
+                    + "the world continue at %d%n", options.firstId, nextId - 1, nextId);
+        }
+        System.out.printf("Rendered %d images%s%n", done, failed > 0 ? String.format(", %d failed", failed) : "");
+        return failed;
+    }
+
+    /**
+     * Renders an image the same way it would be in game, on the executor.
+     */
+    private CompletableFuture<TileArchive.Entry> render(Path file) {
+        int countX = options.countX;
+        int countY = options.countY;
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                BufferedImage image = ImageIO.read(file.toFile());
+                if (image == null)
+                    throw new IllegalArgumentException("Not a supported image");
+                return image;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor).thenCompose(image -> {
+            int[] pixels = MapQuantizer.getPixels(image);
+            Rectangle area = ImageUtils.place(options.scale, countX * 128, countY * 128, image.getWidth(),
+                    image.getHeight());
+            return RenderWorkers.renderStrips(pixels, image.getWidth(), image.getHeight(), area, countX, countY,
+                    options.filter, options.dither, palette, options.seamless, executor, options.threads,
+                    RenderMonitor.NONE).thenApplyAsync(tiles -> {
+                        byte[] posterColors = options.poster && tiles.length > 1
+                                ? ImageUtils.renderPoster(pixels, image.getWidth(), image.getHeight(), area, countX,
+                                        countY, options.filter, options.dither, palette)
+                                : null;
+                        return new TileArchive.Entry(file.getFileName().toString(), countX, countY, tiles,
+                                posterColors);
+                    }, executor);
+        });
+    }
+}
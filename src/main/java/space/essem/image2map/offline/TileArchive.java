@@ -0,0 +1,172 @@
+package space.essem.image2map.offline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.jetbrains.annotations.Nullable;
+
+import space.essem.image2map.renderer.MapPalette;
+
+/**
+ * A gzipped file of images that were already turned into map colors, so they
+ * can be imported into a world without rendering them again. Entries are
+ * streamed one at a time in both directions, so an archive never has to fit
+ * in memory.
+ */
+public final class TileArchive {
+    private static final int MAGIC = 0x49324D41; // "I2MA"
+    private static final int VERSION = 1;
+    private static final int MAP_SIZE = 128 * 128;
+    /** The number of map colors, every shade of every base color the game has. */
+    private static final int COLORS = MapPalette.VANILLA_BASE_COLORS.length * MapPalette.SHADE_COEFFS.length;
+    /** The largest poster that can be made in game. */
+    public static final int MAX_SIZE = 25;
+
+    private TileArchive() {
+    }
+
+    /**
+     * The colors of one image.
+     *
+     * @param name         the name of the image, shown on its poster
+     * @param tiles        the colors of each map, indexed by {@code y * width + x}
+     * @param posterColors the colors of the poster map, or null if there is none
+     */
+    public record Entry(String name, int width, int height, byte[][] tiles, @Nullable byte[] posterColors) {
+    }
+
+    public static Writer write(Path file) throws IOException {
+        return new Writer(new DataOutputStream(
+                new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file), 65536))));
+    }
+
+    public static Reader read(Path file) throws IOException {
+        return new Reader(new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 65536))));
+    }
+
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        private Writer(DataOutputStream out) throws IOException {
+            this.out = out;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        public void add(Entry entry) throws IOException {
+            out.writeBoolean(true);
+            out.writeUTF(entry.name());
+            out.writeByte(entry.width());
+            out.writeByte(entry.height());
+            out.writeBoolean(entry.posterColors() != null);
+            for (byte[] tile : entry.tiles())
+                out.write(tile, 0, MAP_SIZE);
+            if (entry.posterColors() != null)
+                out.write(entry.posterColors(), 0, MAP_SIZE);
+        }
+
+        /**
+         * Marks the end of the archive and closes the file. An archive that
+         * wasn't closed can't be read.
+         */
+        @Override
+        public void close() throws IOException {
+            out.writeBoolean(false);
+            out.close();
+        }
+    }
+
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+
+        private Reader(DataInputStream in) throws IOException {
+            this.in = in;
+            try {
+                if (in.readInt() != MAGIC)
+                    throw new IOException("Not a tile archive");
+                int version = in.readInt();
+                if (version != VERSION)
+                    throw new IOException("Unsupported tile archive version " + version);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the next image, or null once every image was read
+         * @throws IOException if the archive is cut short or invalid, or has
+         *                     colors the game doesn't have
+         */
+        @Nullable
+        public Entry next() throws IOException {
+            try {
+                if (!in.readBoolean())
+                    return null;
+                String name = in.readUTF();
+                int width = in.readUnsignedByte();
+                int height = in.readUnsignedByte();
+                if (width < 1 || width > MAX_SIZE || height < 1 || height > MAX_SIZE)
+                    throw new IOException(String.format("Invalid size %dx%d of %s", width, height, name));
+                boolean poster = in.readBoolean();
+                byte[][] tiles = new byte[width * height][];
+                for (int i = 0; i < tiles.length; i++)
+                    tiles[i] = readMap();
+                return new Entry(name, width, height, tiles, poster ? readMap() : null);
+            } catch (EOFException e) {
+                throw new IOException("The tile archive is incomplete", e);
+            }
+        }
+
+        /**
+         * Skips over the next image without keeping its colors, for finding
+         * out how big an archive is before importing it.
+         *
+         * @return the number of maps of the image, its poster included, or -1
+         *         once every image was read
+         * @throws IOException if the archive is cut short or invalid
+         */
+        public int skip() throws IOException {
+            try {
+                if (!in.readBoolean())
+                    return -1;
+                String name = in.readUTF();
+                int width = in.readUnsignedByte();
+                int height = in.readUnsignedByte();
+                if (width < 1 || width > MAX_SIZE || height < 1 || height > MAX_SIZE)
+                    throw new IOException(String.format("Invalid size %dx%d of %s", width, height, name));
+                int maps = width * height + (in.readBoolean() ? 1 : 0);
+                in.skipNBytes((long) maps * MAP_SIZE);
+                return maps;
+            } catch (EOFException e) {
+                throw new IOException("The tile archive is incomplete", e);
+            }
+        }
+
+        private byte[] readMap() throws IOException {
+            byte[] colors = new byte[MAP_SIZE];
+            in.readFully(colors);
+            // these go straight to clients, which have nothing to show for a color past the last one
+            for (byte color : colors) {
+                if ((color & 0xFF) >= COLORS)
+                    throw new IOException("Invalid map color " + (color & 0xFF) + " in the tile archive");
+            }
+            return colors;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package space.essem.image2map.renderer;
+
+import java.util.Locale;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * How the difference between two colors is measured when matching pixels to
+ * map colors. Every metric places colors in a 3D space where the nearest
+ * palette colors can be looked up with a {@link PaletteIndex}.
+ */
+public enum ColorMetric {
+    /** Plain distance between sRGB values, the fastest to build. */
+    RGB {
+        @Override
+        void toCoordinates(int r, int g, int b, float[] out) {
+            out[0] = r;
+            out[1] = g;
+            out[2] = b;
+        }
+    },
+    /** Distance in CIELAB, also known as delta E 1976. */
+    CIELAB {
+        @Override
+        void toCoordinates(int r, int g, int b, float[] out) {
+            toLab(r, g, b, out);
+        }
+    },
+    /** Distance in OKLab, which keeps hue and lightness steadier than CIELAB. */
+    OKLAB {
+        @Override
+        void toCoordinates(int r, int g, int b, float[] out) {
+            double lr = LINEAR[r];
+            double lg = LINEAR[g];
+            double lb = LINEAR[b];
+            double l = Math.cbrt(0.4122214708 * lr + 0.5363325363 * lg + 0.0514459929 * lb);
+            double m = Math.cbrt(0.2119034982 * lr + 0.6806995451 * lg + 0.1073969566 * lb);
+            double s = Math.cbrt(0.0883024619 * lr + 0.2817188376 * lg + 0.6299787005 * lb);
+            out[0] = (float) (0.2104542553 * l + 0.7936177850 * m - 0.0040720468 * s);
+            out[1] = (float) (1.9779984951 * l - 2.4285922050 * m + 0.4505937099 * s);
+            out[2] = (float) (0.0259040371 * l + 0.7827717662 * m - 0.8086757660 * s);
+        }
+    },
+    /**
+     * Delta E 2000 over CIELAB. It isn't a distance in the space itself, so
+     * the closest few colors by CIELAB distance are re-ranked with it.
+     */
+    CIEDE2000 {
+        @Override
+        void toCoordinates(int r, int g, int b, float[] out) {
+            toLab(r, g, b, out);
+        }
+
+        @Override
+        int getCandidates() {
+            return 4;
+        }
+
+        @Override
+        double distance(float[] a, float[] b) {
+            return deltaE2000(a[0], a[1], a[2], b[0], b[1], b[2]);
+        }
+    };
+
+    /** Linear light for each sRGB channel value. */
+    private static final double[] LINEAR = new double[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            double c = i / 255.0;
+            LINEAR[i] = c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+        }
+    }
+
+    /**
+     * @return the name the metric is selected by in commands and the config
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    @Nullable
+    public static ColorMetric byName(String name) {
+        for (ColorMetric metric : values()) {
+            if (metric.getName().equalsIgnoreCase(name))
+                return metric;
+        }
+        return null;
+    }
+
+    /**
+     * Places a packed RGB color in this metric's space, for measuring how far
+     * apart colors are outside of matching, like delta E with {@link #CIELAB}.
+     */
+    public void getCoordinates(int rgb, float[] out) {
+        toCoordinates((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF, out);
+    }
+
+    /**
+     * Places an sRGB color in this metric's space.
+     */
+    abstract void toCoordinates(int r, int g, int b, float[] out);
+
+    /**
+     * @return how many of the closest colors in the space are compared with
+     *         {@link #distance}, 1 if the space distance is the metric itself
+     */
+    int getCandidates() {
+        return 1;
+    }
+
+    /**
+     * Measures the difference between two colors placed by {@link #toCoordinates}.
+     * Only used to rank candidates, so it doesn't have to be squared or scaled
+     * the same way across metrics.
+     */
+    double distance(float[] a, float[] b) {
+        double d0 = a[0] - b[0];
+        double d1 = a[1] - b[1];
+        double d2 = a[2] - b[2];
+        return d0 * d0 + d1 * d1 + d2 * d2;
+    }
+
+    private static void toLab(int r, int g, int b, float[] out) {
+        double lr = LINEAR[r];
+        double lg = LINEAR[g];
+        double lb = LINEAR[b];
+        // D65 white point
+        double x = labF((0.4124564 * lr + 0.3575761 * lg + 0.1804375 * lb) / 0.95047);
+        double y = labF(0.2126729 * lr + 0.7151522 * lg + 0.0721750 * lb);
+        double z = labF((0.0193339 * lr + 0.1191920 * lg + 0.9503041 * lb) / 1.08883);
+        out[0] = (float) (116 * y - 16);
+        out[1] = (float) (500 * (x - y));
+        out[2] = (float) (200 * (y - z));
+    }
+
+    private static double labF(double t) {
+        return t > 216.0 / 24389.0 ? Math.cbrt(t) : (24389.0 / 27.0 * t + 16) / 116;
+    }
+
+    private static double deltaE2000(double l1, double a1, double b1, double l2, double a2, double b2) {
+        double c1 = Math.sqrt(a1 * a1 + b1 * b1);
+        double c2 = Math.sqrt(a2 * a2 + b2 * b2);
+        double cBar7 = Math.pow((c1 + c2) / 2, 7);
+        double g = 0.5 * (1 - Math.sqrt(cBar7 / (cBar7 + 6103515625.0)));
+        double a1p = (1 + g) * a1;
+        double a2p = (1 + g) * a2;
+        double c1p = Math.sqrt(a1p * a1p + b1 * b1);
+        double c2p = Math.sqrt(a2p * a2p + b2 * b2);
+        double h1p = hueAngle(b1, a1p);
+        double h2p = hueAngle(b2, a2p);
+
+        double dLp = l2 - l1;
+        double dCp = c2p - c1p;
+        double dhp = 0;
+        if (c1p * c2p != 0) {
+            dhp = h2p - h1p;
+            if (dhp > 180)
+                dhp -= 360;
+            else if (dhp < -180)
+                dhp += 360;
+        }
+        double dHp = 2 * Math.sqrt(c1p * c2p) * Math.sin(Math.toRadians(dhp / 2));
+
+        double lBarp = (l1 + l2) / 2;
+        double cBarp = (c1p + c2p) / 2;
+        double hBarp = h1p + h2p;
+        if (c1p * c2p != 0) {
+            if (Math.abs(h1p - h2p) <= 180)
+                hBarp /= 2;
+            else
+                hBarp = hBarp < 360 ? (hBarp + 360) / 2 : (hBarp - 360) / 2;
+        }
+
+        double t = 1 - 0.17 * Math.cos(Math.toRadians(hBarp - 30)) + 0.24 * Math.cos(Math.toRadians(2 * hBarp))
+                + 0.32 * Math.cos(Math.toRadians(3 * hBarp + 6)) - 0.20 * Math.cos(Math.toRadians(4 * hBarp - 63));
+        double dTheta = 30 * Math.exp(-Math.pow((hBarp - 275) / 25, 2));
+        double cBarp7 = Math.pow(cBarp, 7);
+        double rc = 2 * Math.sqrt(cBarp7 / (cBarp7 + 6103515625.0));
+        double lBarp50 = (lBarp - 50) * (lBarp - 50);
+        double sl = 1 + 0.015 * lBarp50 / Math.sqrt(20 + lBarp50);
+        double sc = 1 + 0.045 * cBarp;
+        double sh = 1 + 0.015 * cBarp * t;
+        double rt = -Math.sin(Math.toRadians(2 * dTheta)) * rc;
+
+        double dl = dLp / sl;
+        double dc = dCp / sc;
+        double dh = dHp / sh;
+        return Math.sqrt(dl * dl + dc * dc + dh * dh + rt * dc * dh);
+    }
+
+    private static double hueAngle(double b, double a) {
+        if (a == 0 && b == 0)
+            return 0;
+        double angle = Math.toDegrees(Math.atan2(b, a));
+        return angle < 0 ? angle + 360 : angle;
+    }
+}
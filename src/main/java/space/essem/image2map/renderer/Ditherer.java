@@ -0,0 +1,70 @@
+package space.essem.image2map.renderer;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A way of converting pixels into map colors. Implementations must not
+ * allocate per pixel and must be safe to use from several threads at once.
+ */
+public interface Ditherer {
+    /**
+     * @return the name the mode is selected by in commands
+     */
+    String getName();
+
+    /**
+     * Whether the color of a pixel depends on the pixels before it. Modes that
+     * don't can render any part of an image on its own, so an image can be
+     * split up and rendered in parallel.
+     */
+    boolean diffusesError();
+
+    /**
+     * Converts pixels into map colors.
+     *
+     * @param pixels  ARGB pixels in row-major order, which must not be modified
+     *                as they can belong to a shared image
+     * @param width   the width of the image
+     * @param height  the height of the image
+     * @param palette the palette to match against
+     * @param out     receives the map color of each pixel, in the same order as {@code pixels}
+     */
+    void dither(int[] pixels, int width, int height, MapPalette palette, byte[] out);
+
+    /**
+     * Starts converting an image strip by strip from the top, for images too
+     * big to hold at once. The result is the same as converting the whole
+     * image in one go, as long as every strip but the last is a multiple of
+     * 128 rows high.
+     *
+     * @param width the width of the image
+     */
+    default Strips startStrips(int width, MapPalette palette) {
+        // patterns divide 128, so each strip can start over at the top of the pattern
+        return (pixels, height, out) -> dither(pixels, width, height, palette, out);
+    }
+
+    /**
+     * Like {@link #startStrips(int, MapPalette)}, but the work on each strip
+     * may be spread over several workers. The result is the same either way.
+     *
+     * @param executor    the executor the extra workers run on
+     * @param parallelism the maximum number of workers, including the thread
+     *                    that converts the strips
+     */
+    default Strips startStrips(int width, MapPalette palette, Executor executor, int parallelism) {
+        return startStrips(width, palette);
+    }
+
+    /**
+     * Converts the strips of one image, in order. Not thread safe.
+     */
+    interface Strips {
+        /**
+         * @param pixels the ARGB pixels of the next strip, row by row
+         * @param height the number of rows in the strip
+         * @param out    receives the map color of each pixel of the strip
+         */
+        void dither(int[] pixels, int height, byte[] out);
+    }
+}
@@ -0,0 +1,61 @@
+package space.essem.image2map.renderer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The registry of dithering modes that can be selected in commands.
+ */
+public class Ditherers {
+    private static final Map<String, Ditherer> BY_NAME = new LinkedHashMap<>();
+    private static final List<String> NAMES = new ArrayList<>();
+
+    public static final Ditherer NONE = register(new OrderedDitherer("none", new int[] { 0 }, 1));
+    public static final Ditherer FLOYD = register(new ErrorDiffusionDitherer("floyd",
+            new int[][] { { 1, 0, 7 }, { -1, 1, 3 }, { 0, 1, 5 }, { 1, 1, 1 } }, 16, false), "dither");
+    public static final Ditherer SERPENTINE = register(new ErrorDiffusionDitherer("serpentine",
+            new int[][] { { 1, 0, 7 }, { -1, 1, 3 }, { 0, 1, 5 }, { 1, 1, 1 } }, 16, true));
+    public static final Ditherer ATKINSON = register(new ErrorDiffusionDitherer("atkinson",
+            new int[][] { { 1, 0, 1 }, { 2, 0, 1 }, { -1, 1, 1 }, { 0, 1, 1 }, { 1, 1, 1 }, { 0, 2, 1 } }, 8, false));
+    public static final Ditherer SIERRA_LITE = register(new ErrorDiffusionDitherer("sierra_lite",
+            new int[][] { { 1, 0, 2 }, { -1, 1, 1 }, { 0, 1, 1 } }, 4, false));
+    public static final Ditherer BAYER = register(new OrderedDitherer("bayer", OrderedDitherer.bayer(8), 8));
+    public static final Ditherer BLUE_NOISE = register(
+            new OrderedDitherer("blue_noise", OrderedDitherer.blueNoise(64), 64));
+
+    /**
+     * Makes a dithering mode selectable by its name and any aliases.
+     */
+    public static Ditherer register(Ditherer ditherer, String... aliases) {
+        synchronized (BY_NAME) {
+            NAMES.add(ditherer.getName());
+            BY_NAME.put(ditherer.getName().toLowerCase(Locale.ROOT), ditherer);
+            for (String alias : aliases) {
+                BY_NAME.put(alias.toLowerCase(Locale.ROOT), ditherer);
+            }
+        }
+        return ditherer;
+    }
+
+    @Nullable
+    public static Ditherer get(String name) {
+        synchronized (BY_NAME) {
+            return BY_NAME.get(name.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * @return the names of every registered mode, without aliases
+     */
+    public static List<String> getNames() {
+        synchronized (BY_NAME) {
+            return Collections.unmodifiableList(new ArrayList<>(NAMES));
+        }
+    }
+}
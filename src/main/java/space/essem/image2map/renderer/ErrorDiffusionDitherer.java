@@ -0,0 +1,289 @@
+package space.essem.image2map.renderer;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Dithers by spreading the quantization error of each pixel over the pixels
+ * after it, as described by a kernel of offsets and weights. The error is kept
+ * in fixed point in a few reusable rows per channel rather than written back
+ * into the image.
+ */
+public class ErrorDiffusionDitherer implements Ditherer {
+    /** How many pixels a row of a wavefront is dithered in before the rows below are told. */
+    private static final int WAVEFRONT_CHUNK = 64;
+    /** How long a row of a wavefront busy-waits for the row above before giving up its core. */
+    private static final int WAVEFRONT_SPINS = 100;
+
+    private final String name;
+    private final int[] offsetX;
+    private final int[] offsetY;
+    private final int[] weights;
+    private final int divisor;
+    private final boolean serpentine;
+    private final int rows;
+    private final int padding;
+
+    /**
+     * @param kernel     rows of {@code {dx, dy, weight}}, with dy >= 0 and dx > 0 when dy is 0
+     * @param divisor    the sum the weights are divided by
+     * @param serpentine whether every other row is processed right to left
+     */
+    public ErrorDiffusionDitherer(String name, int[][] kernel, int divisor, boolean serpentine) {
+        this.name = name;
+        this.offsetX = new int[kernel.length];
+        this.offsetY = new int[kernel.length];
+        this.weights = new int[kernel.length];
+        int maxY = 0;
+        int maxX = 0;
+        for (int i = 0; i < kernel.length; i++) {
+            offsetX[i] = kernel[i][0];
+            offsetY[i] = kernel[i][1];
+            weights[i] = kernel[i][2];
+            maxY = Math.max(maxY, offsetY[i]);
+            maxX = Math.max(maxX, Math.abs(offsetX[i]));
+        }
+        this.divisor = divisor;
+        this.serpentine = serpentine;
+        this.rows = maxY + 1;
+        this.padding = maxX;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean diffusesError() {
+        return true;
+    }
+
+    @Override
+    public void dither(int[] pixels, int width, int height, MapPalette palette, byte[] out) {
+        startStrips(width, palette).dither(pixels, height, out);
+    }
+
+    @Override
+    public Strips startStrips(int width, MapPalette palette) {
+        // errors that fall outside the image land in the padding and are dropped
+        int stride = width + padding * 2;
+        int[] errorR = new int[rows * stride];
+        int[] errorG = new int[rows * stride];
+        int[] errorB = new int[rows * stride];
+        int[] targets = new int[weights.length];
+        // the row of the image the next strip starts at, the error rows carry over between strips
+        int[] nextRow = { 0 };
+
+        return (pixels, height, out) -> {
+            for (int stripY = 0; stripY < height; stripY++) {
+                int y = nextRow[0] + stripY;
+                boolean reverse = serpentine && (y & 1) == 1;
+                int direction = reverse ? -1 : 1;
+                for (int k = 0; k < weights.length; k++)
+                    targets[k] = ((y + offsetY[k]) % rows) * stride + padding + offsetX[k] * direction;
+                ditherRun(pixels, stripY * width, 0, width, reverse, (y % rows) * stride + padding, targets, errorR,
+                        errorG, errorB, palette, out);
+                // this row has been consumed, it is reused for the row `rows` lines down
+                int start = (y % rows) * stride;
+                Arrays.fill(errorR, start, start + stride, 0);
+                Arrays.fill(errorG, start, start + stride, 0);
+                Arrays.fill(errorB, start, start + stride, 0);
+            }
+            nextRow[0] += height;
+        };
+    }
+
+    /**
+     * Dithers the rows of each strip on several workers at once, see
+     * {@link Wavefront}. Serpentine modes can't be split up this way, as every
+     * other row would have to wait for the whole row above it.
+     */
+    @Override
+    public Strips startStrips(int width, MapPalette palette, Executor executor, int parallelism) {
+        int lanes = Math.min(parallelism, width / (WAVEFRONT_CHUNK * 2));
+        if (serpentine || lanes < 2)
+            return startStrips(width, palette);
+        return new Wavefront(width, palette, executor, lanes);
+    }
+
+    /**
+     * Dithers the pixels {@code from} to {@code to} of a row.
+     *
+     * @param index   where the row starts in {@code pixels} and {@code out}
+     * @param reverse whether the row is processed right to left
+     * @param at      where the error of the row's first pixel is kept
+     * @param targets where the error for each kernel entry goes from the row's
+     *                first pixel, already mirrored for reversed rows
+     */
+    private void ditherRun(int[] pixels, int index, int from, int to, boolean reverse, int at, int[] targets,
+            int[] errorR, int[] errorG, int[] errorB, MapPalette palette, byte[] out) {
+        int width = to - from;
+        for (int i = 0; i < width; i++) {
+            int x = reverse ? to - 1 - i : from + i;
+            int argb = pixels[index + x];
+            int r = clamp(((argb >> 16) & 0xFF) + errorR[at + x] / divisor);
+            int g = clamp(((argb >> 8) & 0xFF) + errorG[at + x] / divisor);
+            int b = clamp((argb & 0xFF) + errorB[at + x] / divisor);
+
+            byte color = palette.match((argb & 0xFF000000) | (r << 16) | (g << 8) | b);
+            out[index + x] = color;
+
+            int rgb = palette.getRGB(color);
+            int diffR = r - ((rgb >> 16) & 0xFF);
+            int diffG = g - ((rgb >> 8) & 0xFF);
+            int diffB = b - (rgb & 0xFF);
+            for (int k = 0; k < weights.length; k++) {
+                int target = targets[k] + x;
+                errorR[target] += diffR * weights[k];
+                errorG[target] += diffG * weights[k];
+                errorB[target] += diffB * weights[k];
+            }
+        }
+    }
+
+    /**
+     * Dithers the rows of a strip in a staggered wavefront: each worker takes
+     * the next row and follows the row above it at a distance. A pixel only
+     * gets the error of the rows above it once they are far enough past it
+     * that all of it has arrived, and two rows never add to the same error at
+     * once. Error is added in integers, so the result is exactly that of
+     * dithering one row after another.
+     * <p>
+     * Workers claim rows in order and only ever wait for rows that were
+     * claimed before theirs, so a worker that gets no thread of the shared
+     * pool for a while holds nothing up. The thread dithering the strip works
+     * on it too, and only waits for rows that others already started.
+     */
+    private final class Wavefront implements Strips {
+        private final int width;
+        private final MapPalette palette;
+        private final Executor executor;
+        private final int lanes;
+        private final int stride;
+        /** How far in pixels a row stays behind the one above it. */
+        private final int lag;
+        private int[] errorR = new int[0];
+        private int[] errorG = new int[0];
+        private int[] errorB = new int[0];
+
+        private Wavefront(int width, MapPalette palette, Executor executor, int lanes) {
+            this.width = width;
+            this.palette = palette;
+            this.executor = executor;
+            this.lanes = lanes;
+            this.stride = width + padding * 2;
+            // the pixels a row reaches can be up to `padding` to either side, the rows must stay clear of each other
+            this.lag = padding * 2;
+        }
+
+        @Override
+        public void dither(int[] pixels, int height, byte[] out) {
+            if (height == 0)
+                return;
+            // the error rows are laid out one after another for the whole strip, starting with the ones carried over
+            int size = (height + rows - 1) * stride;
+            if (errorR.length < size) {
+                errorR = Arrays.copyOf(errorR, size);
+                errorG = Arrays.copyOf(errorG, size);
+                errorB = Arrays.copyOf(errorB, size);
+            }
+            Strip strip = new Strip(pixels, height, out);
+            for (int i = 1; i < Math.min(lanes, height); i++)
+                executor.execute(strip::work);
+            strip.work();
+            strip.await();
+
+            // keep the error that spilled past the strip for the next one
+            int carried = (rows - 1) * stride;
+            System.arraycopy(errorR, height * stride, errorR, 0, carried);
+            System.arraycopy(errorG, height * stride, errorG, 0, carried);
+            System.arraycopy(errorB, height * stride, errorB, 0, carried);
+            Arrays.fill(errorR, carried, size, 0);
+            Arrays.fill(errorG, carried, size, 0);
+            Arrays.fill(errorB, carried, size, 0);
+        }
+
+        /**
+         * The rows of one strip. Workers that start after the strip is done
+         * find no rows left and stop.
+         */
+        private final class Strip {
+            private final int[] pixels;
+            private final int height;
+            private final byte[] out;
+            private final AtomicInteger nextRow = new AtomicInteger();
+            /** How many pixels of each row are done. */
+            private final AtomicIntegerArray done;
+            private volatile Throwable failure;
+
+            private Strip(int[] pixels, int height, byte[] out) {
+                this.pixels = pixels;
+                this.height = height;
+                this.out = out;
+                this.done = new AtomicIntegerArray(height);
+            }
+
+            private void work() {
+                try {
+                    int[] rowTargets = new int[weights.length];
+                    int y;
+                    while ((y = nextRow.getAndIncrement()) < height) {
+                        for (int k = 0; k < weights.length; k++)
+                            rowTargets[k] = (y + offsetY[k]) * stride + padding + offsetX[k];
+                        for (int x = 0; x < width; x += WAVEFRONT_CHUNK) {
+                            int end = Math.min(width, x + WAVEFRONT_CHUNK);
+                            if (y > 0)
+                                waitFor(y - 1, Math.min(width, end + lag));
+                            ditherRun(pixels, y * width, x, end, false, y * stride + padding, rowTargets, errorR,
+                                    errorG, errorB, palette, out);
+                            done.set(y, end);
+                        }
+                    }
+                } catch (Throwable e) {
+                    if (failure == null)
+                        failure = e;
+                }
+            }
+
+            private void waitFor(int row, int pixels) {
+                for (int spins = 0; done.get(row) < pixels; spins++) {
+                    if (failure != null)
+                        throw new IllegalStateException("Another row failed", failure);
+                    pause(spins);
+                }
+            }
+
+            /**
+             * Waits for the rows other workers are still on. Rows finish in
+             * order, so that is when the last one is done.
+             */
+            private void await() {
+                for (int spins = 0; done.get(height - 1) < width && failure == null; spins++)
+                    pause(spins);
+                if (failure instanceof RuntimeException e)
+                    throw e;
+                if (failure instanceof Error e)
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Waits a moment for another row. The rows above are usually only a few
+     * pixels from being ready, but when there are more workers than free
+     * cores they need the core to get there.
+     */
+    private static void pause(int spins) {
+        if (spins < WAVEFRONT_SPINS)
+            Thread.onSpinWait();
+        else
+            Thread.yield();
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+}
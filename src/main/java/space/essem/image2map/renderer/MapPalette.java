@@ -0,0 +1,243 @@
+package space.essem.image2map.renderer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The map color palette together with a dense lookup table covering every
+ * 24-bit RGB value, so matching a pixel to a map color is a single array read.
+ */
+public class MapPalette {
+    public static final double[] SHADE_COEFFS = { 0.71, 0.86, 1.0, 0.53 };
+    public static final int SIZE = 256;
+    /**
+     * The base map colors of Minecraft 1.17, for building the palette without
+     * the game. In game the colors are always read from {@code MapColor}.
+     */
+    public static final int[] VANILLA_BASE_COLORS = { 0x000000, 0x7FB238, 0xF7E9A3, 0xC7C7C7, 0xFF0000,
+            0xA0A0FF, 0xA7A7A7, 0x007C00, 0xFFFFFF, 0xA4A8B8, 0x976D4D, 0x707070, 0x4040FF, 0x8F7748, 0xFFFCF5,
+            0xD87F33, 0xB24CD8, 0x6699D8, 0xE5E533, 0x7FCC19, 0xF27FA5, 0x4C4C4C, 0x999999, 0x4C7F99, 0x7F3FB2,
+            0x334CB2, 0x664C33, 0x667F33, 0x993333, 0x191919, 0xFAEE4D, 0x5CDBD5, 0x4A80FF, 0x00D93A, 0x815631,
+            0x700200, 0xD1B1A1, 0x9F5224, 0x95576C, 0x706C8A, 0xBA8524, 0x677535, 0xA04D4E, 0x392923, 0x876B62,
+            0x575C5C, 0x7A4958, 0x4C3E5C, 0x4C3223, 0x4C522A, 0x8E3C2E, 0x251610, 0xBD3031, 0x943F61, 0x5C191D,
+            0x167E86, 0x3A8E8C, 0x562C3E, 0x14B485, 0x646464, 0xD8AF93, 0x7FA796 };
+    private static final int FILE_VERSION = 3;
+    /**
+     * The darkest shade of black, used instead of the transparent color for
+     * opaque black pixels.
+     */
+    private static final byte OPAQUE_BLACK = (byte) 119;
+
+    /** Packed RGB for each map color index, or -1 if the index is unused. */
+    private final int[] colors;
+    private final ColorMetric metric;
+    private final byte[] lookup;
+    private final int hash;
+
+    private MapPalette(int[] colors, ColorMetric metric, byte[] lookup, int hash) {
+        this.colors = colors;
+        this.metric = metric;
+        this.lookup = lookup;
+        this.hash = hash;
+    }
+
+    public static MapPalette create(int[] baseColors, @Nullable Path cacheDir) {
+        return create(baseColors, ColorMetric.RGB, cacheDir);
+    }
+
+    /**
+     * Expands the base colors into all four shades and builds the lookup table.
+     *
+     * @param baseColors packed RGB base colors indexed by color id, -1 for unused ids
+     * @param metric     how pixels are matched to the closest color
+     * @param cacheDir   the directory the lookup table is cached in, or null to always rebuild
+     */
+    public static MapPalette create(int[] baseColors, ColorMetric metric, @Nullable Path cacheDir) {
+        return create(baseColors, metric, cacheDir, metric.getCandidates() == 1 && hasVectorApi());
+    }
+
+    /**
+     * @param vector whether to build the lookup table with {@link VectorPaletteSearch},
+     *               which gives the same table as the k-d tree
+     */
+    static MapPalette create(int[] baseColors, ColorMetric metric, @Nullable Path cacheDir, boolean vector) {
+        int[] colors = new int[SIZE];
+        Arrays.fill(colors, -1);
+        for (int id = 0; id < baseColors.length && id * SHADE_COEFFS.length < SIZE; id++) {
+            if (baseColors[id] == -1)
+                continue;
+            int r = (baseColors[id] >> 16) & 0xFF;
+            int g = (baseColors[id] >> 8) & 0xFF;
+            int b = baseColors[id] & 0xFF;
+            for (int shade = 0; shade < SHADE_COEFFS.length; shade++) {
+                double coeff = SHADE_COEFFS[shade];
+                int index = id * SHADE_COEFFS.length + shade;
+                colors[index] = ((int) (r * coeff) << 16) | ((int) (g * coeff) << 8) | (int) (b * coeff);
+            }
+        }
+        int hash = 31 * (31 * Arrays.hashCode(colors) + FILE_VERSION) + metric.getName().hashCode();
+        byte[] lookup = cacheDir == null ? null : readLookup(getCacheFile(cacheDir, hash));
+        if (lookup == null) {
+            lookup = buildLookup(colors, metric, vector);
+            if (lookup == null) {
+                // the Vector API couldn't be used after all
+                lookup = buildLookup(colors, metric, false);
+            }
+            if (cacheDir != null)
+                writeLookup(getCacheFile(cacheDir, hash), lookup);
+        }
+        return new MapPalette(colors, metric, lookup, hash);
+    }
+
+    private static Path getCacheFile(Path cacheDir, int hash) {
+        return cacheDir.resolve(String.format("palette-%08x.bin", hash));
+    }
+
+    /**
+     * @param vector whether to search with {@link VectorPaletteSearch}
+     * @return the table, or null if the Vector API turned out to be unusable
+     */
+    @Nullable
+    private static byte[] buildLookup(int[] colors, ColorMetric metric, boolean vector) {
+        // the transparent shades are all black, only the first one is kept so
+        // black always matches color 0 (see match)
+        int[] indices = IntStream.range(0, SIZE)
+                .filter(i -> colors[i] != -1 && Arrays.stream(colors, 0, i).noneMatch(rgb -> rgb == colors[i]))
+                .toArray();
+        float[][] points = new float[SIZE][];
+        float[][] indexPoints = new float[indices.length][];
+        for (int n = 0; n < indices.length; n++) {
+            int rgb = colors[indices[n]];
+            points[indices[n]] = new float[3];
+            metric.toCoordinates((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF, points[indices[n]]);
+            indexPoints[n] = points[indices[n]];
+        }
+        PaletteIndex index = new PaletteIndex(indexPoints, indices);
+
+        byte[] lookup = new byte[1 << 24];
+        if (vector) {
+            try {
+                VectorPaletteSearch search = new VectorPaletteSearch(indexPoints, indices);
+                IntStream.range(0, 256).parallel().forEach(r -> {
+                    float[] point = new float[3];
+                    float[][] row = new float[3][256];
+                    for (int g = 0; g < 256; g++) {
+                        for (int b = 0; b < 256; b++) {
+                            metric.toCoordinates(r, g, b, point);
+                            row[0][b] = point[0];
+                            row[1][b] = point[1];
+                            row[2][b] = point[2];
+                        }
+                        search.search(row[0], row[1], row[2], 256, lookup, (r << 16) | (g << 8));
+                    }
+                });
+                return lookup;
+            } catch (LinkageError e) {
+                // a Vector API that doesn't match the one this was built against, which can also
+                // fail the first time a method of it is called in a worker
+                return null;
+            }
+        }
+        int candidates = metric.getCandidates();
+        IntStream.range(0, 256).parallel().forEach(r -> {
+            PaletteIndex.Query query = index.newQuery(candidates);
+            float[] point = new float[3];
+            for (int g = 0; g < 256; g++) {
+                for (int b = 0; b < 256; b++) {
+                    metric.toCoordinates(r, g, b, point);
+                    index.search(query, point);
+                    int best = query.get(0);
+                    if (candidates > 1) {
+                        double lowest = Double.MAX_VALUE;
+                        for (int n = 0; n < query.size(); n++) {
+                            double distance = metric.distance(point, points[query.get(n)]);
+                            if (distance < lowest || distance == lowest && query.get(n) < best) {
+                                lowest = distance;
+                                best = query.get(n);
+                            }
+                        }
+                    }
+                    lookup[(r << 16) | (g << 8) | b] = (byte) best;
+                }
+            }
+        });
+        return lookup;
+    }
+
+    /**
+     * The Vector API searches every color, which is faster than the k-d tree
+     * on CPUs with wide vectors, but it can only be used when the JVM was
+     * started with {@code --add-modules jdk.incubator.vector}.
+     */
+    private static boolean hasVectorApi() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    @Nullable
+    private static byte[] readLookup(Path file) {
+        if (!Files.isRegularFile(file))
+            return null;
+        try (DataInputStream in = new DataInputStream(
+                new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file))))) {
+            byte[] lookup = new byte[1 << 24];
+            in.readFully(lookup);
+            return lookup;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeLookup(Path file, byte[] lookup) {
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.write(lookup);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Finds the map color closest to the given pixel.
+     *
+     * @param argb the pixel in ARGB format
+     * @return the map color index
+     */
+    public byte match(int argb) {
+        byte color = lookup[argb & 0xFFFFFF];
+        // todo: handle shading with alpha values other than 255
+        if (color == 0 && (argb >>> 24) == 255)
+            return OPAQUE_BLACK;
+        return color;
+    }
+
+    /**
+     * @return the packed RGB value of a map color index
+     */
+    public int getRGB(int color) {
+        return colors[color & 0xFF];
+    }
+
+    public ColorMetric getMetric() {
+        return metric;
+    }
+
+    public int hash() {
+        return hash;
+    }
+}
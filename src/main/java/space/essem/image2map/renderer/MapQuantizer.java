@@ -0,0 +1,104 @@
+package space.essem.image2map.renderer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import space.essem.image2map.stats.PipelineStats;
+
+/**
+ * Turns pixels into map colors. Nothing here depends on the game, so it can be
+ * used (and measured) without a running server.
+ */
+public class MapQuantizer {
+    /**
+     * Converts ARGB pixels into map colors.
+     *
+     * @param pixels the pixels, row by row
+     * @return the map color of each pixel
+     */
+    public static byte[] quantize(int[] pixels, int width, int height, Ditherer ditherer, MapPalette palette) {
+        if (pixels.length < width * height)
+            throw new IllegalArgumentException("expected " + width * height + " pixels, got " + pixels.length);
+        byte[] colors = new byte[width * height];
+        PipelineStats.Timer timer = PipelineStats.start(PipelineStats.Stage.DITHER);
+        ditherer.dither(pixels, width, height, palette, colors);
+        timer.stop((long) width * height);
+        return colors;
+    }
+
+    /**
+     * Converts an image of any size into the colors of a single map, stretching
+     * it to fit if it isn't already 128x128.
+     */
+    public static byte[] render(BufferedImage image, Ditherer ditherer, MapPalette palette) {
+        int[] pixels = getPixels(image);
+        if (image.getWidth() != 128 || image.getHeight() != 128) {
+            int[] scaled = new int[128 * 128];
+            Resampler.resample(pixels, image.getWidth(), image.getHeight(), scaled, 128, 128, 0, 0, 128, 128,
+                    ResampleFilter.AREA, null, 1);
+            pixels = scaled;
+        }
+        return quantize(pixels, 128, 128, ditherer, palette);
+    }
+
+    /**
+     * Converts a whole poster in a single pass over one flat pixel buffer.
+     *
+     * @param image the poster, exactly countX * 128 by countY * 128 pixels
+     * @return the colors of each map, indexed by {@code y * countX + x}
+     */
+    public static byte[][] renderCanvas(BufferedImage image, int countX, int countY, Ditherer ditherer,
+            MapPalette palette) {
+        int width = countX * 128;
+        int height = countY * 128;
+        int[] pixels = getPixels(image);
+        if (image.getWidth() != width || image.getHeight() != height)
+            throw new IllegalArgumentException("expected a " + width + "x" + height + " image");
+        return sliceTiles(quantize(pixels, width, height, ditherer, palette), countX, countY);
+    }
+
+    /**
+     * Splits the colors of a whole poster into the colors of each map.
+     *
+     * @return the colors of each map, indexed by {@code y * countX + x}
+     */
+    public static byte[][] sliceTiles(byte[] colors, int countX, int countY) {
+        int width = countX * 128;
+        byte[][] tiles = new byte[countX * countY][128 * 128];
+        for (int y = 0; y < countY * 128; y++) {
+            for (int tileX = 0; tileX < countX; tileX++) {
+                System.arraycopy(colors, y * width + tileX * 128, tiles[(y >> 7) * countX + tileX], (y & 127) * 128,
+                        128);
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Gets the ARGB pixels of an image. Images made by the resampler are
+     * backed by exactly that array, so theirs are returned without a copy and
+     * must not be modified.
+     */
+    public static int[] getPixels(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        // sub-images share their parent's buffer, so only a buffer that is exactly this image can be used
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && raster.getDataBuffer() instanceof DataBufferInt buffer
+                && buffer.getNumBanks() == 1 && buffer.getOffset() == 0 && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0 && buffer.getSize() == image.getWidth() * image.getHeight())
+            return buffer.getData();
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    /**
+     * Wraps ARGB pixels in an image without copying them.
+     */
+    public static BufferedImage toImage(int[] pixels, int width, int height) {
+        DataBufferInt buffer = new DataBufferInt(pixels, pixels.length);
+        WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width,
+                new int[] { 0xFF0000, 0xFF00, 0xFF, 0xFF000000 }, null);
+        return new BufferedImage(ColorModel.getRGBdefault(), raster, false, null);
+    }
+}
@@ -1,181 +1,181 @@
 package space.essem.image2map.renderer;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
+import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.block.MapColor;
 import net.minecraft.item.FilledMapItem;
 import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
 import net.minecraft.item.map.MapState;
 import net.minecraft.server.world.ServerWorld;
+import space.essem.image2map.Image2Map;
+import space.essem.image2map.MapIndexState;
 import space.essem.image2map.mixin.MapStateAccessor;
-
-import static space.essem.image2map.Image2Map.DitherMode;
+import space.essem.image2map.stats.PipelineStats;
 
 public class MapRenderer {
-    private static final double[] SHADE_COEFFS = { 0.71, 0.86, 1.0, 0.53 };
-
-    private static double distance(double[] vectorA, double[] vectorB) {
-        return Math.sqrt(Math.pow(vectorA[0] - vectorB[0], 2) + Math.pow(vectorA[1] - vectorB[1], 2)
-                + Math.pow(vectorA[2] - vectorB[2], 2));
-    }
+    private static final ConcurrentMap<ColorMetric, CompletableFuture<MapPalette>> PALETTES = new ConcurrentHashMap<>();
 
-    private static double[] applyShade(double[] color, int ind) {
-        double coeff = SHADE_COEFFS[ind];
-        return new double[] { color[0] * coeff, color[1] * coeff, color[2] * coeff };
+    /**
+     * Gets the vanilla map palette matched with the configured metric.
+     */
+    public static MapPalette getPalette() {
+        return getPalette(getDefaultMetric());
     }
 
-    public static ItemStack render(BufferedImage image, DitherMode mode, ServerWorld world, double x, double z) {
-        ItemStack stack = FilledMapItem.createMap(world, (int) x, (int) z, (byte) 3, false, false);
-        MapState state = FilledMapItem.getOrCreateMapState(stack, world);
-        ((MapStateAccessor) state).setLocked(true);
-        Image resizedImage = image.getScaledInstance(128, 128, Image.SCALE_DEFAULT);
-        BufferedImage resized = convertToBufferedImage(resizedImage);
-        int width = resized.getWidth();
-        int height = resized.getHeight();
-        int[][] pixels = convertPixelArray(resized);
-        MapColor[] mapColors = MapColor.COLORS;
-        Color imageColor;
-        mapColors = Arrays.stream(mapColors).filter(Objects::nonNull).toArray(MapColor[]::new);
-
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                imageColor = new Color(pixels[j][i], true);
-                if (mode.equals(DitherMode.FLOYD))
-                    state.colors[i + j * width] = (byte) floydDither(mapColors, pixels, i, j, imageColor);
-                else
-                    state.colors[i + j * width] = (byte) nearestColor(mapColors, imageColor);
+    /**
+     * Gets the vanilla map palette, building (or loading) its lookup table for
+     * the metric on first use. Only callers asking for a metric that is still
+     * being built wait for it.
+     */
+    public static MapPalette getPalette(ColorMetric metric) {
+        CompletableFuture<MapPalette> palette = PALETTES.get(metric);
+        if (palette == null) {
+            CompletableFuture<MapPalette> created = new CompletableFuture<>();
+            palette = PALETTES.computeIfAbsent(metric, key -> created);
+            if (palette == created) {
+                try {
+                    created.complete(createPalette(metric));
+                } catch (RuntimeException | Error e) {
+                    // let the next caller try again
+                    PALETTES.remove(metric, created);
+                    created.completeExceptionally(e);
+                    throw e;
+                }
             }
         }
-        return stack;
-    }
-
-    private static Color mapColorToRGBColor(MapColor[] colors, int color) {
-        Color mcColor = new Color(colors[color >> 2].color);
-        double[] mcColorVec = {
-                (double) mcColor.getRed(),
-                (double) mcColor.getGreen(),
-                (double) mcColor.getBlue()
-        };
-        double coeff = SHADE_COEFFS[color & 3];
-        return new Color((int) (mcColorVec[0] * coeff), (int) (mcColorVec[1] * coeff), (int) (mcColorVec[2] * coeff));
+        return palette.join();
     }
 
-    private static class NegatableColor {
-        public final int r;
-        public final int g;
-        public final int b;
-
-        public NegatableColor(int r, int g, int b) {
-            this.r = r;
-            this.g = g;
-            this.b = b;
+    private static MapPalette createPalette(ColorMetric metric) {
+        int[] baseColors = new int[MapColor.COLORS.length];
+        for (int i = 0; i < baseColors.length; i++) {
+            baseColors[i] = MapColor.COLORS[i] == null ? -1 : MapColor.COLORS[i].color;
         }
+        Path cacheDir = Image2Map.CONFIG.cachePalette
+                ? FabricLoader.getInstance().getConfigDir().resolve("image2map")
+                : null;
+        return MapPalette.create(baseColors, metric, cacheDir);
     }
 
-    private static int floydDither(MapColor[] mapColors, int[][] pixels, int x, int y, Color imageColor) {
-        int colorIndex = nearestColor(mapColors, imageColor);
-        Color palletedColor = mapColorToRGBColor(mapColors, colorIndex);
-        NegatableColor error = new NegatableColor(imageColor.getRed() - palletedColor.getRed(),
-                imageColor.getGreen() - palletedColor.getGreen(), imageColor.getBlue() - palletedColor.getBlue());
-        if (pixels[0].length > x + 1) {
-            Color pixelColor = new Color(pixels[y][x + 1], true);
-            pixels[y][x + 1] = applyError(pixelColor, error, 7.0 / 16.0);
-        }
-        if (pixels.length > y + 1) {
-            if (x > 0) {
-                Color pixelColor = new Color(pixels[y + 1][x - 1], true);
-                pixels[y + 1][x - 1] = applyError(pixelColor, error, 3.0 / 16.0);
-            }
-            Color pixelColor = new Color(pixels[y + 1][x], true);
-            pixels[y + 1][x] = applyError(pixelColor, error, 5.0 / 16.0);
-            if (pixels[0].length > x + 1) {
-                pixelColor = new Color(pixels[y + 1][x + 1], true);
-                pixels[y + 1][x + 1] = applyError(pixelColor, error, 1.0 / 16.0);
-            }
+    public static ColorMetric getDefaultMetric() {
+        ColorMetric metric = ColorMetric.byName(Image2Map.CONFIG.colorMetric);
+        if (metric == null) {
+            Image2Map.LOGGER.warn("Unknown color metric '{}', using rgb", Image2Map.CONFIG.colorMetric);
+            return ColorMetric.RGB;
         }
-
-        return colorIndex;
+        return metric;
     }
 
-    private static int applyError(Color pixelColor, NegatableColor error, double quantConst) {
-        int pR = clamp(pixelColor.getRed() + (int) ((double) error.r * quantConst), 0, 255);
-        int pG = clamp(pixelColor.getGreen() + (int) ((double) error.g * quantConst), 0, 255);
-        int pB = clamp(pixelColor.getBlue() + (int) ((double) error.b * quantConst), 0, 255);
-        return new Color(pR, pG, pB, pixelColor.getAlpha()).getRGB();
+    public static ItemStack render(BufferedImage image, Ditherer mode, ServerWorld world, double x, double z) {
+        return createMap(world, x, z, render(image, mode));
     }
 
-    private static int clamp(int i, int min, int max) {
-        if (min > max)
-            throw new IllegalArgumentException("max value cannot be less than min value");
-        if (i < min)
-            return min;
-        if (i > max)
-            return max;
-        return i;
+    /**
+     * Creates a locked map filled with the given colors, or reuses an existing
+     * map with exactly the same colors.
+     */
+    public static ItemStack createMap(ServerWorld world, double x, double z, byte[] colors) {
+        return createMap(world, x, z, colors, true);
     }
 
-    private static int nearestColor(MapColor[] colors, Color imageColor) {
-        double[] imageVec = { (double) imageColor.getRed() / 255.0, (double) imageColor.getGreen() / 255.0,
-                (double) imageColor.getBlue() / 255.0 };
-        int best_color = 0;
-        double lowest_distance = 10000;
-        for (int k = 0; k < colors.length; k++) {
-            Color mcColor = new Color(colors[k].color);
-            double[] mcColorVec = { (double) mcColor.getRed() / 255.0, (double) mcColor.getGreen() / 255.0,
-                    (double) mcColor.getBlue() / 255.0 };
-            for (int shadeInd = 0; shadeInd < SHADE_COEFFS.length; shadeInd++) {
-                double distance = distance(imageVec, applyShade(mcColorVec, shadeInd));
-                if (distance < lowest_distance) {
-                    lowest_distance = distance;
-                    // todo: handle shading with alpha values other than 255
-                    if (k == 0 && imageColor.getAlpha() == 255) {
-                        best_color = 119;
-                    } else {
-                        best_color = k * SHADE_COEFFS.length + shadeInd;
-                    }
-                }
+    /**
+     * Creates a locked map filled with the given colors.
+     *
+     * @param reuse whether an existing map with exactly the same colors can be
+     *              used instead, and whether the new map can be reused later
+     */
+    public static ItemStack createMap(ServerWorld world, double x, double z, byte[] colors, boolean reuse) {
+        PipelineStats.Timer timer = PipelineStats.start(PipelineStats.Stage.ALLOCATE);
+        MapIndexState index = reuse && Image2Map.CONFIG.reuseMaps ? MapIndexState.get(world) : null;
+        if (index != null) {
+            Integer id = index.find(world, colors);
+            if (id != null) {
+                PipelineStats.increment(PipelineStats.Counter.MAPS_REUSED);
+                timer.stop(colors.length);
+                return getMapItem(id);
             }
         }
-        return best_color;
+        ItemStack stack = FilledMapItem.createMap(world, (int) x, (int) z, (byte) 3, false, false);
+        MapState state = FilledMapItem.getOrCreateMapState(stack, world);
+        ((MapStateAccessor) state).setLocked(true);
+        System.arraycopy(colors, 0, state.colors, 0, state.colors.length);
+        state.markDirty();
+        int id = FilledMapItem.getMapId(stack);
+        MapIndexState.get(world).markCreated(id);
+        if (index != null)
+            index.put(colors, id);
+        PipelineStats.increment(PipelineStats.Counter.MAPS_CREATED);
+        timer.stop(colors.length);
+        return stack;
     }
 
-    private static int[][] convertPixelArray(BufferedImage image) {
-
-        final byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-        final int width = image.getWidth();
-        final int height = image.getHeight();
-
-        int[][] result = new int[height][width];
-        final int pixelLength = 4;
-        for (int pixel = 0, row = 0, col = 0; pixel + 3 < pixels.length; pixel += pixelLength) {
-            int argb = 0;
-            argb += (((int) pixels[pixel] & 0xff) << 24); // alpha
-            argb += ((int) pixels[pixel + 1] & 0xff); // blue
-            argb += (((int) pixels[pixel + 2] & 0xff) << 8); // green
-            argb += (((int) pixels[pixel + 3] & 0xff) << 16); // red
-            result[row][col] = argb;
-            col++;
-            if (col == width) {
-                col = 0;
-                row++;
-            }
+    /**
+     * Copies the rows of new colors that differ from a map's colors and marks
+     * the bounding box of the changes dirty, so viewers only receive that part.
+     *
+     * @param source       the new colors
+     * @param sourceOffset where the map's 128x128 colors start in {@code source}
+     * @return the number of pixels in the dirty rectangle
+     */
+    public static int updateColors(MapState state, byte[] source, int sourceOffset) {
+        byte[] colors = state.colors;
+        int minX = 128;
+        int maxX = -1;
+        int minY = -1;
+        int maxY = -1;
+        for (int y = 0; y < 128; y++) {
+            int row = y * 128;
+            int first = Arrays.mismatch(colors, row, row + 128, source, sourceOffset + row, sourceOffset + row + 128);
+            if (first == -1)
+                continue;
+            int last = 127;
+            while (colors[row + last] == source[sourceOffset + row + last])
+                last--;
+            System.arraycopy(source, sourceOffset + row + first, colors, row + first, last - first + 1);
+            minX = Math.min(minX, first);
+            maxX = Math.max(maxX, last);
+            if (minY == -1)
+                minY = y;
+            maxY = y;
         }
+        if (maxY == -1)
+            return 0;
+        // the update trackers grow their dirty rectangle to cover every marked pixel
+        ((MapStateAccessor) state).invokeMarkDirty(minX, minY);
+        ((MapStateAccessor) state).invokeMarkDirty(maxX, maxY);
+        return (maxX - minX + 1) * (maxY - minY + 1);
+    }
+
+    public static ItemStack getMapItem(int id) {
+        ItemStack stack = new ItemStack(Items.FILLED_MAP);
+        stack.getOrCreateTag().putInt("map", id);
+        return stack;
+    }
 
-        return result;
+    /**
+     * Converts an image into map colors. This doesn't touch any world state, so
+     * it is safe to call from any thread.
+     */
+    public static byte[] render(BufferedImage image, Ditherer mode) {
+        return MapQuantizer.render(image, mode, getPalette());
     }
 
-    public static BufferedImage convertToBufferedImage(Image image) {
-        BufferedImage newImage = new BufferedImage(image.getWidth(null), image.getHeight(null),
-                BufferedImage.TYPE_4BYTE_ABGR);
-        Graphics2D g = newImage.createGraphics();
-        g.drawImage(image, 0, 0, null);
-        g.dispose();
-        return newImage;
+    /**
+     * Converts a whole poster into map colors in a single pass over one flat
+     * pixel buffer, so dithering error carries across the borders between maps
+     * instead of stopping at the edge of each one.
+     *
+     * @param image the poster, exactly countX * 128 by countY * 128 pixels
+     * @return the colors of each map, indexed by {@code y * countX + x}
+     */
+    public static byte[][] renderCanvas(BufferedImage image, int countX, int countY, Ditherer mode) {
+        return MapQuantizer.renderCanvas(image, countX, countY, mode, getPalette());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,165 @@
+package space.essem.image2map.renderer;
+
+import java.util.Random;
+
+/**
+ * Dithers by nudging each pixel with a fixed threshold pattern tiled across
+ * the image. Pixels don't depend on each other, so any part of an image can be
+ * rendered on its own. Pattern sizes divide 128 so the pattern lines up across
+ * the maps of a poster.
+ */
+public class OrderedDitherer implements Ditherer {
+    private static final int SPREAD = 48;
+
+    private final String name;
+    private final int size;
+    private final int mask;
+    private final int[] offsets;
+
+    /**
+     * @param thresholds every rank from 0 to size * size - 1, in row-major order
+     * @param size       the width and height of the pattern, a power of two
+     */
+    public OrderedDitherer(String name, int[] thresholds, int size) {
+        this.name = name;
+        this.size = size;
+        this.mask = size - 1;
+        this.offsets = new int[thresholds.length];
+        int levels = thresholds.length;
+        for (int i = 0; i < levels; i++) {
+            // centre the pattern on zero so it doesn't brighten or darken the image
+            offsets[i] = (thresholds[i] * 2 + 1 - levels) * SPREAD / (levels * 2);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean diffusesError() {
+        return false;
+    }
+
+    @Override
+    public void dither(int[] pixels, int width, int height, MapPalette palette, byte[] out) {
+        for (int y = 0; y < height; y++) {
+            int patternRow = (y & mask) * size;
+            for (int x = 0; x < width; x++) {
+                int index = y * width + x;
+                int argb = pixels[index];
+                int offset = offsets[patternRow + (x & mask)];
+                int r = clamp(((argb >> 16) & 0xFF) + offset);
+                int g = clamp(((argb >> 8) & 0xFF) + offset);
+                int b = clamp((argb & 0xFF) + offset);
+                out[index] = palette.match((argb & 0xFF000000) | (r << 16) | (g << 8) | b);
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+
+    /**
+     * Builds a Bayer matrix by recursively interleaving the 2x2 one.
+     */
+    public static int[] bayer(int size) {
+        int[] matrix = { 0 };
+        for (int n = 1; n < size; n *= 2) {
+            int[] next = new int[n * n * 4];
+            for (int y = 0; y < n; y++) {
+                for (int x = 0; x < n; x++) {
+                    int value = matrix[y * n + x] * 4;
+                    next[y * n * 2 + x] = value;
+                    next[y * n * 2 + x + n] = value + 2;
+                    next[(y + n) * n * 2 + x] = value + 3;
+                    next[(y + n) * n * 2 + x + n] = value + 1;
+                }
+            }
+            matrix = next;
+        }
+        return matrix;
+    }
+
+    /**
+     * Builds a blue noise pattern with the void-and-cluster method, ranking
+     * each pixel by how far it is from the pixels ranked before it.
+     */
+    public static int[] blueNoise(int size) {
+        int count = size * size;
+        double[] gaussian = new double[count];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                // distances wrap around so the pattern tiles without seams
+                int dx = Math.min(x, size - x);
+                int dy = Math.min(y, size - y);
+                gaussian[y * size + x] = Math.exp(-(dx * dx + dy * dy) / (2 * 1.9 * 1.9));
+            }
+        }
+
+        boolean[] pattern = new boolean[count];
+        double[] energy = new double[count];
+        Random random = new Random(0x1ACE5EEDL);
+        int ones = count / 10;
+        for (int placed = 0; placed < ones; ) {
+            int i = random.nextInt(count);
+            if (!pattern[i]) {
+                pattern[i] = true;
+                updateEnergy(energy, gaussian, size, i, 1);
+                placed++;
+            }
+        }
+        // move the tightest cluster into the largest void until the points are evenly spread
+        while (true) {
+            int cluster = extreme(energy, pattern, true, true);
+            pattern[cluster] = false;
+            updateEnergy(energy, gaussian, size, cluster, -1);
+            int gap = extreme(energy, pattern, false, false);
+            pattern[gap] = true;
+            updateEnergy(energy, gaussian, size, gap, 1);
+            if (gap == cluster)
+                break;
+        }
+
+        int[] ranks = new int[count];
+        boolean[] removing = pattern.clone();
+        double[] removingEnergy = energy.clone();
+        for (int rank = ones - 1; rank >= 0; rank--) {
+            int cluster = extreme(removingEnergy, removing, true, true);
+            removing[cluster] = false;
+            updateEnergy(removingEnergy, gaussian, size, cluster, -1);
+            ranks[cluster] = rank;
+        }
+        for (int rank = ones; rank < count; rank++) {
+            int gap = extreme(energy, pattern, false, false);
+            pattern[gap] = true;
+            updateEnergy(energy, gaussian, size, gap, 1);
+            ranks[gap] = rank;
+        }
+        return ranks;
+    }
+
+    private static void updateEnergy(double[] energy, double[] gaussian, int size, int index, int sign) {
+        int px = index % size;
+        int py = index / size;
+        for (int y = 0; y < size; y++) {
+            int gy = ((y - py) & (size - 1)) * size;
+            for (int x = 0; x < size; x++) {
+                energy[y * size + x] += sign * gaussian[gy + ((x - px) & (size - 1))];
+            }
+        }
+    }
+
+    private static int extreme(double[] energy, boolean[] pattern, boolean set, boolean highest) {
+        int best = -1;
+        for (int i = 0; i < energy.length; i++) {
+            if (pattern[i] != set)
+                continue;
+            if (best == -1 || (highest ? energy[i] > energy[best] : energy[i] < energy[best]))
+                best = i;
+        }
+        return best;
+    }
+}
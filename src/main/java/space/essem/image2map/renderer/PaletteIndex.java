@@ -0,0 +1,148 @@
+package space.essem.image2map.renderer;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A k-d tree over palette colors placed in the space of a {@link ColorMetric},
+ * so the closest colors to a point are found after looking at a handful of
+ * colors instead of all of them.
+ * <p>
+ * The tree is kept implicit: the node for a range of the arrays is its middle
+ * element, with the smaller half of the range to its left.
+ */
+public class PaletteIndex {
+    private final float[] coordinates;
+    private final int[] colors;
+    private final byte[] axes;
+
+    /**
+     * @param points the coordinates of each color, 3 per color
+     * @param colors the map color index of each point
+     */
+    public PaletteIndex(float[][] points, int[] colors) {
+        int count = colors.length;
+        this.coordinates = new float[count * 3];
+        this.colors = new int[count];
+        this.axes = new byte[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        build(points, colors, order, 0, count);
+    }
+
+    private void build(float[][] points, int[] sourceColors, Integer[] order, int from, int to) {
+        if (from >= to)
+            return;
+        // split along the axis the colors in this range are most spread out on
+        int axis = 0;
+        float widest = -1;
+        for (int a = 0; a < 3; a++) {
+            float min = Float.MAX_VALUE;
+            float max = -Float.MAX_VALUE;
+            for (int i = from; i < to; i++) {
+                min = Math.min(min, points[order[i]][a]);
+                max = Math.max(max, points[order[i]][a]);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                axis = a;
+            }
+        }
+        int splitAxis = axis;
+        Arrays.sort(order, from, to, Comparator.comparingDouble(i -> points[i][splitAxis]));
+
+        int mid = (from + to) >>> 1;
+        System.arraycopy(points[order[mid]], 0, coordinates, mid * 3, 3);
+        colors[mid] = sourceColors[order[mid]];
+        axes[mid] = (byte) axis;
+        build(points, sourceColors, order, from, mid);
+        build(points, sourceColors, order, mid + 1, to);
+    }
+
+    /**
+     * Creates the reusable state for searches. A query must only be used by
+     * one thread at a time.
+     *
+     * @param count how many of the closest colors to find
+     */
+    public Query newQuery(int count) {
+        return new Query(Math.min(count, colors.length));
+    }
+
+    /**
+     * Finds the closest colors to a point, in order of distance. Colors at the
+     * same distance are in order of their map color index, so exact ties go
+     * to the lowest one.
+     */
+    public void search(Query query, float[] point) {
+        query.size = 0;
+        search(query, point, 0, colors.length);
+    }
+
+    private void search(Query query, float[] point, int from, int to) {
+        if (from >= to)
+            return;
+        int mid = (from + to) >>> 1;
+        float d0 = point[0] - coordinates[mid * 3];
+        float d1 = point[1] - coordinates[mid * 3 + 1];
+        float d2 = point[2] - coordinates[mid * 3 + 2];
+        query.offer(colors[mid], d0 * d0 + d1 * d1 + d2 * d2);
+
+        // the other side can still hold a color that is as close, but with a lower index
+        float diff = point[axes[mid]] - coordinates[mid * 3 + axes[mid]];
+        if (diff < 0) {
+            search(query, point, from, mid);
+            if (diff * diff <= query.worst())
+                search(query, point, mid + 1, to);
+        } else {
+            search(query, point, mid + 1, to);
+            if (diff * diff <= query.worst())
+                search(query, point, from, mid);
+        }
+    }
+
+    public static class Query {
+        private final int[] colors;
+        private final float[] distances;
+        private int size;
+
+        private Query(int count) {
+            this.colors = new int[count];
+            this.distances = new float[count];
+        }
+
+        /**
+         * @return how many colors the last search found
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the map color index of the n-th closest color
+         */
+        public int get(int n) {
+            return colors[n];
+        }
+
+        private float worst() {
+            return size < colors.length ? Float.MAX_VALUE : distances[size - 1];
+        }
+
+        private void offer(int color, float distance) {
+            if (size == colors.length && (distance > distances[size - 1]
+                    || distance == distances[size - 1] && color > colors[size - 1]))
+                return;
+            int i = size < colors.length ? size++ : size - 1;
+            // insertion sort, there are only ever a few results
+            while (i > 0 && (distances[i - 1] > distance || distances[i - 1] == distance && colors[i - 1] > color)) {
+                colors[i] = colors[i - 1];
+                distances[i] = distances[i - 1];
+                i--;
+            }
+            colors[i] = color;
+            distances[i] = distance;
+        }
+    }
+}
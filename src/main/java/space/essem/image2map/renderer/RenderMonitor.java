@@ -0,0 +1,35 @@
+package space.essem.image2map.renderer;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets whoever started a render follow its progress and stop it early.
+ * Methods are called from the render workers, so they must be thread safe.
+ */
+public interface RenderMonitor {
+    /** Ignores progress and never cancels. */
+    RenderMonitor NONE = new RenderMonitor() {
+    };
+
+    /**
+     * Sets how many tiles the render will finish in total, if that turns out
+     * to differ from the number of maps (an animation renders every frame).
+     */
+    default void setTiles(int tiles) {
+    }
+
+    default void tilesDone(int count) {
+    }
+
+    default boolean isCancelled() {
+        return false;
+    }
+
+    /**
+     * @throws CancellationException if the render should stop
+     */
+    default void checkCancelled() {
+        if (isCancelled())
+            throw new CancellationException();
+    }
+}
@@ -0,0 +1,177 @@
+package space.essem.image2map.renderer;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import space.essem.image2map.Image2Map;
+import space.essem.image2map.stats.PipelineStats;
+
+/**
+ * The worker pool shared by every map creation job. Its size caps how many
+ * tiles are rendered at once across all jobs, while each job can be limited to
+ * a smaller number of workers so several jobs make progress together.
+ */
+public class RenderWorkers {
+    public static final int SECTION_SIZE = 128;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static ExecutorService executor;
+    private static ExecutorService downloadExecutor;
+
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(getThreadCount(), runnable -> {
+                Thread thread = new Thread(runnable, "Image2Map Render Worker #" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                // leave the server thread ahead of us when the cores are busy
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * @return the pool downloads run on, kept apart from the render workers so
+     *         slow hosts can't hold up rendering
+     */
+    public static synchronized ExecutorService getDownloadExecutor() {
+        if (downloadExecutor == null) {
+            downloadExecutor = Executors.newFixedThreadPool(Math.max(1, Image2Map.CONFIG.downloadThreads), runnable -> {
+                Thread thread = new Thread(runnable, "Image2Map Download Worker #" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return downloadExecutor;
+    }
+
+    public static int getThreadCount() {
+        if (Image2Map.CONFIG.renderThreads > 0)
+            return Image2Map.CONFIG.renderThreads;
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * @return how many render tasks are waiting for a free worker
+     */
+    public static synchronized int getQueuedTasks() {
+        return executor instanceof ThreadPoolExecutor pool ? pool.getQueue().size() : 0;
+    }
+
+    public static synchronized int getActiveWorkers() {
+        return executor instanceof ThreadPoolExecutor pool ? pool.getActiveCount() : 0;
+    }
+
+    /**
+     * @return the number of workers a single job may use unless it asks for fewer
+     */
+    public static int getDefaultParallelism() {
+        int perJob = Image2Map.CONFIG.maxThreadsPerJob;
+        return perJob > 0 ? Math.min(perJob, getThreadCount()) : getThreadCount();
+    }
+
+    /**
+     * Scales an image onto a poster and renders it into map colors one row of
+     * maps at a time, so the scaled poster is never held in memory as a whole.
+     * Only a strip of 128 rows per worker is.
+     *
+     * @param pixels      the ARGB pixels of the source image, which are only read
+     * @param area        where the source image goes on the countX * 128 by
+     *                    countY * 128 poster, see {@link Resampler#resample}
+     * @param seamless    whether error diffusion carries across the borders
+     *                    between maps, which renders the rows of maps one after
+     *                    another, each with several workers where the mode
+     *                    allows it
+     * @param executor    the executor the strips are rendered on
+     * @param parallelism the maximum number of workers of this job at once
+     * @param monitor     told about each finished row of maps, and checked
+     *                    before each one is started
+     * @return the colors of each map, indexed by {@code y * countX + x}
+     */
+    public static CompletableFuture<byte[][]> renderStrips(int[] pixels, int width, int height, Rectangle area,
+            int countX, int countY, ResampleFilter filter, Ditherer mode, MapPalette palette, boolean seamless,
+            Executor executor, int parallelism, RenderMonitor monitor) {
+        byte[][] result = new byte[countX * countY][];
+        if (seamless && mode.diffusesError()) {
+            // each strip needs the error left over from the one above it, so the strips go one at a time and
+            // the work within each one is split up
+            return CompletableFuture.supplyAsync(() -> {
+                Ditherer.Strips strips = mode.startStrips(countX * SECTION_SIZE, palette, executor, parallelism);
+                int[] strip = new int[countX * SECTION_SIZE * SECTION_SIZE];
+                byte[] colors = new byte[strip.length];
+                for (int y = 0; y < countY; y++) {
+                    monitor.checkCancelled();
+                    scaleStrip(pixels, width, height, area, countX, y, filter, strip, executor, parallelism);
+                    PipelineStats.Timer timer = PipelineStats.start(PipelineStats.Stage.DITHER);
+                    strips.dither(strip, SECTION_SIZE, colors);
+                    timer.stop(strip.length);
+                    sliceStrip(colors, countX, y, result);
+                    monitor.tilesDone(countX);
+                }
+                return result;
+            }, executor);
+        }
+
+        AtomicInteger nextStrip = new AtomicInteger();
+        CompletableFuture<?>[] lanes = new CompletableFuture[Math.max(1, Math.min(parallelism, countY))];
+        // a short poster leaves workers over, which help with the scaling
+        int scaleParallelism = Math.max(1, parallelism / lanes.length);
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = CompletableFuture.runAsync(() -> {
+                int[] strip = new int[countX * SECTION_SIZE * SECTION_SIZE];
+                int[] tilePixels = mode.diffusesError() ? new int[SECTION_SIZE * SECTION_SIZE] : null;
+                int y;
+                while ((y = nextStrip.getAndIncrement()) < countY) {
+                    monitor.checkCancelled();
+                    scaleStrip(pixels, width, height, area, countX, y, filter, strip, executor, scaleParallelism);
+                    if (tilePixels == null) {
+                        // patterns line up with every map, so the whole strip can be done at once
+                        byte[] colors = MapQuantizer.quantize(strip, countX * SECTION_SIZE, SECTION_SIZE, mode,
+                                palette);
+                        sliceStrip(colors, countX, y, result);
+                    } else {
+                        for (int x = 0; x < countX; x++) {
+                            for (int row = 0; row < SECTION_SIZE; row++) {
+                                System.arraycopy(strip, (row * countX + x) * SECTION_SIZE, tilePixels,
+                                        row * SECTION_SIZE, SECTION_SIZE);
+                            }
+                            result[y * countX + x] = MapQuantizer.quantize(tilePixels, SECTION_SIZE, SECTION_SIZE,
+                                    mode, palette);
+                        }
+                    }
+                    monitor.tilesDone(countX);
+                }
+            }, executor);
+        }
+        return CompletableFuture.allOf(lanes).thenApply(v -> result);
+    }
+
+    /**
+     * Scales the rows of the poster that make up one row of maps into a
+     * transparent strip.
+     */
+    private static void scaleStrip(int[] pixels, int width, int height, Rectangle area, int countX, int y,
+            ResampleFilter filter, int[] strip, Executor executor, int parallelism) {
+        PipelineStats.Timer timer = PipelineStats.start(PipelineStats.Stage.SCALE);
+        Arrays.fill(strip, 0);
+        Resampler.resampleRows(pixels, width, height, strip, countX * SECTION_SIZE, y * SECTION_SIZE, SECTION_SIZE,
+                area.x, area.y, area.width, area.height, filter, executor, parallelism);
+        timer.stop(strip.length);
+    }
+
+    private static void sliceStrip(byte[] colors, int countX, int y, byte[][] result) {
+        for (int x = 0; x < countX; x++) {
+            byte[] tile = new byte[SECTION_SIZE * SECTION_SIZE];
+            for (int row = 0; row < SECTION_SIZE; row++) {
+                System.arraycopy(colors, (row * countX + x) * SECTION_SIZE, tile, row * SECTION_SIZE, SECTION_SIZE);
+            }
+            result[y * countX + x] = tile;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package space.essem.image2map.renderer;
+
+import java.util.Locale;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The filters images can be resized with. Each is a kernel over the distance
+ * to a sample, which is stretched to cover more source pixels when shrinking.
+ */
+public enum ResampleFilter {
+    /** Averages the source pixels covered by each output pixel. */
+    AREA(0.5) {
+        @Override
+        double weight(double x) {
+            return Math.abs(x) <= 0.5 ? 1 : 0;
+        }
+    },
+    BILINEAR(1) {
+        @Override
+        double weight(double x) {
+            x = Math.abs(x);
+            return x < 1 ? 1 - x : 0;
+        }
+    },
+    /** Three-lobed Lanczos, the sharpest of the filters. */
+    LANCZOS(3) {
+        @Override
+        double weight(double x) {
+            if (x == 0)
+                return 1;
+            if (Math.abs(x) >= 3)
+                return 0;
+            double px = Math.PI * x;
+            return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+        }
+    };
+
+    private final double support;
+
+    ResampleFilter(double support) {
+        this.support = support;
+    }
+
+    /**
+     * @return how far from a sample the kernel reaches, in source pixels when
+     *         not shrinking
+     */
+    double getSupport() {
+        return support;
+    }
+
+    abstract double weight(double x);
+
+    /**
+     * @return the name the filter is selected by in the config
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    @Nullable
+    public static ResampleFilter byName(String name) {
+        for (ResampleFilter filter : values()) {
+            if (filter.getName().equalsIgnoreCase(name))
+                return filter;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,196 @@
+package space.essem.image2map.renderer;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Resizes ARGB rasters in a single separable pass. Each output row is built by
+ * blending the source rows under the filter into one row of premultiplied
+ * sums, which is then filtered horizontally, so memory stays at one source row
+ * per thread no matter how big the images are.
+ */
+public class Resampler {
+    /** Output rows handed to a worker at a time. */
+    private static final int BAND_HEIGHT = 16;
+
+    /**
+     * Scales a source raster to width by height and draws it at (x, y) on the
+     * destination, clipping anything outside of it. Destination pixels that
+     * aren't covered are left untouched.
+     *
+     * @param executor    runs bands of rows in parallel, or null to scale on the
+     *                    calling thread only
+     * @param parallelism the maximum number of threads used, including the
+     *                    calling thread
+     */
+    public static void resample(int[] src, int srcWidth, int srcHeight, int[] dst, int dstWidth, int dstHeight,
+            int x, int y, int width, int height, ResampleFilter filter, @Nullable Executor executor,
+            int parallelism) {
+        resampleRows(src, srcWidth, srcHeight, dst, dstWidth, 0, dstHeight, x, y, width, height, filter, executor,
+                parallelism);
+    }
+
+    /**
+     * Like {@link #resample}, but only produces some rows of the destination,
+     * so a big destination can be made a strip at a time.
+     *
+     * @param dst      receives rows firstRow to firstRow + rowCount of the
+     *                 destination, starting at index 0
+     * @param firstRow the first destination row to produce
+     * @param rowCount the number of rows to produce
+     */
+    public static void resampleRows(int[] src, int srcWidth, int srcHeight, int[] dst, int dstWidth, int firstRow,
+            int rowCount, int x, int y, int width, int height, ResampleFilter filter, @Nullable Executor executor,
+            int parallelism) {
+        int fromX = Math.max(0, x);
+        int toX = Math.min(dstWidth, x + width);
+        int fromY = Math.max(firstRow, y);
+        int toY = Math.min(firstRow + rowCount, y + height);
+        if (fromX >= toX || fromY >= toY)
+            return;
+
+        Weights columns = new Weights(filter, srcWidth, width, fromX - x, toX - x);
+        Weights rows = new Weights(filter, srcHeight, height, fromY - y, toY - y);
+        int bands = (toY - fromY + BAND_HEIGHT - 1) / BAND_HEIGHT;
+        AtomicInteger nextBand = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(bands);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            float[] sums = new float[srcWidth * 4];
+            int band;
+            while ((band = nextBand.getAndIncrement()) < bands) {
+                try {
+                    int start = fromY + band * BAND_HEIGHT;
+                    int end = Math.min(toY, start + BAND_HEIGHT);
+                    for (int row = start; row < end; row++) {
+                        sumRows(src, srcWidth, rows, row - fromY, sums);
+                        filterRow(sums, columns, dst, (row - firstRow) * dstWidth + fromX);
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+
+        if (executor != null) {
+            // helpers that start after every band is taken just return, so
+            // waiting below never depends on a task that hasn't started yet
+            for (int i = 1; i < Math.min(parallelism, bands); i++)
+                executor.execute(worker);
+        }
+        worker.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while resampling", e);
+        }
+        if (failure.get() != null)
+            throw failure.get();
+    }
+
+    /**
+     * Blends the source rows under the filter for one output row into
+     * premultiplied alpha, red, green and blue sums per source column.
+     */
+    private static void sumRows(int[] src, int srcWidth, Weights rows, int index, float[] sums) {
+        Arrays.fill(sums, 0);
+        int first = rows.starts[index];
+        int offset = index * rows.maxTaps;
+        for (int tap = 0; tap < rows.counts[index]; tap++) {
+            float weight = rows.weights[offset + tap];
+            int rowStart = (first + tap) * srcWidth;
+            for (int column = 0, s = 0; column < srcWidth; column++, s += 4) {
+                int argb = src[rowStart + column];
+                float alpha = (argb >>> 24) * weight;
+                sums[s] += alpha;
+                sums[s + 1] += ((argb >> 16) & 0xFF) * alpha;
+                sums[s + 2] += ((argb >> 8) & 0xFF) * alpha;
+                sums[s + 3] += (argb & 0xFF) * alpha;
+            }
+        }
+    }
+
+    private static void filterRow(float[] sums, Weights columns, int[] dst, int dstOffset) {
+        for (int i = 0; i < columns.counts.length; i++) {
+            int s = columns.starts[i] * 4;
+            int offset = i * columns.maxTaps;
+            float a = 0;
+            float r = 0;
+            float g = 0;
+            float b = 0;
+            for (int tap = 0; tap < columns.counts[i]; tap++, s += 4) {
+                float weight = columns.weights[offset + tap];
+                a += sums[s] * weight;
+                r += sums[s + 1] * weight;
+                g += sums[s + 2] * weight;
+                b += sums[s + 3] * weight;
+            }
+            if (a <= 0) {
+                dst[dstOffset + i] = 0;
+                continue;
+            }
+            // undo the premultiplication, lanczos can overshoot so everything is clamped
+            dst[dstOffset + i] = (clamp(a) << 24) | (clamp(r / a) << 16) | (clamp(g / a) << 8) | clamp(b / a);
+        }
+    }
+
+    private static int clamp(float value) {
+        int rounded = Math.round(value);
+        return rounded < 0 ? 0 : Math.min(rounded, 255);
+    }
+
+    /**
+     * The source pixels and their weights for each output pixel along one axis.
+     */
+    private static class Weights {
+        final int[] starts;
+        final int[] counts;
+        final float[] weights;
+        final int maxTaps;
+
+        /**
+         * @param from the first output pixel that is needed
+         * @param to   the output pixel after the last one that is needed
+         */
+        Weights(ResampleFilter filter, int srcSize, int dstSize, int from, int to) {
+            double scale = (double) dstSize / srcSize;
+            // when shrinking, the kernel is stretched over all the source pixels an output pixel covers
+            double stretch = Math.max(1, 1 / scale);
+            double support = filter.getSupport() * stretch;
+            int count = to - from;
+            this.maxTaps = (int) Math.ceil(support * 2) + 2;
+            this.starts = new int[count];
+            this.counts = new int[count];
+            this.weights = new float[count * maxTaps];
+
+            for (int i = 0; i < count; i++) {
+                double center = (from + i + 0.5) / scale;
+                int start = Math.max(0, (int) Math.floor(center - support));
+                int end = Math.min(srcSize, (int) Math.ceil(center + support));
+                double total = 0;
+                int taps = 0;
+                for (int j = start; j < end && taps < maxTaps; j++)
+                    total += weights[i * maxTaps + taps++] = (float) filter.weight((j + 0.5 - center) / stretch);
+                if (total == 0) {
+                    // nothing under the kernel, fall back to the nearest pixel
+                    start = Math.min(srcSize - 1, Math.max(0, (int) center));
+                    taps = 1;
+                    weights[i * maxTaps] = 1;
+                    total = 1;
+                }
+                for (int tap = 0; tap < taps; tap++)
+                    weights[i * maxTaps + tap] /= total;
+                starts[i] = start;
+                counts[i] = taps;
+            }
+        }
+    }
+}
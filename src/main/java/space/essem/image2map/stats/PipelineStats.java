@@ -0,0 +1,155 @@
+package space.essem.image2map.stats;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonObject;
+import jdk.jfr.Event;
+
+/**
+ * Timings and counters for every stage of turning an image into maps. Stages
+ * can run on any thread, and each timing is also recorded as a JFR event.
+ */
+public class PipelineStats {
+    private static final StageStats[] STAGES = new StageStats[Stage.values().length];
+    private static final LongAdder[] COUNTERS = new LongAdder[Counter.values().length];
+    private static final long STARTED = System.currentTimeMillis();
+
+    static {
+        for (int i = 0; i < STAGES.length; i++)
+            STAGES[i] = new StageStats();
+        for (int i = 0; i < COUNTERS.length; i++)
+            COUNTERS[i] = new LongAdder();
+    }
+
+    public enum Stage {
+        /** Downloading or reading the source file. */
+        FETCH,
+        DECODE,
+        /** Resampling onto the map canvas. */
+        SCALE,
+        /** Turning a whole canvas into map colors, including waiting for workers. */
+        QUANTIZE,
+        /** Time spent inside ditherers, summed over all workers. */
+        DITHER,
+        /** Creating maps, or finding an identical one to reuse, on the server thread. */
+        ALLOCATE,
+        /** From a finished render being queued to the player having their maps. */
+        DELIVER;
+
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public enum Counter {
+        JOBS_STARTED,
+        JOBS_FINISHED,
+        JOBS_FAILED,
+        JOBS_CANCELLED,
+        MAPS_CREATED,
+        MAPS_REUSED,
+        MAPS_UPDATED,
+        MAP_SYNCS_SENT,
+        MAP_SYNCS_SKIPPED;
+
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static class StageStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final LongAdder pixels = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+    }
+
+    /**
+     * A running measurement of one stage. It can be stopped on a different
+     * thread than the one that started it.
+     */
+    public static final class Timer {
+        private final Stage stage;
+        private final Event event = JfrEvents.beginStage();
+        private final long start = System.nanoTime();
+
+        private Timer(Stage stage) {
+            this.stage = stage;
+        }
+
+        public void stop() {
+            stop(0, 0);
+        }
+
+        public void stop(long pixels) {
+            stop(pixels, 0);
+        }
+
+        public void stop(long pixels, long bytes) {
+            long elapsed = System.nanoTime() - start;
+            StageStats stats = STAGES[stage.ordinal()];
+            stats.count.increment();
+            stats.nanos.add(elapsed);
+            stats.maxNanos.accumulate(elapsed);
+            stats.pixels.add(pixels);
+            stats.bytes.add(bytes);
+            JfrEvents.endStage(event, stage.getName(), pixels, bytes);
+        }
+    }
+
+    public static Timer start(Stage stage) {
+        return new Timer(stage);
+    }
+
+    public static void increment(Counter counter) {
+        COUNTERS[counter.ordinal()].increment();
+    }
+
+    public static long get(Counter counter) {
+        return COUNTERS[counter.ordinal()].sum();
+    }
+
+    /**
+     * @return how many times a stage has run, used to tell whether anything
+     *         happened since the stats were last looked at
+     */
+    public static long getRuns(Stage stage) {
+        return STAGES[stage.ordinal()].count.sum();
+    }
+
+    /**
+     * @return the stage timings and counters, with times in milliseconds
+     */
+    public static JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("uptimeSeconds", (System.currentTimeMillis() - STARTED) / 1000);
+        JsonObject stages = new JsonObject();
+        for (Stage stage : Stage.values()) {
+            StageStats stats = STAGES[stage.ordinal()];
+            long count = stats.count.sum();
+            JsonObject entry = new JsonObject();
+            entry.addProperty("count", count);
+            entry.addProperty("totalMs", round(stats.nanos.sum() / 1e6));
+            entry.addProperty("avgMs", count == 0 ? 0 : round(stats.nanos.sum() / 1e6 / count));
+            entry.addProperty("maxMs", round(stats.maxNanos.get() / 1e6));
+            if (stats.pixels.sum() > 0)
+                entry.addProperty("pixels", stats.pixels.sum());
+            if (stats.bytes.sum() > 0)
+                entry.addProperty("bytes", stats.bytes.sum());
+            stages.add(stage.getName(), entry);
+        }
+        json.add("stages", stages);
+        JsonObject counters = new JsonObject();
+        for (Counter counter : Counter.values())
+            counters.addProperty(counter.getName(), get(counter));
+        json.add("counters", counters);
+        return json;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,70 @@
+package space.essem.image2map.animation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FrameWriterTest {
+    @TempDir
+    Path directory;
+
+    private static byte[][] frame(int frame, int maps) {
+        byte[][] tiles = new byte[maps][MapAnimation.MAP_SIZE];
+        for (int map = 0; map < maps; map++)
+            Arrays.fill(tiles[map], (byte) (frame * maps + map));
+        return tiles;
+    }
+
+    @Test
+    void framesAreReadBackOneMapAtATime() throws IOException {
+        int maps = 3;
+        int frames = 4;
+        Path file;
+        try (FrameWriter writer = new FrameWriter(directory.resolve("a/b.frames"), maps)) {
+            for (int frame = 0; frame < frames; frame++)
+                writer.write(frame(frame, maps));
+            file = writer.finish();
+        }
+        MapAnimation animation = new MapAnimation(new int[] { 5, 6, 7 }, new int[frames], file);
+        assertEquals(Files.size(file), animation.getSize());
+
+        byte[] colors = new byte[MapAnimation.MAP_SIZE];
+        for (int frame = frames - 1; frame >= 0; frame--) {
+            for (int map = 0; map < maps; map++) {
+                animation.readFrame(frame, map, colors);
+                assertArrayEquals(frame(frame, maps)[map], colors);
+            }
+        }
+        animation.close();
+    }
+
+    @Test
+    void unfinishedFilesAreDeleted() throws IOException {
+        Path file = directory.resolve("c.frames");
+        try (FrameWriter writer = new FrameWriter(file, 1)) {
+            writer.write(frame(0, 1));
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void shortFilesFailToRead() throws IOException {
+        Path file;
+        try (FrameWriter writer = new FrameWriter(directory.resolve("d.frames"), 2)) {
+            writer.write(frame(0, 2));
+            file = writer.finish();
+        }
+        MapAnimation animation = new MapAnimation(new int[] { 1, 2 }, new int[2], file);
+        assertThrows(IOException.class, () -> animation.readFrame(1, 0, new byte[MapAnimation.MAP_SIZE]));
+        animation.close();
+    }
+}
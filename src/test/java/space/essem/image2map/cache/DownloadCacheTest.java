@@ -0,0 +1,158 @@
+package space.essem.image2map.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownloadCacheTest {
+    private static final byte[] IMAGE = "not really an image".getBytes(StandardCharsets.UTF_8);
+    private static final String ETAG = "\"v1\"";
+
+    @TempDir
+    Path directory;
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/image", this::serveImage);
+        server.createContext("/big", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, 4096);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(new byte[4096]);
+            }
+        });
+        server.createContext("/big-chunked", exchange -> {
+            requests.incrementAndGet();
+            // no length up front, so only reading the body shows it's too big
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(new byte[4096]);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, IMAGE.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                Thread.sleep(2000);
+                out.write(IMAGE);
+            } catch (InterruptedException | IOException ignored) {
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void serveImage(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, IMAGE.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(IMAGE);
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private DownloadCache cache(long freshMillis, int readTimeout, int maxDownloadBytes) {
+        return new DownloadCache(directory, 1024 * 1024, 16, freshMillis, 1000, readTimeout, maxDownloadBytes);
+    }
+
+    @Test
+    void freshEntriesAreServedWithoutARequest() throws IOException {
+        DownloadCache cache = cache(60_000, 1000, 1024);
+        DownloadCache.Download first = cache.fetch(url("/image"));
+        DownloadCache.Download second = cache.fetch(url("/image"));
+
+        assertArrayEquals(IMAGE, first.bytes());
+        assertArrayEquals(IMAGE, second.bytes());
+        assertEquals(first.hash(), second.hash());
+        assertEquals(1, requests.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void staleEntriesAreRevalidated() throws IOException {
+        DownloadCache cache = cache(0, 1000, 1024);
+        cache.fetch(url("/image"));
+        DownloadCache.Download revalidated = cache.fetch(url("/image"));
+
+        assertArrayEquals(IMAGE, revalidated.bytes());
+        assertEquals(2, requests.get());
+        assertEquals(1, notModified.get());
+        assertEquals(1, cache.getRevalidations());
+        assertEquals(IMAGE.length, cache.getBytesDownloaded());
+    }
+
+    @Test
+    void entriesSurviveARestart() throws IOException {
+        cache(0, 1000, 1024).fetch(url("/image"));
+        DownloadCache restarted = cache(0, 1000, 1024);
+        DownloadCache.Download revalidated = restarted.fetch(url("/image"));
+
+        assertArrayEquals(IMAGE, revalidated.bytes());
+        assertEquals(1, restarted.getRevalidations());
+    }
+
+    @Test
+    void oversizedBodiesAreRefused() throws IOException {
+        DownloadCache cache = cache(60_000, 1000, 1024);
+        assertThrows(SizeLimitException.class, () -> cache.fetch(url("/big")));
+        assertThrows(SizeLimitException.class, () -> cache.fetch(url("/big-chunked")));
+        assertEquals(0, cache.getHits());
+        // nothing too big is kept, so asking again goes back to the server
+        assertThrows(SizeLimitException.class, () -> cache.fetch(url("/big")));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    void slowServersTimeOut() throws IOException {
+        DownloadCache cache = cache(60_000, 200, 1024);
+        long start = System.nanoTime();
+        assertThrows(SocketTimeoutException.class, () -> cache.fetch(url("/slow")));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMs < 1500, "gave up after " + elapsedMs + " ms");
+        // nothing was kept, so asking again goes back to the server
+        assertThrows(SocketTimeoutException.class, () -> cache.fetch(url("/slow")));
+        assertEquals(2, requests.get());
+    }
+}
@@ -0,0 +1,60 @@
+package space.essem.image2map.offline;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TileArchiveTest {
+    @TempDir
+    Path directory;
+
+    private static byte[] map(int color) {
+        byte[] colors = new byte[128 * 128];
+        Arrays.fill(colors, (byte) color);
+        return colors;
+    }
+
+    @Test
+    void imagesAreReadBackInOrder() throws IOException {
+        Path file = directory.resolve("a.i2m");
+        try (TileArchive.Writer writer = TileArchive.write(file)) {
+            writer.add(new TileArchive.Entry("one", 2, 1, new byte[][] { map(4), map(247) }, map(119)));
+            writer.add(new TileArchive.Entry("two", 1, 1, new byte[][] { map(0) }, null));
+        }
+        try (TileArchive.Reader reader = TileArchive.read(file)) {
+            TileArchive.Entry one = reader.next();
+            assertEquals("one", one.name());
+            assertEquals(2, one.tiles().length);
+            assertArrayEquals(map(247), one.tiles()[1]);
+            assertArrayEquals(map(119), one.posterColors());
+            TileArchive.Entry two = reader.next();
+            assertEquals("two", two.name());
+            assertNull(two.posterColors());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void colorsTheGameDoesNotHaveAreRejected() throws IOException {
+        Path file = directory.resolve("b.i2m");
+        byte[] colors = map(10);
+        // the first shade of base color 62, one past the last
+        colors[1234] = (byte) 248;
+        try (TileArchive.Writer writer = TileArchive.write(file)) {
+            writer.add(new TileArchive.Entry("bad", 1, 1, new byte[][] { colors }, null));
+        }
+        try (TileArchive.Reader reader = TileArchive.read(file)) {
+            IOException e = assertThrows(IOException.class, reader::next);
+            assertTrue(e.getMessage().startsWith("Invalid map color 248"), e.getMessage());
+        }
+    }
+}
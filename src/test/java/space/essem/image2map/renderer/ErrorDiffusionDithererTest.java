@@ -0,0 +1,110 @@
+package space.essem.image2map.renderer;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class ErrorDiffusionDithererTest {
+    private static final int[] WIDTHS = { 256, 300, 640, 1000 };
+    /** Strip heights, cycled through until the image is done, so strips start on every row of a kernel. */
+    private static final int[][] STRIPS = { { 128 }, { 1 }, { 7, 64, 2 }, { 33, 1, 90 } };
+    private static final int HEIGHT = 200;
+
+    private static MapPalette palette;
+    private static ExecutorService executor;
+    private static CountDownLatch release;
+
+    @BeforeAll
+    static void setUp() {
+        palette = MapPalette.create(MapPalette.VANILLA_BASE_COLORS, ColorMetric.RGB, null, false);
+        // fewer threads than workers asked for, and one of them taken for the whole test
+        executor = Executors.newFixedThreadPool(2);
+        release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+    }
+
+    @AfterAll
+    static void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    private static int[] image(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / (width - 1);
+                int g = y * 255 / (height - 1);
+                int b = (x * 31 + y * 17) % 256;
+                int a = (x / 13 + y / 11) % 7 == 0 ? 0x30 : 0xFF;
+                pixels[y * width + x] = a << 24 | r << 16 | g << 8 | b;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Dithers an image strip by strip, with the heights of {@code strips} in
+     * turn, and puts the output back together.
+     */
+    private static byte[] dither(Ditherer.Strips dither, int[] pixels, int width, int[] strips) {
+        byte[] out = new byte[pixels.length];
+        int y = 0;
+        for (int i = 0; y < HEIGHT; i++) {
+            int height = Math.min(strips[i % strips.length], HEIGHT - y);
+            int[] strip = new int[width * height];
+            byte[] stripOut = new byte[width * height];
+            System.arraycopy(pixels, y * width, strip, 0, strip.length);
+            dither.dither(strip, height, stripOut);
+            System.arraycopy(stripOut, 0, out, y * width, stripOut.length);
+            y += height;
+        }
+        return out;
+    }
+
+    private static void assertSameAsSequential(Ditherer mode, Executor executor, int parallelism) {
+        for (int width : WIDTHS) {
+            int[] pixels = image(width, HEIGHT);
+            for (int[] strips : STRIPS) {
+                Ditherer.Strips sequential = mode.startStrips(width, palette);
+                Ditherer.Strips wavefront = mode.startStrips(width, palette, executor, parallelism);
+                // make sure the rows really are split up
+                assertNotEquals(sequential.getClass(), wavefront.getClass(), "width " + width);
+                byte[] expected = dither(sequential, pixels, width, strips);
+                byte[] actual = dither(wavefront, pixels, width, strips);
+                assertArrayEquals(expected, actual, mode.getName() + ", width " + width + ", strips of "
+                        + Arrays.toString(strips));
+            }
+        }
+    }
+
+    @Test
+    void wavefrontMatchesSequentialStrips() {
+        assertSameAsSequential(Ditherers.FLOYD, executor, 4);
+        assertSameAsSequential(Ditherers.ATKINSON, executor, 3);
+        assertSameAsSequential(Ditherers.SIERRA_LITE, executor, 8);
+    }
+
+    @Test
+    void wavefrontFinishesWithoutTheExecutor() {
+        // the workers never get a thread, so the caller has to do every row itself
+        Executor never = task -> {
+        };
+        assertSameAsSequential(Ditherers.FLOYD, never, 4);
+        assertSameAsSequential(Ditherers.ATKINSON, never, 2);
+    }
+}
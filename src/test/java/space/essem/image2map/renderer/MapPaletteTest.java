@@ -0,0 +1,104 @@
+package space.essem.image2map.renderer;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class MapPaletteTest {
+    private static MapPalette palette;
+
+    @BeforeAll
+    static void createPalette() {
+        // the k-d tree, which the Vector API search is checked against below
+        palette = MapPalette.create(MapPalette.VANILLA_BASE_COLORS, ColorMetric.RGB, null, false);
+    }
+
+    private static boolean hasVectorApi() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    private static long crc(byte[] colors) {
+        CRC32 crc = new CRC32();
+        crc.update(colors);
+        return crc.getValue();
+    }
+
+    /**
+     * A smooth gradient with a few hard edges, so both flat areas and
+     * dithering show up in the output.
+     */
+    private static int[] gradient(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / (width - 1);
+                int g = y * 255 / (height - 1);
+                int b = (x / 16 + y / 16) % 2 == 0 ? 40 : 200;
+                pixels[y * width + x] = 0xFF000000 | r << 16 | g << 8 | b;
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    void baseColorsMatchTheGame() {
+        assertEquals(62, MapPalette.VANILLA_BASE_COLORS.length);
+        // DARK_CRIMSON and DARK_DULL_PINK
+        assertEquals(0x5C191D, MapPalette.VANILLA_BASE_COLORS[54]);
+        assertEquals(0x562C3E, MapPalette.VANILLA_BASE_COLORS[57]);
+        assertEquals(0x3C74A578, Arrays.hashCode(MapPalette.VANILLA_BASE_COLORS));
+    }
+
+    @Test
+    void shadesMatchTheGame() {
+        // DARK_CRIMSON, each shade is the base color scaled and rounded down
+        assertEquals(0x411114, palette.getRGB(54 * 4));
+        assertEquals(0x4F1518, palette.getRGB(54 * 4 + 1));
+        assertEquals(0x5C191D, palette.getRGB(54 * 4 + 2));
+        assertEquals(0x300D0F, palette.getRGB(54 * 4 + 3));
+        // the transparent color has no shades, and ids past the last color are unused
+        assertEquals(-1, palette.getRGB(62 * 4));
+    }
+
+    @Test
+    void paletteColorsQuantizeToThemselves() {
+        for (int color = 4; color < MapPalette.SIZE; color++) {
+            int rgb = palette.getRGB(color);
+            if (rgb == -1)
+                continue;
+            byte[] colors = MapQuantizer.quantize(new int[] { 0xFF000000 | rgb }, 1, 1, Ditherers.NONE, palette);
+            assertEquals(rgb, palette.getRGB(colors[0]), "color " + color);
+        }
+    }
+
+    @Test
+    void transparentPixelsStayTransparent() {
+        byte[] colors = MapQuantizer.quantize(new int[] { 0x00000000 }, 1, 1, Ditherers.NONE, palette);
+        assertEquals(0, colors[0]);
+    }
+
+    @Test
+    void vectorSearchMatchesTheTree() {
+        assumeTrue(hasVectorApi(), "needs --add-modules jdk.incubator.vector");
+        MapPalette vector = MapPalette.create(MapPalette.VANILLA_BASE_COLORS, ColorMetric.RGB, null, true);
+        assertEquals(palette.hash(), vector.hash());
+        for (int rgb = 0; rgb < 1 << 24; rgb++) {
+            // exact ties go to the lowest color in both
+            if (palette.match(rgb) != vector.match(rgb))
+                assertEquals(palette.match(rgb), vector.match(rgb), String.format("%06x", rgb));
+        }
+    }
+
+    @Test
+    void quantizedOutputIsUnchanged() {
+        int[] pixels = gradient(128, 128);
+        assertEquals(0x2259CDC1L, crc(MapQuantizer.quantize(pixels.clone(), 128, 128, Ditherers.NONE, palette)));
+        assertEquals(0xD0795CA8L, crc(MapQuantizer.quantize(pixels.clone(), 128, 128, Ditherers.FLOYD, palette)));
+        assertEquals(0xC6AD24FCL, crc(MapQuantizer.quantize(pixels.clone(), 128, 128, Ditherers.BAYER, palette)));
+    }
+}
@@ -0,0 +1,128 @@
+package space.essem.image2map.renderer;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RenderWorkersTest {
+    private static final int SIZE = RenderWorkers.SECTION_SIZE;
+
+    private static MapPalette palette;
+    private static ExecutorService executor;
+
+    private record Poster(String name, int countX, int countY, int sourceWidth, int sourceHeight, Rectangle area) {
+    }
+
+    @BeforeAll
+    static void setUp() {
+        palette = MapPalette.create(MapPalette.VANILLA_BASE_COLORS, ColorMetric.RGB, null);
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Every scale mode on a few poster shapes, with the areas the placement
+     * works out: stretch covers the poster, fit leaves transparent bars and
+     * fill is cropped on two sides.
+     */
+    private static List<Poster> posters() {
+        List<Poster> posters = new ArrayList<>();
+        posters.add(new Poster("stretch 1x1", 1, 1, 300, 170, new Rectangle(0, 0, SIZE, SIZE)));
+        posters.add(new Poster("stretch 3x2", 3, 2, 97, 61, new Rectangle(0, 0, 3 * SIZE, 2 * SIZE)));
+        posters.add(new Poster("fit 3x2", 3, 2, 200, 300, new Rectangle(107, 0, 170, 2 * SIZE)));
+        posters.add(new Poster("fit 2x3", 2, 3, 400, 150, new Rectangle(0, 144, 2 * SIZE, 96)));
+        posters.add(new Poster("fill 2x3", 2, 3, 400, 150, new Rectangle(-384, 0, 1024, 3 * SIZE)));
+        posters.add(new Poster("fill 4x1", 4, 1, 120, 333, new Rectangle(0, -646, 4 * SIZE, 1420)));
+        return posters;
+    }
+
+    private static int[] image(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / Math.max(1, width - 1);
+                int g = y * 255 / Math.max(1, height - 1);
+                int b = (x * 7 + y * 13) % 256;
+                // some pixels see-through, so transparency is carried through the scaling too
+                int a = (x / 9 + y / 9) % 5 == 0 ? 0x40 : 0xFF;
+                pixels[y * width + x] = a << 24 | r << 16 | g << 8 | b;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Renders a poster the way it was done before strips: scaled onto one
+     * full canvas, then quantized as a whole when seamless or map by map
+     * otherwise.
+     */
+    private static byte[][] renderCanvas(int[] pixels, Poster poster, ResampleFilter filter, Ditherer mode,
+            boolean seamless) {
+        int width = poster.countX() * SIZE;
+        int height = poster.countY() * SIZE;
+        int[] canvas = new int[width * height];
+        Rectangle area = poster.area();
+        Resampler.resample(pixels, poster.sourceWidth(), poster.sourceHeight(), canvas, width, height, area.x, area.y,
+                area.width, area.height, filter, null, 1);
+        if (seamless)
+            return MapQuantizer.sliceTiles(MapQuantizer.quantize(canvas, width, height, mode, palette),
+                    poster.countX(), poster.countY());
+
+        byte[][] tiles = new byte[poster.countX() * poster.countY()][];
+        int[] tilePixels = new int[SIZE * SIZE];
+        for (int tile = 0; tile < tiles.length; tile++) {
+            int x = tile % poster.countX();
+            int y = tile / poster.countX();
+            for (int row = 0; row < SIZE; row++)
+                System.arraycopy(canvas, (y * SIZE + row) * width + x * SIZE, tilePixels, row * SIZE, SIZE);
+            tiles[tile] = MapQuantizer.quantize(tilePixels, SIZE, SIZE, mode, palette);
+        }
+        return tiles;
+    }
+
+    private static void assertSameAsCanvas(ResampleFilter filter, Ditherer mode, boolean seamless) {
+        for (Poster poster : posters()) {
+            int[] pixels = image(poster.sourceWidth(), poster.sourceHeight());
+            byte[][] expected = renderCanvas(pixels, poster, filter, mode, seamless);
+            byte[][] strips = RenderWorkers.renderStrips(pixels, poster.sourceWidth(), poster.sourceHeight(),
+                    poster.area(), poster.countX(), poster.countY(), filter, mode, palette, seamless, executor, 2,
+                    RenderMonitor.NONE).join();
+            assertEquals(expected.length, strips.length, poster.name());
+            for (int tile = 0; tile < expected.length; tile++)
+                assertArrayEquals(expected[tile], strips[tile], poster.name() + ", map " + tile);
+        }
+    }
+
+    @Test
+    void orderedStripsMatchTheCanvas() {
+        assertSameAsCanvas(ResampleFilter.AREA, Ditherers.NONE, false);
+        assertSameAsCanvas(ResampleFilter.BILINEAR, Ditherers.BAYER, false);
+        assertSameAsCanvas(ResampleFilter.LANCZOS, Ditherers.BLUE_NOISE, true);
+    }
+
+    @Test
+    void diffusedStripsMatchTheCanvasMapByMap() {
+        assertSameAsCanvas(ResampleFilter.AREA, Ditherers.FLOYD, false);
+        assertSameAsCanvas(ResampleFilter.LANCZOS, Ditherers.ATKINSON, false);
+    }
+
+    @Test
+    void seamlessStripsMatchTheWholeCanvas() {
+        assertSameAsCanvas(ResampleFilter.AREA, Ditherers.FLOYD, true);
+        assertSameAsCanvas(ResampleFilter.BILINEAR, Ditherers.SERPENTINE, true);
+        assertSameAsCanvas(ResampleFilter.LANCZOS, Ditherers.SIERRA_LITE, true);
+    }
+}
@@ -0,0 +1,87 @@
+package space.essem.image2map.renderer;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Finds the closest palette color to many points at once with the Vector API,
+ * one point per lane, comparing each palette color against a whole block of
+ * points per instruction. Every color is checked, so the result is exactly
+ * that of a {@code PaletteIndex} search: exact ties go to the color listed
+ * first, which is the lowest map color.
+ * <p>
+ * The Vector API is still an incubator module, so this class can only be
+ * loaded when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}. {@code MapPalette} checks for
+ * that first and falls back to a {@code PaletteIndex} without it. It is built
+ * in a source set of its own, the only code compiled against the incubator
+ * module instead of with {@code --release}.
+ */
+public final class VectorPaletteSearch {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private final float[] coordinates;
+    private final int[] colors;
+
+    /**
+     * @param points the coordinates of each color, 3 per color
+     * @param colors the map color index of each point
+     */
+    public VectorPaletteSearch(float[][] points, int[] colors) {
+        this.coordinates = new float[colors.length * 3];
+        this.colors = colors.clone();
+        for (int i = 0; i < colors.length; i++)
+            System.arraycopy(points[i], 0, coordinates, i * 3, 3);
+    }
+
+    /**
+     * Finds the closest color to each point of a block.
+     *
+     * @param x      the first coordinate of each point
+     * @param y      the second coordinate of each point
+     * @param z      the third coordinate of each point
+     * @param count  the number of points
+     * @param out    receives the map color index of each point
+     * @param offset where in {@code out} the first point's color goes
+     */
+    public void search(float[] x, float[] y, float[] z, int count, byte[] out, int offset) {
+        float[] found = new float[SPECIES.length()];
+        int i = 0;
+        for (; i < SPECIES.loopBound(count); i += SPECIES.length()) {
+            FloatVector px = FloatVector.fromArray(SPECIES, x, i);
+            FloatVector py = FloatVector.fromArray(SPECIES, y, i);
+            FloatVector pz = FloatVector.fromArray(SPECIES, z, i);
+            FloatVector lowest = FloatVector.broadcast(SPECIES, Float.POSITIVE_INFINITY);
+            FloatVector closest = FloatVector.zero(SPECIES);
+            for (int c = 0; c < colors.length; c++) {
+                FloatVector d0 = px.sub(coordinates[c * 3]);
+                FloatVector d1 = py.sub(coordinates[c * 3 + 1]);
+                FloatVector d2 = pz.sub(coordinates[c * 3 + 2]);
+                FloatVector distance = d0.mul(d0).add(d1.mul(d1)).add(d2.mul(d2));
+                VectorMask<Float> closer = distance.lt(lowest);
+                lowest = lowest.blend(distance, closer);
+                closest = closest.blend((float) c, closer);
+            }
+            // the positions are small enough to be exact as floats
+            closest.intoArray(found, 0);
+            for (int lane = 0; lane < found.length; lane++)
+                out[offset + i + lane] = (byte) colors[(int) found[lane]];
+        }
+        for (; i < count; i++) {
+            float lowest = Float.POSITIVE_INFINITY;
+            int closest = 0;
+            for (int c = 0; c < colors.length; c++) {
+                float d0 = x[i] - coordinates[c * 3];
+                float d1 = y[i] - coordinates[c * 3 + 1];
+                float d2 = z[i] - coordinates[c * 3 + 2];
+                float distance = d0 * d0 + d1 * d1 + d2 * d2;
+                if (distance < lowest) {
+                    lowest = distance;
+                    closest = c;
+                }
+            }
+            out[offset + i] = (byte) colors[closest];
+        }
+    }
+}